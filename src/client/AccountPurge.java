@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes accounts that have not logged in since a cutoff date, together with
+ * their characters, directly from the realm and character databases.
+ * <p>
+ * Candidates are read in id order a chunk at a time, each read starting after
+ * the last id seen, so no read rescans rows already passed. The characters of
+ * a chunk are deleted by a CharacterDeleter and the accounts in one short
+ * transaction, keeping locks on the account tables brief. Accounts with a
+ * character online are left alone. Deletion is held to a ceiling of rows per
+ * second, counting accounts and characters.
+ * <p>
+ * After every chunk the last id is written to a checkpoint file, a purge that
+ * is cancelled or fails is resumed from there when run again with the same
+ * cutoff. The checkpoint is removed once the purge completes.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class AccountPurge {
+
+    public static final int DEFAULT_CHUNK = 200;
+    public static final int DEFAULT_RATE = 500;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final String CANDIDATES = "select id from *realm*.account "
+            + "where id > ? and last_login < ? and joindate < ? order by id limit ?";
+    private static final String COUNT = "select count(*) from *realm*.account "
+            + "where id > ? and last_login < ? and joindate < ?";
+    private static final String CHARACTERS = "select guid, account, online from *char*.characters where account in ";
+    private static final String TABLELIST = "select table_name from information_schema.tables where table_schema = ?";
+    /**
+     * Database placeholder, table and the column holding an account id
+     */
+    private static final String[][] TABLES = {
+        {"*char*", "account_data", "account"},
+        {"*char*", "character_tutorial", "account"},
+        {"*realm*", "account_banned", "id"},
+        {"*realm*", "realmcharacters", "acctid"},
+        {"*realm*", "account", "id"}
+    };
+    private final MangosSql sql;
+    private final File checkpoint;
+    private final CharacterDeleter deleter;
+    private int intChunk = DEFAULT_CHUNK;
+    private int intRate = DEFAULT_RATE;
+    private ProgressListener listener = null;
+    private List<String> deletes = null;
+    private volatile boolean boolCancelled = false;
+    private long lngLastId = 0;
+    private int intAccounts = 0;
+    private int intCharacters = 0;
+
+    /**
+     * Told after each chunk is committed
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param accounts Accounts deleted so far
+         * @param characters Characters deleted so far
+         * @param remaining Candidates still to look at
+         * @param rate Rows deleted per second over this run
+         */
+        void progress(int accounts, int characters, int remaining, double rate);
+    }
+
+    /**
+     * @param sql The databases to purge
+     * @param checkpoint File the position is kept in, may be null for a purge
+     * that cannot be resumed
+     */
+    public AccountPurge(MangosSql sql, File checkpoint) {
+        this.sql = sql;
+        this.checkpoint = checkpoint;
+        deleter = new CharacterDeleter(sql);
+        deleter.setRecount(false);
+    }
+
+    /**
+     * Set how many accounts are read and deleted at a time
+     *
+     * @param chunk
+     */
+    public void setChunkSize(int chunk) {
+        intChunk = Math.max(1, chunk);
+    }
+
+    /**
+     * Set the most rows, accounts and characters, deleted per second
+     *
+     * @param rate zero for no limit
+     */
+    public void setRateLimit(int rate) {
+        intRate = Math.max(0, rate);
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stop after the chunk in progress, the purge can be resumed later
+     */
+    public void cancel() {
+        boolCancelled = true;
+    }
+
+    /**
+     * Get the cutoff of an interrupted purge
+     *
+     * @return cutoff to resume with or -1 if there is nothing to resume
+     */
+    public long getResumeCutoff() {
+        Properties props = readCheckpoint();
+        if (props == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(props.getProperty("cutoff", "-1"));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Purge accounts that last logged in, and joined, before the cutoff
+     *
+     * @param cutoff Milliseconds since the epoch
+     * @return true if the purge completed, false if it was cancelled
+     * @throws SQLException if a chunk failed, earlier chunks stay purged
+     */
+    public boolean run(long cutoff) throws SQLException {
+        boolCancelled = false;
+        lngLastId = 0;
+        intAccounts = 0;
+        intCharacters = 0;
+        Properties props = readCheckpoint();
+        if (props != null && Long.toString(cutoff).equals(props.getProperty("cutoff"))) {
+            lngLastId = Long.parseLong(props.getProperty("lastid", "0"));
+            intAccounts = Integer.parseInt(props.getProperty("accounts", "0"));
+            intCharacters = Integer.parseInt(props.getProperty("characters", "0"));
+            logger.log(Level.INFO, "Account purge resuming after id {0}", lngLastId);
+        }
+        Timestamp before = new Timestamp(cutoff);
+        long started = System.currentTimeMillis();
+        long rows = 0;
+        int remaining;
+        try (SqlLease lease = sql.lease(null)) {
+            if (deletes == null) {
+                deletes = buildDeletes(lease);
+            }
+            ResultSet rs = lease.executeQuery(sql.compile(COUNT), lngLastId, before, before);
+            remaining = rs.next() ? rs.getInt(1) : 0;
+        }
+        while (!boolCancelled) {
+            List<Long> accounts = new ArrayList<>(intChunk);
+            try (SqlLease lease = sql.lease(null)) {
+                ResultSet rs = lease.executeQuery(sql.compile(CANDIDATES), lngLastId, before, before, intChunk);
+                while (rs.next()) {
+                    accounts.add(rs.getLong(1));
+                }
+            }
+            if (accounts.isEmpty()) {
+                break;
+            }
+            int deleted = purge(accounts);
+            rows += deleted;
+            remaining = Math.max(0, remaining - accounts.size());
+            lngLastId = accounts.get(accounts.size() - 1);
+            writeCheckpoint(cutoff);
+            throttle(rows, System.currentTimeMillis() - started);
+            long elapsed = Math.max(1, System.currentTimeMillis() - started);
+            if (listener != null) {
+                listener.progress(intAccounts, intCharacters, remaining, rows * 1000.0 / elapsed);
+            }
+        }
+        logger.log(Level.INFO, "Account purge {0}, {1} accounts and {2} characters deleted",
+                new Object[]{boolCancelled ? "cancelled" : "completed", intAccounts, intCharacters});
+        if (!boolCancelled && checkpoint != null && !checkpoint.delete() && checkpoint.exists()) {
+            logger.log(Level.WARNING, "Unable to remove {0}", checkpoint);
+        }
+        return !boolCancelled;
+    }
+
+    /**
+     * Delete a chunk of accounts and their characters
+     *
+     * @return rows deleted, counting accounts and characters
+     */
+    private int purge(List<Long> accounts) throws SQLException {
+        List<Long> guids = new ArrayList<>();
+        HashSet<Long> online = new HashSet<>();
+        try (SqlLease lease = sql.lease(null)) {
+            ResultSet rs = lease.executeQuery(sql.compile(CHARACTERS).getSql() + CharacterDeleter.inList(accounts));
+            while (rs.next()) {
+                if (rs.getInt(3) != 0) {
+                    online.add(rs.getLong(2));
+                }
+                guids.add(rs.getLong(1));
+            }
+        }
+        if (!online.isEmpty()) {
+            // Leave accounts that are playing, and their characters, alone
+            logger.log(Level.INFO, "Account purge skipping {0} online accounts", online.size());
+            accounts = new ArrayList<>(accounts);
+            accounts.removeAll(online);
+            guids.clear();
+            if (accounts.isEmpty()) {
+                return 0;
+            }
+            try (SqlLease lease = sql.lease(null)) {
+                ResultSet rs = lease.executeQuery(sql.compile(CHARACTERS).getSql() + CharacterDeleter.inList(accounts));
+                while (rs.next()) {
+                    guids.add(rs.getLong(1));
+                }
+            }
+        }
+        int chars = guids.isEmpty() ? 0 : deleter.deleteIds(guids, null);
+        String in = CharacterDeleter.inList(accounts);
+        try (SqlLease lease = sql.lease(null)) {
+            Connection conn = lease.getConnection();
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement()) {
+                for (String s : deletes) {
+                    st.addBatch(s + in);
+                }
+                st.executeBatch();
+                conn.commit();
+                lease.noteWrite();
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        intAccounts += accounts.size();
+        intCharacters += chars;
+        return accounts.size() + chars;
+    }
+
+    /**
+     * Sleep long enough to keep the rows per second under the ceiling
+     */
+    private void throttle(long rows, long elapsed) {
+        if (intRate == 0) {
+            return;
+        }
+        long due = rows * 1000 / intRate;
+        if (due > elapsed) {
+            try {
+                Thread.sleep(due - elapsed);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                boolCancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Build a delete for each account table present, the id list is appended
+     */
+    private List<String> buildDeletes(SqlLease lease) throws SQLException {
+        HashSet<String> present = new HashSet<>();
+        for (String db : new String[]{sql.getRealmDBName(), sql.getCharDBName()}) {
+            ResultSet rs = lease.executeQuery(TABLELIST, db);
+            while (rs.next()) {
+                present.add(db + "." + rs.getString(1).toLowerCase(Locale.ROOT));
+            }
+        }
+        List<String> result = new ArrayList<>(TABLES.length);
+        for (String[] t : TABLES) {
+            String table = sql.compile(t[0] + "." + t[1]).getSql();
+            if (present.contains(table)) {
+                result.add("delete from " + table + " where " + t[2] + " in ");
+            }
+        }
+        return result;
+    }
+
+    private Properties readCheckpoint() {
+        if (checkpoint == null || !checkpoint.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            props.load(in);
+            return props;
+        } catch (IOException ex) {
+            logger.throwing(this.getClass().getName(), "readCheckpoint", ex);
+            return null;
+        }
+    }
+
+    private void writeCheckpoint(long cutoff) {
+        if (checkpoint == null) {
+            return;
+        }
+        Properties props = new Properties();
+        props.setProperty("cutoff", Long.toString(cutoff));
+        props.setProperty("lastid", Long.toString(lngLastId));
+        props.setProperty("accounts", Integer.toString(intAccounts));
+        props.setProperty("characters", Integer.toString(intCharacters));
+        try (OutputStream out = new FileOutputStream(checkpoint)) {
+            props.store(out, "Account purge checkpoint");
+        } catch (IOException ex) {
+            logger.throwing(this.getClass().getName(), "writeCheckpoint", ex);
+        }
+    }
+}
@@ -19,7 +19,6 @@ package client;
 
 import lib.CSVToHashString;
 import lib.ComboSelectDialog;
-import lib.GlobalFunctions;
 import lib.HashString;
 import lib.InfoDialog;
 import lib.LineInputDialog;
@@ -31,12 +30,24 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import javax.swing.JMenuItem;
 import javax.swing.JTextField;
 import javax.swing.SwingWorker;
 
@@ -46,8 +57,15 @@ import javax.swing.SwingWorker;
  */
 public class AccountsPanel extends javax.swing.JPanel {
 
-    private final GlobalFunctions gf = GlobalFunctions.getInstance();
     private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final String CHARQUERY = "select characters.guid, name, *realm*.account.username, online, "
+            + "(*char*.character_ticket.guid = characters.guid) as ticket, race, "
+            + "class, gender, level, "
+            + "zone from *char*.characters "
+            + "left join *realm*.account on *realm*.account.id = *char*.characters.account "
+            + "left join *char*.character_ticket on *char*.character_ticket.guid = *char*.characters.guid";
+    private static final String ACCTQUERY = "select id,username,last_ip,last_login, "
+            + "gmlevel,expansion from *realm*.account";
     private Clipboard clippy;
     private ConnectionHandler connHandler;
     private DialogHandler dh;
@@ -62,6 +80,10 @@ public class AccountsPanel extends javax.swing.JPanel {
     private int intAcctRefreshTimer = -1;
     private PortalManager portalManager;
     private int dbVersion;
+    private JMenuItem jMenuItemPurge;
+    private AccountPurge activePurge = null;
+    private TableStreamer acctStreamer;
+    private TableStreamer charStreamer;
 
     /**
      * Creates new form AccountsPanel
@@ -71,8 +93,23 @@ public class AccountsPanel extends javax.swing.JPanel {
     public AccountsPanel(Clipboard clippy) {
         this.clippy = clippy;
         initComponents();
+        acctStreamer = new TableStreamer(dbTableAccount, "accounts");
+        charStreamer = new TableStreamer(dbTableChars, "characters");
         jProgChars.setVisible(false);
         jProgAccounts.setVisible(false);
+
+        // Purge of long inactive accounts, needs no selection
+        ResourceBundle bundle = ResourceBundle.getBundle("lang/MessagesBundle");
+        jMenuItemPurge = new JMenuItem(bundle.getString("mitem_purgeaccts"));
+        jMenuItemPurge.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                purgeAccounts();
+            }
+        });
+        jPopupAccounts.addSeparator();
+        jPopupAccounts.add(jMenuItemPurge);
         // Get Race, class, zones data etc
         CSVToHashString csvHash = new CSVToHashString();
         hsZone = csvHash.getHashStringFromResource("/resources/zones.csv");
@@ -82,9 +119,6 @@ public class AccountsPanel extends javax.swing.JPanel {
 
     public void setConnection(ConnectionHandler connHandler) {
         this.connHandler = connHandler;
-        // Create the statements used in this panel
-        connHandler.getActiveSQL().createRealmStatement("accts");
-        connHandler.getActiveSQL().createCharStatement("chars");
         dbVersion = connHandler.getActiveSQL().getMangosDBVersion();
 
         // Process server specific UI entities
@@ -146,6 +180,7 @@ public class AccountsPanel extends javax.swing.JPanel {
             setAccountMenusEnabled(false);
             jComboAcctField.setSelectedIndex(0);
             dbTableAccount.clearSelection();
+            acctStreamer.cancel();
             return;
         }
         if (delay == 0) {
@@ -188,22 +223,24 @@ public class AccountsPanel extends javax.swing.JPanel {
      */
     private void refreshAccountTable() {
 
-        StringBuilder filtertxt = new StringBuilder();
+        StringBuilder searchquery = new StringBuilder(ACCTQUERY);
+        List<Object> params = new ArrayList<>();
         String search;
         switch (jComboAcctField.getSelectedIndex()) {
             case 2:
             case 3:
-                filtertxt.append(" = '");
-                filtertxt.append(jComboAcctFilter.getSelectedIndex());
-                filtertxt.append("'");
+                searchquery.append(" where ").append(jComboAcctField.getSelectedItem()).append(" = ?");
+                params.add(jComboAcctFilter.getSelectedIndex());
                 break;
 
             case 4:
                 search = (String) jComboAcctFilter.getSelectedItem();
                 if (search != null) {
-                    filtertxt.append(" <= DATE_SUB(CURDATE(),INTERVAL ");
-                    filtertxt.append(search.substring(2));
-                    filtertxt.append(")");
+                    // The interval comes from the fixed filter list and cannot be bound
+                    searchquery.append(" where ").append(jComboAcctField.getSelectedItem());
+                    searchquery.append(" <= DATE_SUB(CURDATE(),INTERVAL ");
+                    searchquery.append(search.substring(2));
+                    searchquery.append(")");
                 }
                 break;
             default:
@@ -211,34 +248,34 @@ public class AccountsPanel extends javax.swing.JPanel {
                 if (search == null) {
                     search = "";
                 }
-                filtertxt.append(" like '%");
-                filtertxt.append(search.trim());
-                filtertxt.append("%'");
+                searchquery.append(" where ").append(jComboAcctField.getSelectedItem()).append(" like ?");
+                params.add("%" + search.trim() + "%");
         }
 
-        StringBuilder searchquery = new StringBuilder("select id,username,last_ip,last_login, "
-                + "gmlevel,expansion from account");
-
-        if (filtertxt.length() > 0) {
-            searchquery.append(" where ");
-            searchquery.append(jComboAcctField.getSelectedItem());
-            searchquery.append(filtertxt);
-        }
-
-        connHandler.getActiveSQL().setStatement("accts");
+        MangosSql sql = connHandler.getActiveSQL();
         dbTableAccount.setSelectionRetention(true);
-        dbTableAccount.setResultSet(connHandler.getActiveSQL().executeQuery(searchquery.toString()));
-        dbTableAccount.getModel().setPrimaryKey("id");
-        dbTableAccount.enableComboEditor("gmlevel", true,
-                dh.getStrings("gm_player", "gm_mod", "gm_games", "gm_admin", "gm_god"));
-        dbTableAccount.enableComboEditor("expansion", true, "Classic", "TBC", "WoTLK");
-        dbTableAccount.getModel().refreshTableContents();
-        dbTableAccount.autoAdjustRowHeight();
-        if (dbTableAccount.getSelectedRowCount() == 0) {
-            setAccountMenusEnabled(false);
-            dbTableAccount.clearSelection();
-        }
-        jLabelNoOfAccts.setText(dbTableAccount.getRowCount() + " " + dh.getString("info_records"));
+        // Rows are added as they arrive, edits go to the primary
+        acctStreamer.start(sql.getAsync(), sql.compile(searchquery.toString()), params.toArray(),
+                sql.getConnection(), "id", new TableStreamer.Listener() {
+
+                    @Override
+                    public void started() {
+                        dbTableAccount.getModel().setPrimaryKey("id");
+                        dbTableAccount.enableComboEditor("gmlevel", true,
+                                dh.getStrings("gm_player", "gm_mod", "gm_games", "gm_admin", "gm_god"));
+                        dbTableAccount.enableComboEditor("expansion", true, "Classic", "TBC", "WoTLK");
+                    }
+
+                    @Override
+                    public void loaded(int rows, boolean finished) {
+                        dbTableAccount.autoAdjustRowHeight();
+                        if (dbTableAccount.getSelectedRowCount() == 0) {
+                            setAccountMenusEnabled(false);
+                            dbTableAccount.clearSelection();
+                        }
+                        jLabelNoOfAccts.setText(rows + " " + dh.getString("info_records"));
+                    }
+                });
     }
 
     /**
@@ -307,6 +344,7 @@ public class AccountsPanel extends javax.swing.JPanel {
             setCharMenusEnabled(false);
             dbTableChars.clearSelection();
             jComboCharField.setSelectedIndex(0);
+            charStreamer.cancel();
             return;
         }
         if (delay == 0) {
@@ -323,6 +361,7 @@ public class AccountsPanel extends javax.swing.JPanel {
     private void refreshCharTable(int precision) {
 
         StringBuilder filtertxt = new StringBuilder();
+        Object[] params = {};
         int intSelected = jComboCharFilter.getSelectedIndex();
         String filter = (String) jComboCharFilter.getSelectedItem();
         if (filter == null) {
@@ -331,14 +370,14 @@ public class AccountsPanel extends javax.swing.JPanel {
         switch (jComboCharField.getSelectedIndex()) {
             case 4:
                 if (intSelected != 0) {
-                    filtertxt.append("class = ");
-                    filtertxt.append(intSelected);
+                    filtertxt.append("class = ?");
+                    params = new Object[]{intSelected};
                 }
                 break;
             case 3:
                 if (intSelected != 0) {
-                    filtertxt.append("race = ");
-                    filtertxt.append(intSelected);
+                    filtertxt.append("race = ?");
+                    params = new Object[]{intSelected};
                 }
                 break;
             case 2:
@@ -356,70 +395,71 @@ public class AccountsPanel extends javax.swing.JPanel {
                 }
                 switch (precision) {
                     case 0:
-                        filtertxt.append(" like '%");
-                        filtertxt.append(filter.trim());
-                        filtertxt.append("%'");
+                        filtertxt.append(" like ?");
+                        params = new Object[]{"%" + filter.trim() + "%"};
                         break;
 
                     case 1:
-                        filtertxt.append(" like '%");
-                        filtertxt.append(filter.trim());
-                        filtertxt.append("'");
+                        filtertxt.append(" like ?");
+                        params = new Object[]{"%" + filter.trim()};
                         break;
 
                     case 2:
-                        filtertxt.append(" like '");
-                        filtertxt.append(filter.trim());
-                        filtertxt.append("%'");
+                        filtertxt.append(" like ?");
+                        params = new Object[]{filter.trim() + "%"};
                         break;
 
                     case 3:
-                        filtertxt.append(" = '");
-                        filtertxt.append(filter.trim());
-                        filtertxt.append("'");
+                        filtertxt.append(" = ?");
+                        params = new Object[]{filter.trim()};
                         break;
                 }
         }
 
         // Using a custom query to do some fancy shit (well fancy by my limited sql ability) by joining 2 tables together
-        StringBuilder query = new StringBuilder("select characters.guid, name, *realm*.account.username, online, ");
-        query.append("(*char*.character_ticket.guid = characters.guid) as ticket, race, ");
-        query.append("class, gender, level, ");
-        query.append("zone from *char*.characters ");
-        query.append("left join *realm*.account on *realm*.account.id = *char*.characters.account ");
-        query.append("left join *char*.character_ticket on *char*.character_ticket.guid = *char*.characters.guid");
+        // The query is compiled once per filter and its value bound, so refreshes only look it up
+        StringBuilder query = new StringBuilder(CHARQUERY);
         if (filtertxt.length() > 0) {
             query.append(" where ");
             query.append(filtertxt);
         }
 
-        connHandler.getActiveSQL().setStatement("chars");
+        MangosSql sql = connHandler.getActiveSQL();
         dbTableChars.setSelectionRetention(true);
-        dbTableChars.setResultSet(connHandler.getActiveSQL().executeQuery(query.toString()));
-        dbTableChars.getModel().setPrimaryKey("guid");
-        if (hsClass != null) {
-            dbTableChars.enableTextReplacement("class", hsClass);
-        }
-        if (hsRace != null) {
-            dbTableChars.enableTextReplacement("race", hsRace);
-        }
-        if (hsZone != null) {
-            dbTableChars.enableTextReplacement("zone", hsZone);
-        }
-        if (hsTicket == null) {
-            hsTicket = new HashString();
-            hsTicket.putStringValue("NULL", "No");
-            hsTicket.putStringValue("0", "No");
-            hsTicket.putStringValue("1", "Yes");
-        }
-        dbTableChars.getModel().setColumnHeader(4, "ticket");
-        dbTableChars.enableTextReplacement("ticket", hsTicket);
-        dbTableChars.enableNumericReplacement("gender", "Male", "Female");
-        dbTableChars.enableNumericReplacement("online", "No", "Yes");
-        dbTableChars.getModel().refreshTableContents();
-        dbTableChars.autoAdjustRowHeight();
-        setCharMenusEnabled(dbTableChars.getSelectedRowCount() != 0);
-        jLabelNoOfChars.setText(dbTableChars.getRowCount() + " " + dh.getString("info_records"));
+        charStreamer.start(sql.getAsync(), sql.compile(query.toString()), params,
+                null, "guid", new TableStreamer.Listener() {
+
+                    @Override
+                    public void started() {
+                        dbTableChars.getModel().setPrimaryKey("guid");
+                        if (hsClass != null) {
+                            dbTableChars.enableTextReplacement("class", hsClass);
+                        }
+                        if (hsRace != null) {
+                            dbTableChars.enableTextReplacement("race", hsRace);
+                        }
+                        if (hsZone != null) {
+                            dbTableChars.enableTextReplacement("zone", hsZone);
+                        }
+                        if (hsTicket == null) {
+                            hsTicket = new HashString();
+                            hsTicket.putStringValue("NULL", "No");
+                            hsTicket.putStringValue("0", "No");
+                            hsTicket.putStringValue("1", "Yes");
+                        }
+                        dbTableChars.getModel().setColumnHeader(4, "ticket");
+                        dbTableChars.enableTextReplacement("ticket", hsTicket);
+                        dbTableChars.enableNumericReplacement("gender", "Male", "Female");
+                        dbTableChars.enableNumericReplacement("online", "No", "Yes");
+                    }
+
+                    @Override
+                    public void loaded(int rows, boolean finished) {
+                        dbTableChars.autoAdjustRowHeight();
+                        setCharMenusEnabled(dbTableChars.getSelectedRowCount() != 0);
+                        jLabelNoOfChars.setText(rows + " " + dh.getString("info_records"));
+                    }
+                });
     }
 
     /**
@@ -486,6 +526,121 @@ public class AccountsPanel extends javax.swing.JPanel {
         }
     }
 
+    /**
+     * Delete accounts that have not logged in for a number of years, choosing
+     * it again while a purge is running stops the purge
+     */
+    private void purgeAccounts() {
+        if (activePurge != null) {
+            activePurge.cancel();
+            return;
+        }
+        final AccountPurge purge = connHandler.createAccountPurge();
+        long cutoff = purge.getResumeCutoff();
+        if (cutoff >= 0) {
+            dh.createWarn("title_acct_purge", "info_purge_resume");
+            dh.setVisible(true);
+            if (dh.getReturnStatus() == InfoDialog.CANCEL) {
+                cutoff = -1;
+            }
+        }
+        if (cutoff < 0) {
+            SpinnerInputDialog spinDialog = new SpinnerInputDialog((Frame) getTopLevelAncestor(), true);
+            spinDialog.setLocationRelativeTo(this);
+            spinDialog.setEntryLabel(dh.getString("lab_purgeyears"));
+            spinDialog.setMinValue(1);
+            spinDialog.setMaxValue(20);
+            spinDialog.setValue(3);
+            spinDialog.setTitle(dh.getString("title_acct_purge"));
+            spinDialog.setVisible(true);
+            if (spinDialog.getReturnStatus() == SpinnerInputDialog.RET_CANCEL) {
+                return;
+            }
+            dh.createWarn("title_acct_purge", "info_acct_purge");
+            dh.setVisible(true);
+            if (dh.getReturnStatus() == InfoDialog.CANCEL) {
+                return;
+            }
+            Calendar cal = Calendar.getInstance();
+            cal.add(Calendar.YEAR, -spinDialog.getValue());
+            cutoff = cal.getTimeInMillis();
+        }
+
+        final long before = cutoff;
+        activePurge = purge;
+        jProgAccounts.setMinimum(0);
+        jProgAccounts.setValue(0);
+        jProgAccounts.setVisible(true);
+
+        SwingWorker<String, int[]> task = new SwingWorker<String, int[]>() {
+
+            @Override
+            public String doInBackground() {
+                purge.setProgressListener(new AccountPurge.ProgressListener() {
+
+                    @Override
+                    public void progress(int accounts, int characters, int remaining, double rate) {
+                        publish(new int[]{accounts, characters, remaining, (int) rate});
+                    }
+                });
+                try {
+                    return purge.run(before) ? "info_purge_done" : "info_purge_stopped";
+                } catch (SQLException ex) {
+                    logger.throwing(this.getClass().getName(), "purgeAccounts", ex);
+                    return "info_purge_failed";
+                }
+            }
+
+            @Override
+            protected void done() {
+                activePurge = null;
+                jProgAccounts.setVisible(false);
+                updateAccountTable(0);
+                updateCharTable(0, 0);
+                try {
+                    dh.createInfo("title_acct_purge", get());
+                    dh.setVisible(true);
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.throwing(this.getClass().getName(), "purgeAccounts", ex);
+                }
+            }
+
+            @Override
+            protected void process(List<int[]> progress) {
+                int[] p = progress.get(progress.size() - 1);
+                jProgAccounts.setMaximum(p[0] + p[2]);
+                jProgAccounts.setValue(p[0]);
+                jProgAccounts.setString(dh.getString("prog_acctpurge") + " " + p[0] + " / "
+                        + p[1] + " (" + p[3] + "/s)");
+            }
+        };
+        task.execute();
+    }
+
+    /**
+     * Apply a task to the named accounts across the session pool. The first
+     * is sent on its own, if its reply shows the RA account may not run the
+     * command the rest are not sent and only its reply is returned.
+     *
+     * @param names The account names
+     * @param refusal Reply text that shows the command was refused
+     * @param task The task
+     * @return future server results, in the same order as the names
+     */
+    private List<CompletableFuture<RAResult>> fanOutAccounts(List<String> names, String refusal,
+            RASessionPool.RATask<String> task) {
+        RASessionPool pool = connHandler.getRAPool();
+        List<CompletableFuture<RAResult>> replies = new ArrayList<>(names.size());
+        if (names.isEmpty()) {
+            return replies;
+        }
+        replies.addAll(pool.fanOut(names.subList(0, 1), task));
+        if (!replies.get(0).join().getText().contains(refusal)) {
+            replies.addAll(pool.fanOut(names.subList(1, names.size()), task));
+        }
+        return replies;
+    }
+
     private void deleteAccount() {
 
         dh.createWarn("title_acct_delete", "info_acct_delete");
@@ -505,17 +660,28 @@ public class AccountsPanel extends javax.swing.JPanel {
 
             @Override
             public String doInBackground() {
+                // Spread the deletions across the session pool then collect the replies in order
+                List<String> names = new ArrayList<>();
                 for (int i = 0; i < selRows.length; i++) {
-                    name = (String) dbTableAccount.getValueAt(selRows[i], 1);
-                    result = connHandler.getRAConnection().deleteAccount(name);
+                    names.add((String) dbTableAccount.getValueAt(selRows[i], 1));
+                }
+                List<CompletableFuture<RAResult>> replies = fanOutAccounts(names, "low security level",
+                        new RASessionPool.RATask<String>() {
+
+                            @Override
+                            public CompletableFuture<RAResult> apply(MangosTelnet session, String item) {
+                                return session.deleteAccountAsync(item);
+                            }
+                        });
+                for (int i = 0; i < replies.size(); i++) {
+                    name = names.get(i);
+                    result = replies.get(i).join().getText();
                     if (result.contains("low security level")) {
                         dh.createError("title_acctdelete_err", "info_lowsec");
                         dh.setVisible(true);
-                        result = "err";
                         break;
                     }
                     publish(i + 1);
-                    gf.pause(1000 / selRows.length);
                 }
                 return null;
             }
@@ -523,10 +689,8 @@ public class AccountsPanel extends javax.swing.JPanel {
             @Override
             protected void done() {
                 jProgAccounts.setVisible(false);
-                if (!result.contentEquals("err")) {
-                    updateAccountTable(0);
-                    updateCharTable(0, 0);
-                }
+                updateAccountTable(0);
+                updateCharTable(0, 0);
             }
 
             @Override
@@ -549,12 +713,16 @@ public class AccountsPanel extends javax.swing.JPanel {
         }
 
         final int[] selRows = dbTableChars.getSelectedRows();
+        final ArrayList<String> guids = new ArrayList<>(selRows.length);
+        for (int row : selRows) {
+            guids.add(dbTableChars.getValueAt(row, 0).toString());
+        }
         jProgChars.setMinimum(0);
         jProgChars.setMaximum(selRows.length);
         jProgChars.setVisible(true);
 
         SwingWorker task = new SwingWorker<String, Integer>() {
-            String name;
+            String name = "";
             String guid;
             String result;
 
@@ -562,7 +730,7 @@ public class AccountsPanel extends javax.swing.JPanel {
             public String doInBackground() {
                 try {
                     for (int i = 0; i < selRows.length; i++) {
-                        guid = dbTableChars.getValueAt(selRows[i], 0).toString();
+                        guid = guids.get(i);
                         name = connHandler.getActiveSQL().getCharNameFromGUID(guid);
                         kickAndVerify(name);
                         result = connHandler.getRAConnection().deleteChar(name);
@@ -571,7 +739,6 @@ public class AccountsPanel extends javax.swing.JPanel {
                             dh.setVisible(true);
                         }
                         publish(i + 1);
-                        gf.pause(1000 / selRows.length);
                     }
                 } catch (Exception ex) {
                     logger.throwing(this.getClass().getName(), "charDelete", ex);
@@ -715,6 +882,9 @@ public class AccountsPanel extends javax.swing.JPanel {
 
     private void safeRevive() {
         setCursor(new Cursor(Cursor.WAIT_CURSOR));
+        final String charname = strSelectedCharName;
+        final MangosTelnet ra = connHandler.getRAConnection();
+        CompletableFuture<RAResult> teleported;
         // A dirty hack to allow teleport to homebound (Hearthstone location)
         connHandler.getActiveSQL().createStatement("revive");
         connHandler.getActiveSQL().setStatement("revive");
@@ -731,20 +901,43 @@ public class AccountsPanel extends javax.swing.JPanel {
                     + connHandler.getActiveSQL().getString(4) + ",'saferevive'" + ")";
             connHandler.getActiveSQL().executeUpdate(strInsert);
             // Reload the teleport table so mangos server knows about the change
-            connHandler.getRAConnection().reloadTable("game_tele");
-            // Delete entry from database as we no longer need it after the reload
-            connHandler.getActiveSQL().executeUpdate("delete from *mangos*.game_tele where id=4000");
-            connHandler.getActiveSQL().removeStatement("revive");
-            connHandler.getRAConnection().teleport(strSelectedCharName, "saferevive");
+            teleported = ra.reloadTableAsync("game_tele").thenComposeAsync(new Function<RAResult, CompletionStage<RAResult>>() {
+
+                @Override
+                public CompletionStage<RAResult> apply(RAResult result) {
+                    // Delete entry from database as we no longer need it after the reload
+                    connHandler.getActiveSQL().executeUpdate("delete from *mangos*.game_tele where id=4000");
+                    connHandler.getActiveSQL().removeStatement("revive");
+                    return ra.teleportAsync(charname, "saferevive");
+                }
+            }, MangosTelnet.EDT);
+        } else {
+            teleported = CompletableFuture.completedFuture(null);
         }
-        setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
-        connHandler.getRAConnection().revive(strSelectedCharName);
-        updateCharTable(5, 0);
+        teleported.thenCompose(new Function<RAResult, CompletionStage<RAResult>>() {
+
+            @Override
+            public CompletionStage<RAResult> apply(RAResult result) {
+                return ra.reviveAsync(charname);
+            }
+        }).thenAcceptAsync(new Consumer<RAResult>() {
+
+            @Override
+            public void accept(RAResult result) {
+                setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+                updateCharTable(5, 0);
+            }
+        }, MangosTelnet.EDT);
     }
 
     private void revive() {
-        connHandler.getRAConnection().revive(strSelectedCharName);
-        updateCharTable(2, 0);
+        connHandler.getRAConnection().reviveAsync(strSelectedCharName).thenAcceptAsync(new Consumer<RAResult>() {
+
+            @Override
+            public void accept(RAResult result) {
+                updateCharTable(2, 0);
+            }
+        }, MangosTelnet.EDT);
     }
 
     private void repairItems() {
@@ -894,7 +1087,6 @@ public class AccountsPanel extends javax.swing.JPanel {
                         connHandler.getRAConnection().banIP(strID, bad.getReason(), bad.getDuration());
                     }
                     publish(i + 1);
-                    gf.pause(1000 / selRows.length);
                 }
                 return null;
             }
@@ -948,17 +1140,28 @@ public class AccountsPanel extends javax.swing.JPanel {
 
             @Override
             public String doInBackground() {
+                // Spread the changes across the session pool then collect the replies in order
+                List<String> names = new ArrayList<>();
                 for (int i = 0; i < selRows.length; i++) {
-                    name = (String) dbTableAccount.getValueAt(selRows[i], 1);
-                    result = connHandler.getRAConnection().setGM(name, strIndex);
+                    names.add((String) dbTableAccount.getValueAt(selRows[i], 1));
+                }
+                List<CompletableFuture<RAResult>> replies = fanOutAccounts(names, "no such subcommand",
+                        new RASessionPool.RATask<String>() {
+
+                            @Override
+                            public CompletableFuture<RAResult> apply(MangosTelnet session, String item) {
+                                return session.setGMAsync(item, strIndex);
+                            }
+                        });
+                for (int i = 0; i < replies.size(); i++) {
+                    name = names.get(i);
+                    result = replies.get(i).join().getText();
                     if (result.contains("no such subcommand")) {
                         dh.createError("title_acctpriv_err", "info_lowsec");
                         dh.setVisible(true);
-                        result = "err";
                         break;
                     }
                     publish(i + 1);
-                    gf.pause(1000 / selRows.length);
                 }
                 return null;
             }
@@ -966,9 +1169,7 @@ public class AccountsPanel extends javax.swing.JPanel {
             @Override
             protected void done() {
                 jProgAccounts.setVisible(false);
-                if (!result.contentEquals("err")) {
-                    updateAccountTable(0);
-                }
+                updateAccountTable(0);
             }
 
             @Override
@@ -1027,11 +1228,23 @@ public class AccountsPanel extends javax.swing.JPanel {
 
             @Override
             public String doInBackground() {
+                // Spread the changes across the session pool then collect the replies in order
+                List<String> names = new ArrayList<>();
+                for (int i = 0; i < selRows.length; i++) {
+                    names.add((String) dbTableAccount.getValueAt(selRows[i], 1));
+                }
+                List<CompletableFuture<RAResult>> replies = connHandler.getRAPool().fanOut(names,
+                        new RASessionPool.RATask<String>() {
+
+                            @Override
+                            public CompletableFuture<RAResult> apply(MangosTelnet session, String item) {
+                                return session.setExpansionAsync(item, strIndex);
+                            }
+                        });
                 for (int i = 0; i < selRows.length; i++) {
-                    name = (String) dbTableAccount.getValueAt(selRows[i], 1);
-                    connHandler.getRAConnection().setExpansion(name, strIndex);
+                    name = names.get(i);
+                    replies.get(i).join();
                     publish(i + 1);
-                    gf.pause(1000 / selRows.length);
                 }
                 return null;
             }
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiFunction;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs database work for the user interface on a small dedicated executor so
+ * the event dispatch thread never waits on the database, and hands the
+ * results back on the event dispatch thread.
+ * <p>
+ * Each request is made under a key, normally naming the table it refreshes.
+ * A new request supersedes the one before under the same key, which is
+ * cancelled, its statement too if it has one running, and whose result is
+ * never handed back. Requests under the same key run one after the other,
+ * requests under different keys may run at the same time.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class AsyncSql {
+
+    public static final int THREADS = 2;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final MangosSql sql;
+    private final ExecutorService executor;
+    private final HashMap<String, Request> latest = new HashMap<>();
+
+    /**
+     * Database work, run on the executor
+     *
+     * @param <T> The result
+     */
+    public interface Work<T> {
+
+        /**
+         * @param request The request being run, for checking whether it has
+         * been cancelled and for registering its statement
+         * @return the result
+         * @throws SQLException
+         */
+        T run(Request request) throws SQLException;
+    }
+
+    /**
+     * Receives a result on the event dispatch thread
+     *
+     * @param <T> The result
+     */
+    public interface Done<T> {
+
+        void done(T result);
+    }
+
+    /**
+     * A request made through submit()
+     */
+    public static final class Request {
+
+        private final String key;
+        private volatile boolean boolCancelled = false;
+        private Statement statement = null;
+        private CompletableFuture<Void> finished;
+
+        private Request(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the key the request was made under
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return true once superseded or cancelled
+         */
+        public boolean isCancelled() {
+            return boolCancelled;
+        }
+
+        /**
+         * Set the statement cancelled along with this request
+         *
+         * @param st
+         */
+        public void watch(Statement st) {
+            synchronized (this) {
+                statement = st;
+            }
+            if (boolCancelled) {
+                cancel(st);
+            }
+        }
+
+        /**
+         * Cancel the request, a statement it is running is cancelled on the
+         * server
+         */
+        public void cancel() {
+            boolCancelled = true;
+            Statement st;
+            synchronized (this) {
+                st = statement;
+            }
+            if (st != null) {
+                cancel(st);
+            }
+        }
+
+        /**
+         * Run something on the event dispatch thread unless the request has
+         * been cancelled by then
+         *
+         * @param r
+         */
+        public void publish(final Runnable r) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!boolCancelled) {
+                        r.run();
+                    }
+                }
+            });
+        }
+
+        private static void cancel(Statement st) {
+            try {
+                st.cancel();
+            } catch (SQLException ex) {
+                logger.throwing(Request.class.getName(), "cancel", ex);
+            }
+        }
+    }
+
+    /**
+     * @param sql The databases worked on
+     */
+    AsyncSql(MangosSql sql) {
+        this.sql = sql;
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SQL Async");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return the databases worked on
+     */
+    public MangosSql getSql() {
+        return sql;
+    }
+
+    /**
+     * Run work on the executor, superseding any earlier request under the
+     * same key
+     *
+     * @param <T> The result
+     * @param key What the work is for
+     * @param work The work
+     * @param done Given the result on the event dispatch thread if the
+     * request is still current, may be null. Not called if the work fails.
+     * A result not given to it is closed if it can be.
+     * @return the request
+     */
+    public <T> Request submit(String key, final Work<T> work, final Done<T> done) {
+        final Request request = new Request(key);
+        synchronized (this) {
+            Request old = latest.put(key, request);
+            CompletableFuture<Void> previous;
+            if (old != null) {
+                old.cancel();
+                previous = old.finished;
+            } else {
+                previous = CompletableFuture.completedFuture(null);
+            }
+            // Queued behind the request it supersedes, which is stopping
+            request.finished = previous.handleAsync(new BiFunction<Void, Throwable, Void>() {
+
+                @Override
+                public Void apply(Void v, Throwable t) {
+                    execute(request, work, done);
+                    return null;
+                }
+            }, executor);
+        }
+        return request;
+    }
+
+    private <T> void execute(final Request request, Work<T> work, final Done<T> done) {
+        try {
+            if (request.isCancelled()) {
+                return;
+            }
+            final T result = work.run(request);
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (request.isCancelled() || done == null) {
+                        discard(result);
+                    } else {
+                        done.done(result);
+                    }
+                }
+            });
+        } catch (SQLException | RuntimeException ex) {
+            if (!request.isCancelled()) {
+                logger.throwing(this.getClass().getName(), "execute(" + request.getKey() + ")", ex);
+            }
+        } finally {
+            synchronized (this) {
+                if (latest.get(request.getKey()) == request) {
+                    latest.remove(request.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Close a result that is not handed back, if it is something that can
+     * be closed such as a result set
+     *
+     * @param result
+     */
+    private void discard(Object result) {
+        if (result instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) result).close();
+            } catch (Exception ex) {
+                logger.throwing(this.getClass().getName(), "discard", ex);
+            }
+        }
+    }
+
+    /**
+     * Cancel the request under a key
+     *
+     * @param key
+     */
+    public void cancel(String key) {
+        Request request;
+        synchronized (this) {
+            // Left in place so a later request still waits for it to stop
+            request = latest.get(key);
+        }
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Cancel every request
+     */
+    public void cancelAll() {
+        ArrayList<Request> requests;
+        synchronized (this) {
+            requests = new ArrayList<>(latest.values());
+        }
+        for (Request request : requests) {
+            request.cancel();
+        }
+    }
+}
@@ -21,7 +21,10 @@ import lib.DBJTableBean;
 import lib.GlobalFunctions;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.logging.Logger;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingWorker;
 
@@ -31,25 +34,37 @@ import javax.swing.SwingWorker;
  */
 public class BannedPanel extends javax.swing.JPanel {
 
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    // Using a custom query to do some fancy stuff by joining 2 tables together
+    private static final String ACTIVEQUERY = "select username as 'acct or ip',from_unixtime(bandate,'%m.%d.%Y %H:%i:%s') as bandate,"
+            + "from_unixtime(unbandate,'%m.%d.%Y %H:%i:%s') as unbandate,banreason from *realm*.account_banned "
+            + "left join *realm*.account on *realm*.account_banned.id = *realm*.account.id "
+            + "where active = 1 union select ip,from_unixtime(bandate,'%m.%d.%Y %H:%i:%s'),from_unixtime(unbandate,'%m.%d.%Y %H:%i:%s'),"
+            + "banreason from *realm*.ip_banned";
+    private static final String INACTIVEQUERY = "select username as 'account',from_unixtime(bandate,'%m.%d.%Y %H:%i:%s') as bandate,"
+            + "from_unixtime(unbandate,'%m.%d.%Y %H:%i:%s') as unbandate,banreason from *realm*.account_banned "
+            + "left join *realm*.account on *realm*.account_banned.id = *realm*.account.id "
+            + "where active = 0";
     private final GlobalFunctions gf = GlobalFunctions.getInstance();
     private ConnectionHandler connHandler;
     private DialogHandler dh;
     private int intBanRefreshTimer = -1;
+    private TableStreamer activeStreamer;
+    private TableStreamer inactiveStreamer;
 
     /**
      * Creates new form BannedPanel
      */
     public BannedPanel() {
         initComponents();
+        activeStreamer = new TableStreamer(dbTableActiveBans, "activebans");
+        inactiveStreamer = new TableStreamer(dbTableInactiveBans, "inactivebans");
         jProgActBans.setVisible(false);
         jProgInActBans.setVisible(false);
     }
 
     public void setConnection(ConnectionHandler connHandler) {
         this.connHandler = connHandler;
-        // Create the statements used in this panel
-        connHandler.getActiveSQL().createRealmStatement("bansactive");
-        connHandler.getActiveSQL().createRealmStatement("bansinactive");
     }
 
     /**
@@ -82,6 +97,8 @@ public class BannedPanel extends javax.swing.JPanel {
      */
     public void updateBanTables(int delay) {
         if (delay < 0) {
+            activeStreamer.cancel();
+            inactiveStreamer.cancel();
             dbTableActiveBans.clearSelection();
             dbTableInactiveBans.clearSelection();
             return;
@@ -118,31 +135,37 @@ public class BannedPanel extends javax.swing.JPanel {
 
         setActiveBanMenusEnabled(false);
         setInActiveBanMenusEnabled(false);
-        // Using a custom query to do some fancy stuff by joining 2 tables together
-        String query = "select username as 'acct or ip',from_unixtime(bandate,'%m.%d.%Y %H:%i:%s') as bandate,"
-                + "from_unixtime(unbandate,'%m.%d.%Y %H:%i:%s') as unbandate,banreason from *realm*.account_banned "
-                + "left join *realm*.account on *realm*.account_banned.id = *realm*.account.id "
-                + "where active = 1 union select ip,from_unixtime(bandate,'%m.%d.%Y %H:%i:%s'),from_unixtime(unbandate,'%m.%d.%Y %H:%i:%s'),"
-                + "banreason from *realm*.ip_banned";
-        connHandler.getActiveSQL().setStatement("bansactive");
+        MangosSql sql = connHandler.getActiveSQL();
         dbTableActiveBans.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-        dbTableActiveBans.getModel().setResultSet(connHandler.getActiveSQL().executeQuery(query));
-        dbTableActiveBans.getModel().setPrimaryKey("Username");
-        dbTableActiveBans.getModel().refreshTableContents();
-        dbTableActiveBans.autoAdjustRowHeight();
-        jLabelActBans.setText(dbTableActiveBans.getRowCount() + " " + dh.getString("info_records"));
-
-        // Using a custom query to do some fancy stuff by joining 2 tables together
-        query = "select username as 'account',from_unixtime(bandate,'%m.%d.%Y %H:%i:%s') as bandate,"
-                + "from_unixtime(unbandate,'%m.%d.%Y %H:%i:%s') as unbandate,banreason from *realm*.account_banned "
-                + "left join *realm*.account on *realm*.account_banned.id = *realm*.account.id "
-                + "where active = 0";
-        connHandler.getActiveSQL().setStatement("bansinactive");
+        activeStreamer.start(sql.getAsync(), sql.compile(ACTIVEQUERY), new Object[0],
+                null, "Username", new TableStreamer.Listener() {
+
+                    @Override
+                    public void started() {
+                        dbTableActiveBans.getModel().setPrimaryKey("Username");
+                    }
+
+                    @Override
+                    public void loaded(int rows, boolean finished) {
+                        dbTableActiveBans.autoAdjustRowHeight();
+                        jLabelActBans.setText(rows + " " + dh.getString("info_records"));
+                    }
+                });
+
         dbTableInactiveBans.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-        dbTableInactiveBans.getModel().setResultSet(connHandler.getActiveSQL().executeQuery(query));
-        dbTableInactiveBans.getModel().refreshTableContents();
-        dbTableInactiveBans.autoAdjustRowHeight();
-        jLabelInActBans.setText(dbTableInactiveBans.getRowCount() + " " + dh.getString("info_records"));
+        inactiveStreamer.start(sql.getAsync(), sql.compile(INACTIVEQUERY), new Object[0],
+                null, "Username", new TableStreamer.Listener() {
+
+                    @Override
+                    public void started() {
+                    }
+
+                    @Override
+                    public void loaded(int rows, boolean finished) {
+                        dbTableInactiveBans.autoAdjustRowHeight();
+                        jLabelInActBans.setText(rows + " " + dh.getString("info_records"));
+                    }
+                });
     }
 
     private void unbanAcctIp(final DBJTableBean dbtable) {
@@ -165,7 +188,6 @@ public class BannedPanel extends javax.swing.JPanel {
                         connHandler.getRAConnection().unbanAcct(acctip);
                     }
                     publish(Integer.valueOf(i + 1));
-                    gf.pause(1000 / selRows.length);
                 }
                 return null;
             }
@@ -195,20 +217,25 @@ public class BannedPanel extends javax.swing.JPanel {
         jProgInActBans.setMaximum(selRows.length);
         jProgInActBans.setVisible(true);
 
-        connHandler.getActiveSQL().createRealmStatement("delban");
-        connHandler.getActiveSQL().setStatement("delban");
-
         SwingWorker task = new SwingWorker<String, Integer>() {
             String acctid = null;
 
             @Override
             public String doInBackground() {
-                for (int i = 0; i < selRows.length; i++) {
-                    acctid = (String) dbtable.getValueAt(selRows[i], 0);
-                    acctid = connHandler.getActiveSQL().getAcctIDFromAcctName(acctid);
-                    connHandler.getActiveSQL().executeUpdate("delete from account_banned where id='" + acctid + "' and active='0'");
-                    publish(Integer.valueOf(i + 1));
-                    gf.pause(1000 / selRows.length);
+                MangosSql sql = connHandler.getActiveSQL();
+                // Use our own pooled connection so the panels are not disturbed
+                try (SqlLease lease = sql.lease(sql.getRealmDBName())) {
+                    for (int i = 0; i < selRows.length; i++) {
+                        acctid = (String) dbtable.getValueAt(selRows[i], 0);
+                        ResultSet rs = lease.executeQuery("select id from account where username=?", acctid);
+                        if (rs.next()) {
+                            lease.executeUpdate("delete from account_banned where id=? and active='0'", rs.getString(1));
+                        }
+                        publish(Integer.valueOf(i + 1));
+                        gf.pause(1000 / selRows.length);
+                    }
+                } catch (SQLException ex) {
+                    logger.throwing(this.getClass().getName(), "deleteBanEntry", ex);
                 }
                 return null;
             }
@@ -216,7 +243,6 @@ public class BannedPanel extends javax.swing.JPanel {
             @Override
             protected void done() {
                 jProgInActBans.setVisible(false);
-                connHandler.getActiveSQL().removeStatement("delban");
                 updateBanTables(1);
             }
 
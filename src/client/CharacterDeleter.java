@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes characters directly from the character database, a chunk of guids
+ * at a time. Each chunk is removed from every character table with one
+ * DELETE ... WHERE guid IN (...) per table, sent as a single batch and
+ * committed as one transaction, so a chunk is either gone from every table or
+ * from none.
+ * <p>
+ * Once every chunk is done the character counts in realmcharacters are
+ * recounted, once for each account that lost a character. Tables missing from
+ * the character database, as some belong only to later versions, are skipped.
+ * <p>
+ * Only for characters the world server does not have loaded, use the Remote
+ * Access delete while the server is running.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class CharacterDeleter {
+
+    public static final int DEFAULT_CHUNK = 500;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    /**
+     * Table followed by the columns holding a character guid
+     */
+    private static final String[][] TABLES = {
+        {"petition", "ownerguid"},
+        {"petition_sign", "ownerguid"},
+        {"characters", "guid"},
+        {"character_account_data", "guid"},
+        {"character_declinedname", "guid"},
+        {"character_action", "guid"},
+        {"character_aura", "guid"},
+        {"character_battleground_data", "guid"},
+        {"character_gifts", "guid"},
+        {"character_glyphs", "guid"},
+        {"character_homebind", "guid"},
+        {"character_instance", "guid"},
+        {"group_instance", "leaderGuid"},
+        {"character_inventory", "guid"},
+        {"character_queststatus", "guid"},
+        {"character_queststatus_daily", "guid"},
+        {"character_queststatus_weekly", "guid"},
+        {"character_reputation", "guid"},
+        {"character_skills", "guid"},
+        {"character_spell", "guid"},
+        {"character_spell_cooldown", "guid"},
+        {"character_talent", "guid"},
+        {"character_ticket", "guid"},
+        {"item_instance", "owner_guid"},
+        {"character_social", "guid", "friend"},
+        {"mail", "receiver"},
+        {"mail_items", "receiver"},
+        {"character_pet", "owner"},
+        {"character_pet_declinedname", "owner"},
+        {"character_achievement", "guid"},
+        {"character_achievement_progress", "guid"},
+        {"character_equipmentsets", "guid"},
+        {"guild_eventlog", "PlayerGuid1", "PlayerGuid2"},
+        {"guild_bank_eventlog", "PlayerGuid"}
+    };
+    private static final String TABLELIST = "select table_name from information_schema.tables where table_schema = ?";
+    private static final String ACCOUNTS = "select distinct account from *char*.characters where guid in ";
+    private static final String REALMS = "select acctid, realmid from *realm*.realmcharacters where acctid in ";
+    private static final String RECOUNT = "update *realm*.realmcharacters set numchars = "
+            + "(select count(*) from *char*.characters where account = ?) where acctid = ? and realmid = ?";
+    private final MangosSql sql;
+    private int intChunk = DEFAULT_CHUNK;
+    private boolean boolRecount = true;
+    private List<String> deletes = null;
+
+    /**
+     * Told after each chunk is committed
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param done Number of characters deleted so far
+         * @param total Number of characters to delete
+         */
+        void deleted(int done, int total);
+    }
+
+    /**
+     * @param sql The databases to delete from
+     */
+    public CharacterDeleter(MangosSql sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Set how many characters are deleted in each transaction
+     *
+     * @param chunk
+     */
+    public void setChunkSize(int chunk) {
+        intChunk = Math.max(1, chunk);
+    }
+
+    /**
+     * Set whether realmcharacters is recounted afterwards, not needed when
+     * the accounts are being deleted too
+     *
+     * @param recount
+     */
+    void setRecount(boolean recount) {
+        boolRecount = recount;
+    }
+
+    /**
+     * Delete characters
+     *
+     * @param guids The character guids, anything not a number is ignored
+     * @param listener May be null
+     * @return number of characters deleted
+     * @throws SQLException if a chunk failed, chunks already committed stay
+     * deleted and their accounts are still recounted
+     */
+    public int delete(Collection<String> guids, ProgressListener listener) throws SQLException {
+        List<Long> ids = new ArrayList<>(guids.size());
+        for (String s : new LinkedHashSet<>(guids)) {
+            try {
+                ids.add(Long.parseLong(s.trim()));
+            } catch (NumberFormatException ex) {
+                logger.log(Level.WARNING, "Ignoring character guid {0}", s);
+            }
+        }
+        return deleteIds(ids, listener);
+    }
+
+    /**
+     * Delete characters
+     *
+     * @param ids The character guids
+     * @param listener May be null
+     * @return number of characters deleted
+     * @throws SQLException
+     */
+    int deleteIds(List<Long> ids, ProgressListener listener) throws SQLException {
+        HashSet<Long> accounts = new HashSet<>();
+        int done = 0;
+        long started = System.currentTimeMillis();
+        try (SqlLease lease = sql.lease(null)) {
+            Connection conn = lease.getConnection();
+            if (deletes == null) {
+                deletes = buildDeletes(lease);
+            }
+            for (int from = 0; from < ids.size(); from += intChunk) {
+                List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + intChunk));
+                String in = inList(chunk);
+                ResultSet rs = lease.executeQuery(sql.compile(ACCOUNTS).getSql() + in);
+                while (rs.next()) {
+                    accounts.add(rs.getLong(1));
+                }
+                conn.setAutoCommit(false);
+                try (Statement st = conn.createStatement()) {
+                    for (String s : deletes) {
+                        st.addBatch(s.replace("?", in));
+                    }
+                    st.executeBatch();
+                    conn.commit();
+                    lease.noteWrite();
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                done += chunk.size();
+                if (listener != null) {
+                    listener.deleted(done, ids.size());
+                }
+            }
+        } finally {
+            if (boolRecount) {
+                recount(new ArrayList<>(accounts));
+            }
+        }
+        logger.log(Level.INFO, "Deleted {0} characters in {1} ms",
+                new Object[]{done, System.currentTimeMillis() - started});
+        return done;
+    }
+
+    /**
+     * Recount the characters of the accounts in realmcharacters
+     *
+     * @param accounts
+     * @throws SQLException
+     */
+    void recount(List<Long> accounts) throws SQLException {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        try (SqlLease lease = sql.lease(null)) {
+            Connection conn = lease.getConnection();
+            for (int from = 0; from < accounts.size(); from += intChunk) {
+                List<Long> chunk = accounts.subList(from, Math.min(accounts.size(), from + intChunk));
+                // As before an account is recounted against the first realm listed for it
+                LinkedHashMap<Long, Long> realms = new LinkedHashMap<>();
+                ResultSet rs = lease.executeQuery(sql.compile(REALMS).getSql() + inList(chunk));
+                while (rs.next()) {
+                    if (!realms.containsKey(rs.getLong(1))) {
+                        realms.put(rs.getLong(1), rs.getLong(2));
+                    }
+                }
+                if (realms.isEmpty()) {
+                    continue;
+                }
+                conn.setAutoCommit(false);
+                PreparedStatement ps = lease.prepare(sql.compile(RECOUNT).getSql());
+                try {
+                    for (Long acct : realms.keySet()) {
+                        ps.setLong(1, acct);
+                        ps.setLong(2, acct);
+                        ps.setLong(3, realms.get(acct));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    conn.commit();
+                    lease.noteWrite();
+                } catch (SQLException ex) {
+                    ps.clearBatch();
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build a delete for each character table present, with ? standing for
+     * the guid list
+     */
+    private List<String> buildDeletes(SqlLease lease) throws SQLException {
+        HashSet<String> present = new HashSet<>();
+        ResultSet rs = lease.executeQuery(TABLELIST, sql.getCharDBName());
+        while (rs.next()) {
+            present.add(rs.getString(1).toLowerCase(Locale.ROOT));
+        }
+        List<String> result = new ArrayList<>(TABLES.length);
+        for (String[] t : TABLES) {
+            if (!present.contains(t[0])) {
+                logger.log(Level.INFO, "Character table {0} not present", t[0]);
+                continue;
+            }
+            StringBuilder sb = new StringBuilder("delete from *char*.").append(t[0]).append(" where ");
+            for (int i = 1; i < t.length; i++) {
+                if (i > 1) {
+                    sb.append(" or ");
+                }
+                sb.append(t[i]).append(" in ?");
+            }
+            result.add(sql.compile(sb.toString()).getSql());
+        }
+        return result;
+    }
+
+    /**
+     * @param ids
+     * @return the ids as an SQL list in brackets
+     */
+    static String inList(List<Long> ids) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Long id : ids) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(id.longValue());
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -47,6 +47,7 @@ public class CommandsFrame extends javax.swing.JFrame {
         dbTableCommand.enableNumericReplacement("security",
                 local.getStrings("gm_player", "gm_mod", "gm_games", "gm_admin", "gm_god"));
         dbTableCommand.getModel().refreshTableContents();
+        ms.getQueryStats().recordRows(query, dbTableCommand.getModel().getRowCount());
         dbTableCommand.autoAdjustRowHeight();
         jTextCommandDesc.setText("");
         if (dbTableCommand.getRowCount() > 0) {
@@ -17,14 +17,20 @@
 package client;
 
 import lib.CryptoLite;
+import lib.GlobalFunctions;
 import lib.LineInputDialog;
 import lib.SimpleINI;
 import java.awt.Component;
 import java.awt.Frame;
+import java.io.File;
+import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import javax.swing.DefaultComboBoxModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
  *
@@ -43,6 +49,7 @@ public class ConnectionHandler extends javax.swing.JDialog {
     public static final int RA_ACTIVE = 3;
     public static final int QC_STATUS_CHANGE = 4;
     public static final int PROFILE_CHANGE = 5;
+    public static final int RA_RECONNECTING = 6;
     private static final String SERVER = "Server-";
     private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
     private final Pattern patternComma = Pattern.compile(",");
@@ -50,6 +57,26 @@ public class ConnectionHandler extends javax.swing.JDialog {
     private final MangosSql mangosSql;
     private final MangosSql mangosSqlBackup;
     private final MangosTelnet mangosTelnet;
+    private final RASessionPool raPool;
+    private final RALatencyStats raStats;
+    private final SqlQueryStats sqlStats;
+    private final DataAccessMonitor monitor;
+    private final RARateLimiter raLimiter;
+    private final ServerInfoSampler infoSampler;
+    private final RAHealthMonitor raMonitor;
+    private int intRAPoolSize = 4;
+    private int intDBPoolSize = SqlConnectionPool.DEFAULT_SIZE;
+    private int intPurgeRate = AccountPurge.DEFAULT_RATE;
+    private String strReplicaHost = "";
+    private String strReplicaPort = "3306";
+    private int intReplicaLag = (int) (MangosSql.DEFAULT_REPLICA_LAG / 1000);
+    private int intFetchSize = -1;
+    private int intBackupWorkers = 0;
+    private int intInfoInterval = ServerInfoSampler.DEFAULT_INTERVAL;
+    private int intKeepalive = RAHealthMonitor.DEFAULT_KEEPALIVE;
+    private int intReconnect = RAHealthMonitor.DEFAULT_GIVEUP;
+    private final HashMap<String, String> realmEndpoints = new HashMap<>();
+    private final HashMap<String, SchemaCatalog> schemaCatalogs = new HashMap<>();
     private DialogHandler dh;
     private String strDBMessage;
     private int intRAStatus = -1;
@@ -72,10 +99,73 @@ public class ConnectionHandler extends javax.swing.JDialog {
         // Create our sql handling objects
         mangosSql = new MangosSql();
         mangosSqlBackup = new MangosSql();
-        mangosTelnet = new MangosTelnet();
+        raStats = new RALatencyStats();
+        sqlStats = new SqlQueryStats();
+        mangosSql.setQueryStats(sqlStats);
+        mangosSqlBackup.setQueryStats(sqlStats);
+        monitor = new DataAccessMonitor(sqlStats, raStats);
+        monitor.register();
+        raLimiter = new RARateLimiter();
+        mangosTelnet = new MangosTelnet(raStats, raLimiter);
+        raPool = new RASessionPool(raStats, raLimiter);
+        // The server writes RA changes to the primary, so reads that follow
+        // them must not go to a replica that has yet to catch up
+        Runnable raWrite = new Runnable() {
+
+            @Override
+            public void run() {
+                mangosSql.getPool().noteWrite();
+            }
+        };
+        mangosTelnet.setWriteListener(raWrite);
+        raPool.setWriteListener(raWrite);
+        infoSampler = new ServerInfoSampler(raPool, mangosTelnet, raLimiter);
+        raMonitor = new RAHealthMonitor(mangosTelnet);
+        raMonitor.addChangeListener(new ChangeListener() {
+
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                final int state = raMonitor.getState();
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        raHealthChanged(state);
+                    }
+                });
+            }
+        });
         refreshProfilesCombo(false);
     }
 
+    /**
+     * Follow the RA health monitor, runs on the event dispatch thread
+     *
+     * @param state
+     */
+    private void raHealthChanged(int state) {
+        if (intRAStatus != RA_ACTIVE && intRAStatus != RA_RECONNECTING) {
+            return;
+        }
+        switch (state) {
+            case RAHealthMonitor.RECONNECTING:
+                intRAStatus = RA_RECONNECTING;
+                eventUpdate(RA_RECONNECTING);
+                break;
+            case RAHealthMonitor.HEALTHY:
+                if (intRAStatus == RA_RECONNECTING) {
+                    intRAStatus = RA_ACTIVE;
+                    eventUpdate(RA_ACTIVE);
+                }
+                break;
+            case RAHealthMonitor.FAILED:
+                infoSampler.stop();
+                intRAStatus = RA_LOST;
+                eventUpdate(RA_LOST);
+                break;
+        }
+    }
+
     /**
      * Set dialog handler
      *
@@ -106,8 +196,11 @@ public class ConnectionHandler extends javax.swing.JDialog {
         if (intRAStatus == RA_ACTIVE) {
             result = getRAConnection().getInfo();
             if (result.contains("Error: Null")) {
-                intRAStatus = ConnectionHandler.RA_LOST;
-                eventUpdate(intRAStatus);
+                if (raMonitor.getState() != RAHealthMonitor.RECONNECTING) {
+                    raMonitor.stop();
+                    intRAStatus = ConnectionHandler.RA_LOST;
+                    eventUpdate(intRAStatus);
+                }
             } else {
                 if (result.indexOf('=') > -1) {
                     result = result.substring(0, result.indexOf('='));
@@ -118,6 +211,7 @@ public class ConnectionHandler extends javax.swing.JDialog {
         }
 
         switch (intRAStatus) {
+            case RA_RECONNECTING:
             case RA_LOST:
             case RA_ERROR:
                 result = dh.getString("servinfo_radisabled_err");
@@ -218,6 +312,112 @@ public class ConnectionHandler extends javax.swing.JDialog {
         return mangosTelnet;
     }
 
+    /**
+     * Get the RA latency statistics shared by all sessions
+     *
+     * @return latency statistics
+     */
+    public RALatencyStats getRAStats() {
+        return raStats;
+    }
+
+    /**
+     * Get the SQL query statistics shared by both database connections
+     *
+     * @return query statistics
+     */
+    public SqlQueryStats getSQLStats() {
+        return sqlStats;
+    }
+
+    /**
+     * Forget the cached schema of the active profile, it is read again from
+     * the server when next needed
+     */
+    public void reloadSchema() {
+        mangosSql.getSchemaCatalog().reload();
+    }
+
+    /**
+     * Stop publishing the query and command statistics through JMX
+     */
+    public void unregisterMonitor() {
+        monitor.unregister();
+    }
+
+    /**
+     * Get the rate limiter shared by all RA sessions of this profile
+     *
+     * @return rate limiter
+     */
+    public RARateLimiter getRALimiter() {
+        return raLimiter;
+    }
+
+    /**
+     * Get the Remote Access endpoint of a realm, this is the realm's address
+     * with the profile's RA port unless the profile's rarealms setting
+     * overrides it with id=host:port
+     *
+     * @param id Realm id
+     * @param name Realm name
+     * @param address Realm address from realmlist
+     * @return endpoint
+     */
+    public RABroadcast.Endpoint getRealmRAEndpoint(String id, String name, String address) {
+        String override = realmEndpoints.get(id);
+        if (override != null) {
+            int colon = override.lastIndexOf(':');
+            if (colon > 0) {
+                return new RABroadcast.Endpoint(name, override.substring(0, colon), override.substring(colon + 1));
+            }
+            return new RABroadcast.Endpoint(name, override, getRAPort());
+        }
+        return new RABroadcast.Endpoint(name, address, getRAPort());
+    }
+
+    /**
+     * Create a broadcaster that reuses the connected session for its own
+     * realm
+     *
+     * @return broadcaster
+     */
+    public RABroadcast createBroadcast() {
+        return new RABroadcast(isRAConnected() ? mangosTelnet : null, getRAHost(), getRAPort());
+    }
+
+    /**
+     * Create an inactive account purge for this profile, its checkpoint is
+     * kept with the settings so an interrupted purge can be resumed
+     *
+     * @return account purge
+     */
+    public AccountPurge createAccountPurge() {
+        File checkpoint = new File(GlobalFunctions.getInstance().getAppSettingsPath(),
+                "purge_" + strActiveProfile + ".properties");
+        AccountPurge purge = new AccountPurge(mangosSql, checkpoint);
+        purge.setRateLimit(intPurgeRate);
+        return purge;
+    }
+
+    /**
+     * Get the server info sampler
+     *
+     * @return server info sampler
+     */
+    public ServerInfoSampler getInfoSampler() {
+        return infoSampler;
+    }
+
+    /**
+     * Get the pool of additional RA sessions used for bulk operations
+     *
+     * @return Remote Access session pool
+     */
+    public RASessionPool getRAPool() {
+        return raPool;
+    }
+
     /**
      * Connect to database server
      *
@@ -229,7 +429,22 @@ public class ConnectionHandler extends javax.swing.JDialog {
         char passchars[] = getDBPass();
         String ourPass = String.copyValueOf(passchars);
 
+        // Both connections share the schema cached for this profile, read
+        // afresh on each connect as it may have been updated meanwhile
+        SchemaCatalog catalog = schemaCatalogs.get(strActiveProfile);
+        if (catalog == null) {
+            catalog = new SchemaCatalog();
+            schemaCatalogs.put(strActiveProfile, catalog);
+        }
+        catalog.reload();
+        mangosSql.setSchemaCatalog(catalog);
+        mangosSqlBackup.setSchemaCatalog(catalog);
+
         // Login into database
+        mangosSql.setPoolSize(intDBPoolSize);
+        mangosSql.setReplica(strReplicaHost, strReplicaPort);
+        mangosSql.setReplicaLag(intReplicaLag * 1000L);
+        mangosSql.setFetchSize(intFetchSize);
         strDBMessage = mangosSql.openDB(getDBHost(), getDBPort(),
                 getDBUser(), ourPass);
         logger.log(Level.INFO, "serverConnect mangosMySql.openDB {0}", strDBMessage);
@@ -245,7 +460,9 @@ public class ConnectionHandler extends javax.swing.JDialog {
             return false;
         }
 
-        // Login into database
+        // Login into database, with a pooled connection for each backup worker
+        mangosSqlBackup.setBackupWorkers(intBackupWorkers);
+        mangosSqlBackup.setPoolSize(mangosSqlBackup.getBackupWorkers());
         strDBMessage = mangosSqlBackup.openDB(getDBHost(), getDBPort(),
                 getDBUser(), ourPass);
         logger.log(Level.INFO, "serverConnect mangosMySqlBackup.openDB {0}", strDBMessage);
@@ -292,6 +509,11 @@ public class ConnectionHandler extends javax.swing.JDialog {
         if (result.contains("+Logged in")) {
             result = "Logged in as " + getRAUser();
             intRAStatus = RA_ACTIVE;
+            raPool.open(getRAHost(), getRAPort(), getRAUser(), passchars,
+                    intRAPoolSize, mangosTelnet);
+            infoSampler.start(intInfoInterval);
+            raMonitor.start(getRAHost(), getRAPort(), getRAUser(), passchars,
+                    intKeepalive, intReconnect);
         } else {
             intRAStatus = RA_ERROR;
         }
@@ -308,12 +530,13 @@ public class ConnectionHandler extends javax.swing.JDialog {
     }
 
     /**
-     * Test to if Remote Access is connected
+     * Test to if Remote Access is connected, a session that is reconnecting
+     * counts as connected as it still accepts commands
      *
      * @return true if it is
      */
     public boolean isRAConnected() {
-        return (intRAStatus == RA_ACTIVE);
+        return (intRAStatus == RA_ACTIVE || intRAStatus == RA_RECONNECTING);
     }
 
     /**
@@ -322,6 +545,9 @@ public class ConnectionHandler extends javax.swing.JDialog {
     public void disconnect() {
         mangosSql.closeDB();
         mangosSqlBackup.closeDB();
+        raMonitor.stop();
+        infoSampler.stop();
+        raPool.close();
         if (isRAConnected()) {
             mangosTelnet.closeConnection();
         }
@@ -394,6 +620,28 @@ public class ConnectionHandler extends javax.swing.JDialog {
         setRAPort(simpleIni.getStringValue("raport", "3443"));
         setRAUser(simpleIni.getStringValue("rausername", ""));
         setRemoteAccessEnabled(simpleIni.getBoolValue("raenabled", true));
+        intRAPoolSize = simpleIni.getIntegerValue("rapoolsize", 4);
+        intDBPoolSize = simpleIni.getIntegerValue("dbpoolsize", SqlConnectionPool.DEFAULT_SIZE);
+        intPurgeRate = simpleIni.getIntegerValue("purgerate", AccountPurge.DEFAULT_RATE);
+        strReplicaHost = simpleIni.getStringValue("dbreplicahost", "");
+        strReplicaPort = simpleIni.getStringValue("dbreplicaport", "3306");
+        intReplicaLag = simpleIni.getIntegerValue("dbreplicalag", (int) (MangosSql.DEFAULT_REPLICA_LAG / 1000));
+        intFetchSize = simpleIni.getIntegerValue("dbfetchsize", -1);
+        intBackupWorkers = simpleIni.getIntegerValue("dbbackupworkers", 0);
+        raLimiter.setRate(simpleIni.getDoubleValue("rarate", RARateLimiter.DEFAULT_RATE),
+                simpleIni.getIntegerValue("raburst", RARateLimiter.DEFAULT_BURST));
+        intInfoInterval = simpleIni.getIntegerValue("rainfointerval", ServerInfoSampler.DEFAULT_INTERVAL);
+        sqlStats.setSlowThreshold(simpleIni.getIntegerValue("dbslowquery", (int) SqlQueryStats.DEFAULT_SLOW));
+        raStats.setSlowThreshold(simpleIni.getIntegerValue("raslowcommand", (int) RALatencyStats.DEFAULT_SLOW));
+        intKeepalive = simpleIni.getIntegerValue("rakeepalive", RAHealthMonitor.DEFAULT_KEEPALIVE);
+        intReconnect = simpleIni.getIntegerValue("rareconnect", RAHealthMonitor.DEFAULT_GIVEUP);
+        realmEndpoints.clear();
+        for (String entry : patternComma.split(simpleIni.getStringValue("rarealms", ""))) {
+            int equals = entry.indexOf('=');
+            if (equals > 0) {
+                realmEndpoints.put(entry.substring(0, equals).trim(), entry.substring(equals + 1).trim());
+            }
+        }
         setSavePasswords(simpleIni.getBoolValue("savepasswords", true));
         if (simpleIni.getBoolValue("savepasswords")) {
             setDBPassword(cl.decryptPassword(simpleIni.getStringValue("dbpass", ""), getDBUser()));
@@ -427,6 +675,29 @@ public class ConnectionHandler extends javax.swing.JDialog {
         simpleIni.setValue("raport", getRAPort());
         simpleIni.setValue("rausername", getRAUser());
         simpleIni.setValue("raenabled", isRAEnabled());
+        simpleIni.setValue("rapoolsize", intRAPoolSize);
+        simpleIni.setValue("dbpoolsize", intDBPoolSize);
+        simpleIni.setValue("purgerate", intPurgeRate);
+        simpleIni.setValue("dbreplicahost", strReplicaHost);
+        simpleIni.setValue("dbreplicaport", strReplicaPort);
+        simpleIni.setValue("dbreplicalag", intReplicaLag);
+        simpleIni.setValue("dbfetchsize", intFetchSize);
+        simpleIni.setValue("dbbackupworkers", intBackupWorkers);
+        simpleIni.setValue("rarate", raLimiter.getRate());
+        simpleIni.setValue("raburst", raLimiter.getBurst());
+        simpleIni.setValue("rainfointerval", intInfoInterval);
+        simpleIni.setValue("dbslowquery", (int) sqlStats.getSlowThreshold());
+        simpleIni.setValue("raslowcommand", (int) raStats.getSlowThreshold());
+        simpleIni.setValue("rakeepalive", intKeepalive);
+        simpleIni.setValue("rareconnect", intReconnect);
+        StringBuilder realms = new StringBuilder();
+        for (String id : realmEndpoints.keySet()) {
+            if (realms.length() > 0) {
+                realms.append(',');
+            }
+            realms.append(id).append('=').append(realmEndpoints.get(id));
+        }
+        simpleIni.setValue("rarealms", realms.toString());
         simpleIni.setValue("savepasswords", isSavePasswords());
         if (simpleIni.getBoolValue("savepasswords")) {
             simpleIni.setValue("rapass", cl.encryptPassword(getRAPass(), getRAUser()));
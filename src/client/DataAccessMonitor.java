@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the SQL query and Remote Access command figures through JMX, for
+ * viewing in JConsole or any other JMX client
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class DataAccessMonitor implements DataAccessMonitorMXBean {
+
+    public static final String NAME = "MaNGOLin:type=DataAccess";
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final SqlQueryStats sqlStats;
+    private final RALatencyStats raStats;
+    private ObjectName registered = null;
+
+    /**
+     * @param sqlStats
+     * @param raStats
+     */
+    public DataAccessMonitor(SqlQueryStats sqlStats, RALatencyStats raStats) {
+        this.sqlStats = sqlStats;
+        this.raStats = raStats;
+    }
+
+    /**
+     * Register with the platform MBean server
+     *
+     * @return true if registered
+     */
+    public synchronized boolean register() {
+        if (registered != null) {
+            return true;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(NAME);
+            if (server.isRegistered(name)) {
+                // Another window of this application got there first
+                name = new ObjectName(NAME + ",id=" + System.identityHashCode(this));
+            }
+            server.registerMBean(this, name);
+            registered = name;
+            return true;
+        } catch (JMException ex) {
+            logger.throwing(this.getClass().getName(), "register", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Remove from the platform MBean server
+     */
+    public synchronized void unregister() {
+        if (registered == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        } catch (JMException ex) {
+            logger.throwing(this.getClass().getName(), "unregister", ex);
+        }
+        registered = null;
+    }
+
+    @Override
+    public long getQueryCount() {
+        return sqlStats.getCount();
+    }
+
+    @Override
+    public long getQueryErrors() {
+        return sqlStats.getErrors();
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return sqlStats.getSlowCount();
+    }
+
+    @Override
+    public long getSlowQueryThreshold() {
+        return sqlStats.getSlowThreshold();
+    }
+
+    @Override
+    public void setSlowQueryThreshold(long millis) {
+        sqlStats.setSlowThreshold(millis);
+    }
+
+    @Override
+    public String[] getQueryFigures() {
+        List<String> result = new ArrayList<>();
+        for (String query : sqlStats.getQueries()) {
+            SqlQueryStats.Figures f = sqlStats.getFigures(query);
+            if (f == null) {
+                continue;
+            }
+            LatencyHistogram h = f.getLatency();
+            result.add(String.format(Locale.ROOT,
+                    "%d runs, %d rows, %d errors, mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f: %s",
+                    h.getCount(), f.getRows(), f.getErrors(), h.getMean() / 1000.0,
+                    h.getPercentile(50) / 1000.0, h.getPercentile(90) / 1000.0,
+                    h.getPercentile(99) / 1000.0, h.getMax() / 1000.0, query));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public String[] getSlowQueries() {
+        List<String> slow = sqlStats.getSlowQueries();
+        return slow.toArray(new String[slow.size()]);
+    }
+
+    @Override
+    public long getRACommandCount() {
+        return raStats.getCount();
+    }
+
+    @Override
+    public long getRACommandErrors() {
+        return raStats.getErrors();
+    }
+
+    @Override
+    public long getRACommandTimeouts() {
+        return raStats.getTimeouts();
+    }
+
+    @Override
+    public long getSlowRACommandCount() {
+        return raStats.getSlowCount();
+    }
+
+    @Override
+    public long getSlowRACommandThreshold() {
+        return raStats.getSlowThreshold();
+    }
+
+    @Override
+    public void setSlowRACommandThreshold(long millis) {
+        raStats.setSlowThreshold(millis);
+    }
+
+    @Override
+    public String[] getRACommandFigures() {
+        List<String> result = new ArrayList<>();
+        for (String family : raStats.getFamilies()) {
+            LatencyHistogram h = raStats.getHistogram(family);
+            if (h == null) {
+                h = new LatencyHistogram();
+            }
+            result.add(String.format(Locale.ROOT,
+                    "%d replies, %d errors, %d timeouts, mean %d, p50 %d, p90 %d, p99 %d, max %d: %s",
+                    h.getCount(), raStats.getErrors(family), raStats.getTimeouts(family), h.getMean(),
+                    h.getPercentile(50), h.getPercentile(90), h.getPercentile(99), h.getMax(), family));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public String[] getSlowRACommands() {
+        List<String> slow = raStats.getSlowCommands();
+        return slow.toArray(new String[slow.size()]);
+    }
+
+    @Override
+    public void reset() {
+        sqlStats.reset();
+        raStats.reset();
+    }
+}
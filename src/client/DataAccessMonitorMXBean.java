@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+/**
+ * SQL query and Remote Access command figures as seen through JMX, times are
+ * in milliseconds
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public interface DataAccessMonitorMXBean {
+
+    long getQueryCount();
+
+    long getQueryErrors();
+
+    long getSlowQueryCount();
+
+    long getSlowQueryThreshold();
+
+    void setSlowQueryThreshold(long millis);
+
+    /**
+     * @return one line per query with its counts and latencies
+     */
+    String[] getQueryFigures();
+
+    /**
+     * @return the most recent slow queries, newest first
+     */
+    String[] getSlowQueries();
+
+    long getRACommandCount();
+
+    long getRACommandErrors();
+
+    long getRACommandTimeouts();
+
+    long getSlowRACommandCount();
+
+    long getSlowRACommandThreshold();
+
+    void setSlowRACommandThreshold(long millis);
+
+    /**
+     * @return one line per command family with its counts and latencies
+     */
+    String[] getRACommandFigures();
+
+    /**
+     * @return the most recent slow commands, newest first
+     */
+    String[] getSlowRACommands();
+
+    /**
+     * Forget all figures recorded so far
+     */
+    void reset();
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand in for the mangosd Remote Access server, used to measure
+ * MangosTelnet without a live server. It speaks the same login handshake,
+ * Username: and Password: prompts followed by +Logged in. and the mangos>
+ * prompt, and answers each command after a configurable latency plus random
+ * jitter.
+ * <p>
+ * server info is answered in the real format so the sampler can parse it,
+ * help with a long reply and anything else with the configured number of
+ * lines. Replies are written in two parts, the body and then the prompt, as
+ * mangosd does. Each connection is served by its own thread and commands on
+ * one connection are answered in order.
+ * <p>
+ * A server restart can be imitated by dropping every connection, and a half
+ * dead connection by stalling, when commands are read but never answered.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class FakeRAServer {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final String PROMPT = "mangos>";
+    private static final int HELP_LINES = 400;
+    private final ServerSocket server;
+    private final AtomicLong commands = new AtomicLong();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final long startTime = System.currentTimeMillis();
+    private volatile int intLatency = 0;
+    private volatile int intJitter = 0;
+    private volatile int intReplyLines = 1;
+    private volatile String strPassword = null;
+    private volatile boolean boolStalled = false;
+
+    /**
+     * Listen on the loopback interface
+     *
+     * @param port Port to listen on, 0 for any free port
+     * @throws IOException
+     */
+    FakeRAServer(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "Fake RA Server");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return port being listened on
+     */
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return number of commands answered so far
+     */
+    long getCommandCount() {
+        return commands.get();
+    }
+
+    /**
+     * Set the delay before each reply
+     *
+     * @param latency Fixed part in milliseconds
+     * @param jitter Random extra of up to this many milliseconds
+     */
+    void setLatency(int latency, int jitter) {
+        intLatency = Math.max(0, latency);
+        intJitter = Math.max(0, jitter);
+    }
+
+    /**
+     * Set the number of lines in the reply to ordinary commands
+     *
+     * @param lines
+     */
+    void setReplyLines(int lines) {
+        intReplyLines = Math.max(0, lines);
+    }
+
+    /**
+     * Set the password logins must give
+     *
+     * @param password null to accept any
+     */
+    void setPassword(String password) {
+        strPassword = password;
+    }
+
+    /**
+     * Set whether commands are answered
+     *
+     * @param stalled true to read commands but never answer them
+     */
+    void setStalled(boolean stalled) {
+        boolStalled = stalled;
+    }
+
+    /**
+     * Close every open connection, as a server restart would
+     */
+    void dropConnections() {
+        for (Socket s : sockets) {
+            try {
+                s.close();
+            } catch (IOException ex) {
+                logger.throwing(this.getClass().getName(), "dropConnections()", ex);
+            }
+        }
+    }
+
+    /**
+     * Stop listening, open connections are dropped as their clients leave
+     */
+    void close() {
+        try {
+            server.close();
+        } catch (IOException ex) {
+            logger.throwing(this.getClass().getName(), "close()", ex);
+        }
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                final Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                Thread t = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serve(s);
+                    }
+                }, "Fake RA Session");
+                t.setDaemon(true);
+                t.start();
+            } catch (SocketException ex) {
+                // Closed
+            } catch (IOException ex) {
+                logger.throwing(this.getClass().getName(), "acceptLoop()", ex);
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        Random random = new Random();
+        StringBuilder line = new StringBuilder();
+        sockets.add(s);
+        try (Socket sock = s) {
+            InputStream in = sock.getInputStream();
+            OutputStream out = sock.getOutputStream();
+            write(out, "Authentication required\r\nUsername: ");
+            if (readLine(in, line) == null) {
+                return;
+            }
+            write(out, "Password: ");
+            String pass = readLine(in, line);
+            if (pass == null) {
+                return;
+            }
+            if (strPassword != null && !strPassword.equals(pass)) {
+                write(out, "-Wrong pass.\r\n");
+                return;
+            }
+            write(out, "+Logged in.\r\n" + PROMPT);
+            String cmd;
+            while ((cmd = readLine(in, line)) != null) {
+                if (cmd.equals("quit")) {
+                    break;
+                }
+                int delay = intLatency;
+                if (intJitter > 0) {
+                    delay += random.nextInt(intJitter + 1);
+                }
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                if (boolStalled) {
+                    continue;
+                }
+                write(out, reply(cmd));
+                write(out, PROMPT);
+                commands.incrementAndGet();
+            }
+        } catch (IOException ex) {
+            // Client went away
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sockets.remove(s);
+        }
+    }
+
+    private String reply(String cmd) {
+        StringBuilder sb = new StringBuilder();
+        if (cmd.equals("server info")) {
+            long up = (System.currentTimeMillis() - startTime) / 1000;
+            int players = (int) (commands.get() % 500);
+            sb.append("Online players: ").append(players).append(" (max: ").append(players)
+                    .append(") Queued players: 0 (max: 0)\r\n");
+            sb.append("Server uptime: ").append(up / 86400).append(" Day(s) ")
+                    .append((up / 3600) % 24).append(" Hour(s) ")
+                    .append((up / 60) % 60).append(" Minute(s) ")
+                    .append(up % 60).append(" Second(s).\r\n");
+        } else if (cmd.startsWith("help")) {
+            for (int i = 0; i < HELP_LINES; i++) {
+                sb.append("Command: .account set gmlevel #account #level - line ").append(i).append("\r\n");
+            }
+        } else {
+            for (int i = 0; i < intReplyLines; i++) {
+                sb.append(cmd).append(" - line ").append(i).append("\r\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(CHARSET));
+        out.flush();
+    }
+
+    /**
+     * Read one non empty line, either of CR or LF ends it
+     *
+     * @return the line or null at end of stream
+     */
+    private static String readLine(InputStream in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\r' || c == '\n') {
+                if (line.length() > 0) {
+                    return line.toString();
+                }
+            } else {
+                line.append((char) c);
+            }
+        }
+        return null;
+    }
+}
@@ -32,6 +32,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
 import javax.swing.JSpinner;
 import javax.swing.SpinnerDateModel;
 import javax.swing.SwingWorker;
@@ -42,6 +44,7 @@ import javax.swing.SwingWorker;
  */
 public class FileManagementPanel extends javax.swing.JPanel {
 
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
     private static final GlobalFunctions gf = GlobalFunctions.getInstance();
     private final List<Integer> listBackup = new ArrayList<>();
     private final Date schedTime = new Date();
@@ -220,14 +223,27 @@ public class FileManagementPanel extends javax.swing.JPanel {
         SwingWorker task = new SwingWorker<String, String>() {
             @Override
             public String doInBackground() {
-                for (Integer x : listBackup) {
-                    connHandler.getBackupSQL().writeSQLDatabase(x.intValue());
+                // All at once so they are read from the same point in time
+                int[] actions = new int[listBackup.size()];
+                for (int i = 0; i < actions.length; i++) {
+                    actions[i] = listBackup.get(i);
+                }
+                if (!connHandler.getBackupSQL().writeSQLDatabases(actions)) {
+                    return "info_backup_failed";
                 }
                 return null;
             }
 
             @Override
             protected void done() {
+                try {
+                    if (get() != null) {
+                        dh.createError("title_backup", get());
+                        dh.setVisible(true);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.throwing(this.getClass().getName(), "backupDatabase", ex);
+                }
                 updateFileTable();
                 jProgDatabase.setVisible(false);
                 listBackup.clear();
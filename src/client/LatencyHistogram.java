@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size log-linear latency histogram in the style of HdrHistogram.
+ * Values below 32 are counted exactly, larger values fall into 16 linear sub
+ * buckets per power of two which keeps the relative error near 6% across the
+ * whole range of a long. Recording is lock free.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class LatencyHistogram {
+
+    private static final int EXACT = 32;
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = EXACT + (63 - 5) * SUB_COUNT;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value, negative values are recorded as zero
+     *
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Get number of recorded values
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get largest recorded value
+     *
+     * @return max
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get mean of recorded values
+     *
+     * @return mean or 0 if empty
+     */
+    public long getMean() {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        return total.get() / c;
+    }
+
+    /**
+     * Get value at a given percentile, reported as the highest value that
+     * shares a bucket with it
+     *
+     * @param percentile 0 to 100
+     * @return value or 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * c));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return EXACT + (magnitude - 5) * SUB_COUNT + sub;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        int magnitude = (index - EXACT) / SUB_COUNT + 5;
+        int sub = (index - EXACT) % SUB_COUNT + SUB_COUNT;
+        int shift = magnitude - SUB_BITS;
+        return ((long) (sub + 1) << shift) - 1;
+    }
+}
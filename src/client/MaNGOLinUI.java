@@ -48,6 +48,9 @@ public class MaNGOLinUI extends javax.swing.JFrame {
     private AccountsPanel accPanel;
     private BannedPanel banPanel;
     private PortalManager portalManager;
+    private RALatencyDialog raLatencyDialog;
+    private JMenuItem jMenuItemRALatency;
+    private SqlStatsDialog sqlStatsDialog;
 
     /**
      * Creates new form MaNGOLin
@@ -201,6 +204,26 @@ public class MaNGOLinUI extends javax.swing.JFrame {
         // Get system clipboard
         clipboard = getToolkit().getSystemClipboard();
 
+        // Remote access latency viewer
+        jMenuItemRALatency = new JMenuItem(dh.getString("mitem_ralatency"));
+        jMenuItemRALatency.addActionListener(new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                openRALatency();
+            }
+        });
+        jMenuServer.insert(jMenuItemRALatency, jMenuServer.getMenuComponentCount() - 1);
+
+        // SQL query statistics viewer
+        JMenuItem jMenuItemSqlStats = new JMenuItem(dh.getString("mitem_sqlstats"));
+        jMenuItemSqlStats.addActionListener(new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                openSqlStats();
+            }
+        });
+        jMenu.insert(jMenuItemSqlStats, jMenu.getMenuComponentCount() - 1);
+
         setTabEnabled(-1, false);
         setServerMenusEnabled(false);
         setLocationRelativeTo(this);
@@ -416,7 +439,8 @@ public class MaNGOLinUI extends javax.swing.JFrame {
             setQuickConnItemEnabled(connHandler.getActiveProfile(), false);
 
             // Attempt to connect to mangos server
-            connHandler.getRAConnection().setLogTextOutput(srPanel.getLogOutputArea());
+            connHandler.getRAConnection().setCommandLog(srPanel.getCommandLog());
+            connHandler.getRAPool().setCommandLog(srPanel.getCommandLog());
             String result = connHandler.raConnect();
             if (connHandler.getRAStatus() == ConnectionHandler.RA_ERROR) {
                 dh.raiseRemoteAccessError(result);
@@ -521,6 +545,25 @@ public class MaNGOLinUI extends javax.swing.JFrame {
         jMenuItemAnnounce.setEnabled(enabled);
         jMenuItemNotify.setEnabled(enabled);
         jMenuItemReload.setEnabled(enabled);
+        jMenuItemRALatency.setEnabled(enabled);
+    }
+
+    private void openRALatency() {
+        if (raLatencyDialog == null) {
+            raLatencyDialog = new RALatencyDialog(this, connHandler.getRAStats());
+            raLatencyDialog.setLocationRelativeTo(this);
+        }
+        raLatencyDialog.refresh();
+        raLatencyDialog.setVisible(true);
+    }
+
+    private void openSqlStats() {
+        if (sqlStatsDialog == null) {
+            sqlStatsDialog = new SqlStatsDialog(this, connHandler.getSQLStats());
+            sqlStatsDialog.setLocationRelativeTo(this);
+        }
+        sqlStatsDialog.refresh();
+        sqlStatsDialog.setVisible(true);
     }
 
     private void openAbout() {
@@ -556,6 +599,8 @@ public class MaNGOLinUI extends javax.swing.JFrame {
         if (simpleIni.isChanged()) {
             simpleIni.save();
         }
+        srPanel.closeCommandLog();
+        connHandler.unregisterMonitor();
         gf.unloadSystemTray();
         exitRequested(restart);
     }
@@ -916,6 +961,7 @@ public class MaNGOLinUI extends javax.swing.JFrame {
     }//GEN-LAST:event_jMenuItemConnectActionPerformed
 
     private void jMenuItemTableRefreshActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItemTableRefreshActionPerformed
+        connHandler.reloadSchema();
         refreshAllTables();
     }//GEN-LAST:event_jMenuItemTableRefreshActionPerformed
 
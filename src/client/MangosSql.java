@@ -18,11 +18,36 @@ package client;
 
 import lib.HashString;
 import lib.SqlAccess;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JComboBox;
 
 /**
+ * MaNGOS database access. The inherited single connection and its shared
+ * statements are used by the panels on the event dispatch thread, work on
+ * other threads leases its own connection from the pool with lease() so it
+ * never disturbs another thread's result set.
+ * <p>
+ * Queries run often are compiled once with compile(), which fills in the
+ * database names, and run as prepared statements with their values bound so
+ * the text is neither rewritten nor parsed again on each refresh. Compiled
+ * templates are dropped when the databases are changed.
+ * <p>
+ * An optional read replica takes the reads that are only displayed, through
+ * executeRead() and readLease(). Everything that changes data, and reads made
+ * within the replica lag allowance of a change, stay on the primary so they
+ * never see data older than a change just made.
+ *
  * @author Alistair Neil, <info@dazzleships.net>
  */
 public final class MangosSql extends SqlAccess {
@@ -66,6 +91,10 @@ public final class MangosSql extends SqlAccess {
     public static final int MANGOSZERO = 0;
     public static final int MANGOSONE = 1;
     public static final int MANGOSTWO = 2;
+    /**
+     * Milliseconds after a change during which reads stay on the primary
+     */
+    public static final long DEFAULT_REPLICA_LAG = 5000;
     private static final String DBNOTFOUND = "Database catalog not found.";
     private String mangosDb;
     private String realmDb;
@@ -76,11 +105,41 @@ public final class MangosSql extends SqlAccess {
     private String realmDBInfo;
     private String clientVersion = "";
     private int mangosDBVersion;
+    private int intPoolSize = SqlConnectionPool.DEFAULT_SIZE;
+    private final SqlConnectionPool pool = new SqlConnectionPool();
+    private final ConcurrentHashMap<String, SqlTemplate> templates = new ConcurrentHashMap<>();
+    private final HashMap<SqlTemplate, PreparedStatement> prepared = new HashMap<>();
+    private final SqlConnectionPool replica = new SqlConnectionPool();
+    private final HashMap<SqlTemplate, PreparedStatement> replicaPrepared = new HashMap<>();
+    private SqlLease replicaLease = null;
+    private String strReplicaHost = "";
+    private String strReplicaPort = "3306";
+    private long lngReplicaLag = DEFAULT_REPLICA_LAG;
+    private int intFetchSize = SqlStream.STREAM;
+    private SqlQueryStats stats = new SqlQueryStats();
+    private final AsyncSql async = new AsyncSql(this);
+    private SchemaCatalog catalog = new SchemaCatalog();
+    private boolean boolBulkInsert = true;
+    private int intBackupWorkers = 0;
+    private final PropertyChangeSupport dumpSupport = new PropertyChangeSupport(this);
+    private volatile boolean boolDumpProgress = false;
+    private volatile String strDumpFile = "";
+    private volatile String strDumpTable = "";
+    private volatile int intDumpProgress = 0;
+    private final SqlLease.QueryRewriter rewriter = new SqlLease.QueryRewriter() {
+
+        @Override
+        public String rewrite(String query) {
+            return resolveNames(query);
+        }
+    };
 
     /**
      * Constructor
      */
     public MangosSql() {
+        pool.setQueryStats(stats);
+        replica.setQueryStats(stats);
     }
 
     /**
@@ -89,10 +148,498 @@ public final class MangosSql extends SqlAccess {
      * @param path , the default file path for the backup folder
      */
     public MangosSql(String path) {
+        this();
         setBackupPath(path);
     }
 
+    /**
+     * Set where queries are timed, so several connections may share figures
+     *
+     * @param stats
+     */
+    public void setQueryStats(SqlQueryStats stats) {
+        this.stats = stats;
+        pool.setQueryStats(stats);
+        replica.setQueryStats(stats);
+    }
+
+    /**
+     * Get the executor user interface refreshes are run on
+     *
+     * @return the async facade
+     */
+    public AsyncSql getAsync() {
+        return async;
+    }
+
+    /**
+     * @return the query timings
+     */
+    public SqlQueryStats getQueryStats() {
+        return stats;
+    }
+
+    /**
+     * Connect to the database server and open the connection pool
+     *
+     * @param host
+     * @param port
+     * @param username
+     * @param password
+     * @return "Connected" if successful else the error message
+     */
+    @Override
+    public String openDB(String host, String port, String username, String password) {
+        closePrepared();
+        String result = super.openDB(host, port, username, password);
+        if (getCurrentConnectionStatus()) {
+            // Server side prepared statements so cached statements are not parsed again
+            pool.open("jdbc:mysql://" + getHostname() + ":" + port + "/?useServerPrepStmts=true&useCursorFetch=true",
+                    username, password, intPoolSize);
+            if (!strReplicaHost.isEmpty()) {
+                // Connections are only made when first needed so an unreachable replica is found then
+                replica.open("jdbc:mysql://" + strReplicaHost + ":" + strReplicaPort + "/?useServerPrepStmts=true&useCursorFetch=true",
+                        username, password, intPoolSize);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set the read replica used by the next openDB
+     *
+     * @param host Replica host, empty for none
+     * @param port
+     */
+    public void setReplica(String host, String port) {
+        strReplicaHost = host == null ? "" : host.trim();
+        strReplicaPort = port == null || port.trim().isEmpty() ? "3306" : port.trim();
+    }
+
+    /**
+     * Set how streamed queries fetch their rows
+     *
+     * @param size SqlStream.STREAM or a negative value for one row at a time,
+     * a positive number of rows to read at a time from a server side cursor
+     * or zero to buffer the whole result
+     */
+    public void setFetchSize(int size) {
+        intFetchSize = size < 0 ? SqlStream.STREAM : size;
+    }
+
+    /**
+     * Run a compiled query whose rows are read as they arrive, on its own
+     * connection from the replica when that may be read. Close the stream
+     * when done with it.
+     *
+     * @param template The compiled query
+     * @param params The parameter values
+     * @return the stream
+     * @throws SQLException
+     */
+    public SqlStream executeStream(SqlTemplate template, Object... params) throws SQLException {
+        SqlStream stream = prepareStream(template, params);
+        try {
+            stream.execute();
+            return stream;
+        } catch (SQLException ex) {
+            stream.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Prepare a compiled query to be run later with SqlStream.execute(), so
+     * it may be cancelled while it runs. Close the stream when done with it.
+     *
+     * @param template The compiled query
+     * @param params The parameter values
+     * @return the stream
+     * @throws SQLException
+     */
+    public SqlStream prepareStream(SqlTemplate template, Object... params) throws SQLException {
+        return prepareStream(readLease(null), template, params);
+    }
+
+    /**
+     * As prepareStream() but always read from the primary, for tables whose
+     * rows are edited and so must show changes as soon as they are made
+     *
+     * @param template The compiled query
+     * @param params The parameter values
+     * @return the stream
+     * @throws SQLException
+     */
+    public SqlStream preparePrimaryStream(SqlTemplate template, Object... params) throws SQLException {
+        return prepareStream(lease(null), template, params);
+    }
+
+    private SqlStream prepareStream(SqlLease lease, SqlTemplate template, Object[] params) throws SQLException {
+        try {
+            logger.log(Level.INFO, "prepareStream {0}", template);
+            PreparedStatement ps = lease.getConnection().prepareStatement(template.getSql(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                ps.setFetchSize(intFetchSize);
+                for (int i = 0; i < params.length; i++) {
+                    ps.setObject(i + 1, params[i]);
+                }
+                return new SqlStream(lease, ps, template, stats);
+            } catch (SQLException ex) {
+                ps.close();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            lease.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Set how long after a change reads stay on the primary, which should
+     * exceed the usual replication delay
+     *
+     * @param millis
+     */
+    public void setReplicaLag(long millis) {
+        lngReplicaLag = Math.max(0, millis);
+    }
+
+    /**
+     * Test if reads may go to the replica now
+     *
+     * @return true if a replica is open and no change was made recently
+     */
+    public boolean isReplicaReadable() {
+        return replica.isOpen()
+                && System.currentTimeMillis() - pool.getLastWrite() >= lngReplicaLag;
+    }
+
+    /**
+     * Lease a connection for reads only, from the replica when it may be
+     * read and is reachable, otherwise from the primary
+     *
+     * @param dbname Default database for the lease, may be null
+     * @return the lease
+     * @throws SQLException
+     */
+    public SqlLease readLease(String dbname) throws SQLException {
+        if (isReplicaReadable()) {
+            try {
+                return prepareLease(replica.lease(), dbname);
+            } catch (SQLException ex) {
+                logger.throwing(this.getClass().getName(), "readLease", ex);
+            }
+        }
+        return lease(dbname);
+    }
+
+    /**
+     * Close the connection pool and the database connection
+     */
+    @Override
+    public void closeDB() {
+        async.cancelAll();
+        closePrepared();
+        replica.close();
+        pool.close();
+        super.closeDB();
+    }
+
+    /**
+     * Set the maximum number of pooled connections, takes effect on the next
+     * openDB
+     *
+     * @param size
+     */
+    public void setPoolSize(int size) {
+        intPoolSize = Math.max(1, size);
+    }
+
+    /**
+     * Get the connection pool
+     *
+     * @return connection pool
+     */
+    public SqlConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Lease a pooled connection for use on any thread, queries run through it
+     * have their database name placeholders filled in. Close the lease to
+     * return the connection.
+     *
+     * @param dbname Default database for the lease, may be null to keep
+     * whichever the connection was last given, so queries must name their
+     * databases
+     * @return the lease
+     * @throws SQLException
+     */
+    public SqlLease lease(String dbname) throws SQLException {
+        return prepareLease(pool.lease(), dbname);
+    }
+
+    private SqlLease prepareLease(SqlLease lease, String dbname) throws SQLException {
+        try {
+            lease.setQueryRewriter(rewriter);
+            if (dbname != null) {
+                lease.setCatalog(dbname);
+            }
+        } catch (SQLException ex) {
+            lease.close();
+            throw ex;
+        }
+        return lease;
+    }
+
+    /**
+     * Fetch a single value using a pooled connection and a cached prepared
+     * statement
+     *
+     * @param query The query with ? for each parameter, its tables qualified
+     * with placeholders
+     * @param column
+     * @param params The parameter values
+     * @return the value, empty if null, NotFound if there was no row or null
+     * on error
+     */
+    private String queryValue(String query, String column, Object... params) {
+        try (SqlLease lease = lease(null)) {
+            ResultSet result = lease.executeQuery(compile(query), params);
+            if (!result.next()) {
+                return "NotFound";
+            }
+            String value = result.getString(column);
+            return value == null ? "" : value;
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "queryValue(" + query + ")", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Replace the *realm*, *mangos* and *char* placeholders with the database
+     * names
+     *
+     * @param query
+     * @return the query with names filled in
+     */
+    private String resolveNames(String query) {
+        if (query.indexOf('*') < 0) {
+            return query;
+        }
+        query = query.replace("*realm*", realmDb);
+        query = query.replace("*mangos*", mangosDb);
+        query = query.replace("*char*", charDb);
+        return query;
+    }
+
+    /**
+     * Compile a query for the current databases. The compiled template is
+     * kept so later calls with the same text only look it up.
+     *
+     * @param query The query with *realm*, *mangos* and *char* placeholders
+     * and ? for each parameter
+     * @return the compiled template
+     */
+    public SqlTemplate compile(String query) {
+        SqlTemplate template = templates.get(query);
+        if (template == null) {
+            template = new SqlTemplate(query, resolveNames(query));
+            SqlTemplate existing = templates.putIfAbsent(query, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Run a compiled query on the shared connection, its prepared statement
+     * is kept for the next run. The result set is updatable like those of
+     * the named statements and stays open until the template is run again.
+     * Only for use on the event dispatch thread.
+     *
+     * @param template The compiled query
+     * @param params The parameter values
+     * @return Returns a resultset or null on error
+     */
+    public ResultSet executeQuery(SqlTemplate template, Object... params) {
+        long started = System.nanoTime();
+        try {
+            logger.log(Level.INFO, "executeQuery {0}", template);
+            ResultSet result = bind(template, params).executeQuery();
+            stats.record(template, System.nanoTime() - started, -1);
+            return result;
+        } catch (Exception ex) {
+            stats.recordError(template, System.nanoTime() - started);
+            discard(template);
+            logger.throwing(this.getClass().getName(), "executeQuery(" + template + ")", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Run a compiled query on a statement of its own on the shared
+     * connection. The result set is updatable like those of the named
+     * statements, closing it closes the statement. Safe on any thread, as
+     * nothing else holds the statement.
+     *
+     * @param template The compiled query
+     * @param request Cancels the statement if cancelled, may be null
+     * @return the result set
+     * @throws SQLException
+     */
+    public ResultSet executeUpdatable(SqlTemplate template, AsyncSql.Request request) throws SQLException {
+        long started = System.nanoTime();
+        Statement st = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+        try {
+            if (request != null) {
+                request.watch(st);
+            }
+            logger.log(Level.INFO, "executeUpdatable {0}", template);
+            ResultSet result = st.executeQuery(template.getSql());
+            st.closeOnCompletion();
+            stats.record(template, System.nanoTime() - started, -1);
+            return result;
+        } catch (SQLException ex) {
+            stats.recordError(template, System.nanoTime() - started);
+            st.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Run a compiled update query on the shared connection, its prepared
+     * statement is kept for the next run. Only for use on the event dispatch
+     * thread.
+     *
+     * @param template The compiled query
+     * @param params The parameter values
+     * @return Returns either row count for data manipulation queries or 0, or
+     * -1 if error
+     */
+    public int executeUpdate(SqlTemplate template, Object... params) {
+        long started = System.nanoTime();
+        try {
+            logger.log(Level.INFO, "executeUpdate {0}", template);
+            pool.noteWrite();
+            int rows = bind(template, params).executeUpdate();
+            stats.record(template, System.nanoTime() - started, rows);
+            return rows;
+        } catch (Exception ex) {
+            stats.recordError(template, System.nanoTime() - started);
+            discard(template);
+            logger.throwing(this.getClass().getName(), "executeUpdate(" + template + ")", ex);
+            return -1;
+        }
+    }
+
+    /**
+     * Run a compiled query whose results are only displayed. It goes to the
+     * replica when that may be read, on a connection kept for the event
+     * dispatch thread, and to the primary otherwise or if the replica fails.
+     * The result set is read only and stays open until the template is run
+     * again. Only for use on the event dispatch thread.
+     *
+     * @param template The compiled query
+     * @param params The parameter values
+     * @return Returns a resultset or null on error
+     */
+    public ResultSet executeRead(SqlTemplate template, Object... params) {
+        if (isReplicaReadable()) {
+            long started = System.nanoTime();
+            try {
+                logger.log(Level.INFO, "executeRead {0}", template);
+                ResultSet result = bindReplica(template, params).executeQuery();
+                stats.record(template, System.nanoTime() - started, -1);
+                return result;
+            } catch (SQLException ex) {
+                stats.recordError(template, System.nanoTime() - started);
+                logger.throwing(this.getClass().getName(), "executeRead(" + template + ")", ex);
+                closeReplicaLease();
+            }
+        }
+        return executeQuery(template, params);
+    }
+
+    private synchronized PreparedStatement bindReplica(SqlTemplate template, Object[] params) throws SQLException {
+        if (replicaLease == null) {
+            replicaLease = replica.lease();
+        }
+        PreparedStatement ps = replicaPrepared.get(template);
+        if (ps == null) {
+            ps = replicaLease.getConnection().prepareStatement(template.getSql(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            replicaPrepared.put(template, ps);
+        } else {
+            ps.clearParameters();
+        }
+        for (int i = 0; i < params.length; i++) {
+            ps.setObject(i + 1, params[i]);
+        }
+        return ps;
+    }
+
+    /**
+     * Close the replica statements and return their connection
+     */
+    private synchronized void closeReplicaLease() {
+        for (PreparedStatement ps : replicaPrepared.values()) {
+            closeQuietly(ps);
+        }
+        replicaPrepared.clear();
+        if (replicaLease != null) {
+            replicaLease.close();
+            replicaLease = null;
+        }
+    }
+
+    private synchronized PreparedStatement bind(SqlTemplate template, Object[] params) throws SQLException {
+        PreparedStatement ps = prepared.get(template);
+        if (ps == null) {
+            ps = getConnection().prepareStatement(template.getSql(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+            prepared.put(template, ps);
+        } else {
+            ps.clearParameters();
+        }
+        for (int i = 0; i < params.length; i++) {
+            ps.setObject(i + 1, params[i]);
+        }
+        return ps;
+    }
+
+    private synchronized void discard(SqlTemplate template) {
+        closeQuietly(prepared.remove(template));
+    }
+
+    /**
+     * Close the prepared statements of the shared connection
+     */
+    private synchronized void closePrepared() {
+        for (PreparedStatement ps : prepared.values()) {
+            closeQuietly(ps);
+        }
+        prepared.clear();
+        closeReplicaLease();
+    }
+
+    private void closeQuietly(PreparedStatement ps) {
+        if (ps == null) {
+            return;
+        }
+        try {
+            ps.close();
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "closeQuietly", ex);
+        }
+    }
+
     public String setDatabases(String mangosdb, String realmdb, String chardb, String scriptdb) {
+        closePrepared();
+        templates.clear();
         charDb = chardb;
         realmDb = realmdb;
         scriptDb = scriptdb;
@@ -150,11 +697,14 @@ public final class MangosSql extends SqlAccess {
      */
     @Override
     public ResultSet executeQuery(String query) {
-        // Do DB name replacement
-        query = query.replace("*realm*", realmDb);
-        query = query.replace("*mangos*", mangosDb);
-        query = query.replace("*char*", charDb);
-        return super.executeQuery(query);
+        long started = System.nanoTime();
+        ResultSet result = super.executeQuery(resolveNames(query));
+        if (result == null) {
+            stats.recordError(query, System.nanoTime() - started);
+        } else {
+            stats.record(query, System.nanoTime() - started, -1);
+        }
+        return result;
     }
 
     /**
@@ -166,11 +716,15 @@ public final class MangosSql extends SqlAccess {
      */
     @Override
     public int executeUpdate(String query) {
-        // Do DB name replacement
-        query = query.replace("*realm*", realmDb);
-        query = query.replace("*mangos*", mangosDb);
-        query = query.replace("*char*", charDb);
-        return super.executeUpdate(query);
+        pool.noteWrite();
+        long started = System.nanoTime();
+        int rows = super.executeUpdate(resolveNames(query));
+        if (rows < 0) {
+            stats.recordError(query, System.nanoTime() - started);
+        } else {
+            stats.record(query, System.nanoTime() - started, rows);
+        }
+        return rows;
     }
 
     /**
@@ -277,65 +831,29 @@ public final class MangosSql extends SqlAccess {
         return mangosDBVersion;
     }
 
+    /**
+     * Delete a character directly from the database
+     *
+     * @param guid
+     */
     public void deleteCharacter(String guid) {
+        deleteCharacters(Collections.singletonList(guid), null);
+    }
 
-        String[] sqlStatements = {
-            "START TRANSACTION",
-            "DELETE FROM *char*.petition WHERE ownerguid = '*GUID*'",
-            "DELETE FROM *char*.petition_sign WHERE ownerguid = '*GUID*'",
-            "COMMIT",
-            "START TRANSACTION",
-            "DELETE FROM *char*.characters WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_account_data WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_declinedname WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_action WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_aura WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_battleground_data WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_gifts WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_glyphs WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_homebind WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_instance WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.group_instance WHERE leaderGuid = '*GUID*'",
-            "DELETE FROM *char*.character_inventory WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_queststatus WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_queststatus_daily WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_queststatus_weekly WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_reputation WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_skills WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_spell WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_spell_cooldown WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_talent WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_ticket WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.item_instance WHERE owner_guid = '*GUID*'",
-            "DELETE FROM *char*.character_social WHERE guid = '*GUID*' OR friend='*GUID*'",
-            "DELETE FROM *char*.mail WHERE receiver = '*GUID*'",
-            "DELETE FROM *char*.mail_items WHERE receiver = '*GUID*'",
-            "DELETE FROM *char*.character_pet WHERE owner = '*GUID*'",
-            "DELETE FROM *char*.character_pet_declinedname WHERE owner = '*GUID*'",
-            "DELETE FROM *char*.character_achievement WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_achievement_progress WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.character_equipmentsets WHERE guid = '*GUID*'",
-            "DELETE FROM *char*.guild_eventlog WHERE PlayerGuid1 = '*GUID*' OR PlayerGuid2 = '*GUID*'",
-            "DELETE FROM *char*.guild_bank_eventlog WHERE PlayerGuid = '*GUID*'",
-            "COMMIT",
-            "START TRANSACTION",
-            "DELETE FROM *realm*.realmcharacters WHERE acctid= '*ACCTID*' AND realmid = '*REALMID*'",
-            "INSERT INTO *realm*.realmcharacters (numchars, acctid, realmid) VALUES (SELECT COUNT(guid) FROM *char*.characters WHERE account = *ACCTID*,*ACCTID*,*REALMID*)",
-            "COMMIT"
-        };
-
+    /**
+     * Delete characters directly from the database in chunks, see
+     * CharacterDeleter
+     *
+     * @param guids
+     * @param listener May be null
+     * @return number of characters deleted
+     */
+    public int deleteCharacters(Collection<String> guids, CharacterDeleter.ProgressListener listener) {
         try {
-            setStatement(charDb);
-            String acctid = getAcctIDFromCharID(guid);
-            String realmid = getRealmIDFromAcctID(acctid);
-            for (String s : sqlStatements) {
-                s = s.replace("*GUID*", guid);
-                s = s.replace("*ACCTID*", acctid);
-                s = s.replace("*REALMID*", realmid);
-                executeUpdate(s);
-            }
-        } catch (Exception ex) {
-            logger.throwing(this.getClass().getName(), "deleteCharacter(String guid)", ex);
+            return new CharacterDeleter(this).delete(guids, listener);
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "deleteCharacters", ex);
+            return -1;
         }
     }
 
@@ -351,16 +869,7 @@ public final class MangosSql extends SqlAccess {
      * @param name The character name
      */
     public boolean isCharOnline(String name) {
-        String result = null;
-        String query = "select online from characters where name='" + name + "'";
-        setStatement(charDb);
-        try {
-            executeQuery(query);
-            next();
-            result = getString("online");
-        } catch (Exception ex) {
-            logger.throwing(this.getClass().getName(), "isCharOnline", ex);
-        }
+        String result = queryValue("select online from *char*.characters where name=?", "online", name);
         if (result == null) {
             return false;
         }
@@ -368,26 +877,21 @@ public final class MangosSql extends SqlAccess {
     }
 
     /**
-     * Test for an existing character
+     * Test for an existing character with one lookup on the indexed name
+     * column of the primary, names are compared without regard to case as
+     * the server does
      *
      * @param charname
-     * @return true if character already exists
+     * @return true if character already exists, or if that could not be
+     * found out
      */
     public boolean characterExists(String charname) {
-
-        String query = "select name from characters";
-        setStatement(charDb);
-        try {
-            executeQuery(query);
-            while (next()) {
-                if (getString("name").contentEquals(charname)) {
-                    return true;
-                }
-            }
-        } catch (Exception ex) {
+        try (SqlLease lease = lease(null)) {
+            return lease.executeQuery(compile("select 1 from *char*.characters where name = ? limit 1"), charname).next();
+        } catch (SQLException ex) {
             logger.throwing(this.getClass().getName(), "characterExists", ex);
+            return true;
         }
-        return false;
     }
 
     /**
@@ -397,16 +901,7 @@ public final class MangosSql extends SqlAccess {
      * @return character name
      */
     public String getCharNameFromGUID(String guid) {
-        String query = "select name from characters where guid='" + guid + "'";
-        setStatement(charDb);
-        try {
-            executeQuery(query);
-            next();
-            return getString("name");
-        } catch (Exception ex) {
-            logger.throwing(this.getClass().getName(), "getCharNameFromGUID", ex);
-            return null;
-        }
+        return queryValue("select name from *char*.characters where guid=?", "name", guid);
     }
 
     /**
@@ -414,16 +909,7 @@ public final class MangosSql extends SqlAccess {
      * @param id Numerical id associated with the account
      */
     public String getAcctIDFromCharID(String id) {
-        String query = "select account from characters where guid='" + id + "'";
-        setStatement(charDb);
-        try {
-            executeQuery(query);
-            next();
-            return getString("account");
-        } catch (Exception ex) {
-            logger.throwing(this.getClass().getName(), "getAcctIDFromCharID", ex);
-            return null;
-        }
+        return queryValue("select account from *char*.characters where guid=?", "account", id);
     }
 
     /**
@@ -431,16 +917,7 @@ public final class MangosSql extends SqlAccess {
      * @param name the account name
      */
     public String getAcctIDFromAcctName(String name) {
-        String query = "select id from account where username='" + name + "'";
-        setStatement(realmDb);
-        try {
-            executeQuery(query);
-            next();
-            return getString("id");
-        } catch (Exception ex) {
-            logger.throwing(this.getClass().getName(), "getAcctIDFromAcctName", ex);
-            return null;
-        }
+        return queryValue("select id from *realm*.account where username=?", "id", name);
     }
 
     /**
@@ -448,17 +925,7 @@ public final class MangosSql extends SqlAccess {
      * @param id the account id
      */
     public String getRealmIDFromAcctID(String id) {
-        String query = "select realmid from realmcharacters where acctid='" + id + "'";
-        setStatement(realmDb);
-        try {
-            executeQuery(query);
-            next();
-            return getString("realmid");
-        } catch (Exception ex) {
-            logger.throwing(this.getClass().getName(), "getRealmIDFromAcctID", ex);
-            return null;
-        }
-
+        return queryValue("select realmid from *realm*.realmcharacters where acctid=?", "realmid", id);
     }
 
     /**
@@ -469,11 +936,10 @@ public final class MangosSql extends SqlAccess {
     public HashString getRealms() {
 
         HashString result = new HashString();
-        setStatement(realmDb);
-        try {
-            executeQuery("select id,name from realmlist");
-            while (next()) {
-                result.putStringValue(getString("id"), getString("name"));
+        try (SqlLease lease = readLease(null)) {
+            ResultSet rs = lease.executeQuery(compile("select id,name from *realm*.realmlist"));
+            while (rs.next()) {
+                result.putStringValue(rs.getString("id"), rs.getString("name"));
             }
             if (!result.containsKey("0")) {
                 result.putStringValue("0", "Offline");
@@ -490,20 +956,11 @@ public final class MangosSql extends SqlAccess {
      */
     private void updateDBVersions() {
         try {
-            setStatement(mangosDb);
-            executeQuery("select * from db_version");
-            next();
-            mangosDBInfo = getString(1);
-            setStatement(realmDb);
-            executeQuery("select * from realmd_db_version");
-            next();
-            realmDBInfo = getString(1);
+            mangosDBInfo = catalog.getVersion(getConnection(), mangosDb, "db_version");
+            realmDBInfo = catalog.getVersion(getConnection(), realmDb, "realmd_db_version");
             // Its possible that script db is not used so check for null
             if (scriptDb != null) {
-                setStatement(scriptDb);
-                executeQuery("select * from sd2_db_version");
-                next();
-                scriptdevDBInfo = getString(1);
+                scriptdevDBInfo = catalog.getVersion(getConnection(), scriptDb, "sd2_db_version");
             }
 
             // Adjust for db version
@@ -532,51 +989,248 @@ public final class MangosSql extends SqlAccess {
      * this object
      */
     public void writeSQLDatabase(int action) {
+        writeSQLDatabases(action);
+    }
 
-        String version = null;
-        boolean dataonly = false;
+    /**
+     * Writes entire databases, each to its own file. All are read from the
+     * same point in time, several tables at once.
+     *
+     * @param actions The actions to be performed, see the defined constants
+     * for this object
+     * @return true if every database was written, false if any table could
+     * not be and nothing was left behind for it
+     */
+    public boolean writeSQLDatabases(int... actions) {
+
+        validateSchema(mangosDb, realmDb, charDb, scriptDb);
         updateDBVersions();
+        ParallelBackup backup = new ParallelBackup(this, catalog, getBackupWorkers());
+        for (int action : actions) {
+            String dbname = null;
+            String version = null;
+            boolean dataonly = false;
+            switch (action) {
+                case WRITE_REALM:
+                    dbname = realmDb;
+                    version = mangosDBInfo;
+                    break;
+                case WRITE_CHAR:
+                    dbname = charDb;
+                    version = mangosDBInfo;
+                    break;
+                case WRITE_SCRIPTDEV:
+                    dbname = scriptDb;
+                    version = scriptdevDBInfo;
+                    break;
+                case WRITE_MANGOS:
+                    dbname = mangosDb;
+                    version = mangosDBInfo;
+                    break;
+                case WRITE_REALM_DATA:
+                    dbname = realmDb;
+                    version = mangosDBInfo;
+                    dataonly = true;
+                    break;
+                case WRITE_CHAR_DATA:
+                    dbname = charDb;
+                    version = mangosDBInfo;
+                    dataonly = true;
+                    break;
+                case WRITE_SCRIPTDEV_DATA:
+                    dbname = scriptDb;
+                    version = scriptdevDBInfo;
+                    dataonly = true;
+                    break;
+                case WRITE_MANGOS_DATA:
+                    dbname = mangosDb;
+                    version = mangosDBInfo;
+                    dataonly = true;
+                    break;
+            }
+            if (dbname == null) {
+                continue;
+            }
+            // Filenames are formed from the current database
+            setStatement(dbname);
+            backup.add(dbname, createUniqueFilename(getHostname() + "_", dataonly ? "_dataonly" : ""),
+                    version, dataonly);
+        }
+        return runBackup(backup);
+    }
+
+    /**
+     * Writes the database of the current statement
+     *
+     * @param partialname Forms the first part of the filename
+     * @param dataonly If true only data is saved
+     */
+    @Override
+    public void writeSQLDatabase(String partialname, boolean dataonly) {
+        if (partialname == null) {
+            partialname = "";
+        }
+        validateSchema(getCatalog());
+        ParallelBackup backup = new ParallelBackup(this, catalog, getBackupWorkers());
+        backup.add(getCatalog(), createUniqueFilename(partialname, dataonly ? "_dataonly" : ""), null, dataonly);
+        runBackup(backup);
+    }
+
+    /**
+     * Drop what the schema catalog holds about databases changed outside this
+     * client, such as by updates applied from the command line, so a backup
+     * never writes a stale definition or version
+     *
+     * @param dbnames The databases, null entries are skipped
+     */
+    private void validateSchema(String... dbnames) {
+        try {
+            for (String dbname : dbnames) {
+                if (dbname != null) {
+                    catalog.validate(getConnection(), dbname);
+                }
+            }
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "validateSchema", ex);
+            catalog.reload();
+        }
+    }
+
+    private boolean runBackup(ParallelBackup backup) {
+        boolDumpProgress = true;
+        backup.setInserts(boolBulkInsert ? 500 : 1);
+        backup.setListener(new ParallelBackup.Listener() {
+
+            @Override
+            public void progress(String filename, String table, int percent) {
+                setDumpProgress(filename, table, percent);
+            }
+        });
+        try {
+            backup.run(clientVersion);
+            return true;
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "runBackup", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Set the number of connections used at once by backups, takes effect on
+     * the next backup. The connection pool needs at least this many
+     * connections.
+     *
+     * @param workers zero for one per processor
+     */
+    public void setBackupWorkers(int workers) {
+        intBackupWorkers = Math.max(0, workers);
+    }
+
+    /**
+     * @return the number of connections used at once by backups
+     */
+    public int getBackupWorkers() {
+        if (intBackupWorkers > 0) {
+            return intBackupWorkers;
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Write a single table of the current database, its definition comes
+     * from the schema catalog and its data is read by key through a
+     * TableDumper
+     *
+     * @param tableName The name of the table
+     * @param dataonly Dataonly flag
+     * @param inserts The number of inserts merged into one insert statement
+     * @param where The where part of a query
+     */
+    @Override
+    public void writeSQLTable(String tableName, boolean dataonly, int inserts, String where) {
+        TableDumper dumper = new TableDumper(getConnection(), getCatalog(), catalog);
+        try {
+            if (!dataonly) {
+                dumper.writeStructure(tableName, getFileIO());
+            }
+            // Do a filestream flush
+            getFileIO().fileFlush();
+            boolDumpProgress = true;
+            final String filename = getFileIO().getWriteFile().getName();
+            dumper.setListener(new TableDumper.Listener() {
+
+                @Override
+                public void progress(String table, int percent) {
+                    setDumpProgress(filename, table, percent);
+                }
+            });
+            dumper.dump(tableName, inserts, where, getFileIO());
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "writeSQLTable", ex);
+        }
+    }
+
+    private synchronized void setDumpProgress(String filename, String table, int percent) {
+        strDumpFile = filename;
+        strDumpTable = table;
+        int old = intDumpProgress;
+        if (old != percent || percent == 0) {
+            intDumpProgress = percent;
+            dumpSupport.firePropertyChange("progress", old, percent);
+        }
+    }
+
+    /**
+     * Listen for progress of backups and restores, backups made by this
+     * class report separately from those of SqlAccess
+     *
+     * @param l
+     */
+    @Override
+    public void addPropertyChangeListener(PropertyChangeListener l) {
+        super.addPropertyChangeListener(l);
+        dumpSupport.addPropertyChangeListener(l);
+    }
+
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener l) {
+        super.removePropertyChangeListener(l);
+        dumpSupport.removePropertyChangeListener(l);
+    }
+
+    @Override
+    public int getProgress() {
+        return boolDumpProgress ? intDumpProgress : super.getProgress();
+    }
+
+    @Override
+    public String getActionTableName() {
+        return boolDumpProgress ? strDumpTable : super.getActionTableName();
+    }
+
+    @Override
+    public String getActionFileName() {
+        return boolDumpProgress ? strDumpFile : super.getActionFileName();
+    }
+
+    @Override
+    public void setBulkInsertEnabled(boolean enabled) {
+        boolBulkInsert = enabled;
+        super.setBulkInsertEnabled(enabled);
+    }
+
+    /**
+     * Share a schema catalog, normally with the other connection of the same
+     * profile
+     *
+     * @param catalog
+     */
+    public void setSchemaCatalog(SchemaCatalog catalog) {
+        this.catalog = catalog;
+    }
 
-        switch (action) {
-            case WRITE_REALM:
-                setStatement(realmDb);
-                version = mangosDBInfo;
-                break;
-            case WRITE_CHAR:
-                setStatement(charDb);
-                version = mangosDBInfo;
-                break;
-            case WRITE_SCRIPTDEV:
-                setStatement(scriptDb);
-                version = scriptdevDBInfo;
-                break;
-            case WRITE_MANGOS:
-                setStatement(mangosDb);
-                version = mangosDBInfo;
-                break;
-            case WRITE_REALM_DATA:
-                setStatement(realmDb);
-                version = mangosDBInfo;
-                dataonly = true;
-                break;
-            case WRITE_CHAR_DATA:
-                setStatement(charDb);
-                version = mangosDBInfo;
-                dataonly = true;
-                break;
-            case WRITE_SCRIPTDEV_DATA:
-                setStatement(scriptDb);
-                version = scriptdevDBInfo;
-                dataonly = true;
-                break;
-            case WRITE_MANGOS_DATA:
-                setStatement(mangosDb);
-                version = mangosDBInfo;
-                dataonly = true;
-                break;
-        }
-        setVersionInfo(clientVersion, version);
-        writeSQLDatabase(dataonly);
+    public SchemaCatalog getSchemaCatalog() {
+        return catalog;
     }
 
     public double getPortalVersion(String filename) {
@@ -611,6 +1265,7 @@ public final class MangosSql extends SqlAccess {
 
     public void writePortalSQL(String[] spellids) {
 
+        validateSchema(mangosDb);
         updateDBVersions();
         setStatement(mangosDb);
         setVersionInfo(clientVersion, mangosDBInfo);
@@ -637,10 +1292,13 @@ public final class MangosSql extends SqlAccess {
     }
 
     public void readSQLFile(String filename, String dbname) {
+        boolDumpProgress = false;
         createStatement("readSQLFile", dbname);
         setStatement("readSQLFile");
         readSQLFile(filename, true);
         removeStatement("readSQLFile");
+        // The restore may have changed anything in it
+        catalog.invalidate(dbname);
         updateDBVersions();
     }
 }
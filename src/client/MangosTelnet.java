@@ -16,32 +16,163 @@
  */
 package client;
 
-import lib.SocketConnector;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.logging.Logger;
-import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 
 /**
  *
  * @author Alistair Neil, <info@dazzleships.net>
  */
-public final class MangosTelnet extends SocketConnector {
+public final class MangosTelnet {
 
     final static String prompt = "s>";
+    private static final int MAX_FAILURES = 3;
+    private static final String LOGIN = "login";
+    private static final long DEFAULT_WAIT = 5000;
+    private static final String ERROR_RESULT = "Error: Null result.";
+    // Commands that only ask the server something, anything else may change
+    // the databases
+    private static final Set<String> QUERIES = new HashSet<>(Arrays.asList(
+            "version", "server info", "server motd", "server plimit"));
+    private static final ExecutorService asyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "RA Async");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    /**
+     * Runs continuations on the event dispatch thread, for use with the async
+     * methods when the result updates the UI
+     */
+    public static final Executor EDT = new Executor() {
+
+        @Override
+        public void execute(Runnable r) {
+            SwingUtilities.invokeLater(r);
+        }
+    };
     private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-    private SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss - ");
-    private JTextArea jtaLog = null;
-    private boolean boolDontLog = false;
-    private String strLogHide = null;
+    private final RATransport transport = new RATransport();
+    private final RALatencyStats stats;
+    private final RACommandQueue queue;
+    private volatile RALog raLog = null;
+    private volatile Runnable writeListener = null;
+    private volatile int intFailures = 0;
+
+    /**
+     * Create a session with its own latency statistics
+     */
+    public MangosTelnet() {
+        this(new RALatencyStats());
+    }
+
+    /**
+     * Create a session that learns its timeouts from shared latency
+     * statistics
+     *
+     * @param stats
+     */
+    public MangosTelnet(RALatencyStats stats) {
+        this(stats, null);
+    }
+
+    /**
+     * Create a session that learns its timeouts from shared latency
+     * statistics and whose writes are paced by a shared rate limiter
+     *
+     * @param stats
+     * @param limiter may be null for no limit
+     */
+    public MangosTelnet(RALatencyStats stats, RARateLimiter limiter) {
+        this.stats = stats;
+        this.queue = new RACommandQueue(transport, stats, limiter);
+    }
+
+    /**
+     * Get the latency statistics used by this session
+     *
+     * @return latency statistics
+     */
+    public RALatencyStats getLatencyStats() {
+        return stats;
+    }
+
+    /**
+     * Test if this session is logged in and its recent commands have not
+     * failed
+     *
+     * @return true if it is
+     */
+    public boolean isHealthy() {
+        return transport.isConnected() && queue.isRunning() && intFailures < MAX_FAILURES;
+    }
+
+    /**
+     * Set where commands and replies are logged
+     *
+     * @param log may be null for no logging
+     */
+    public void setCommandLog(RALog log) {
+        raLog = log;
+    }
+
+    /**
+     * Set what is told when a command that may have changed the databases
+     * has been carried out, it is called on the RA async executor so must not
+     * block
+     *
+     * @param listener may be null
+     */
+    public void setWriteListener(Runnable listener) {
+        writeListener = listener;
+    }
 
-    public void setLogTextOutput(JTextArea jta) {
-        jtaLog = jta;
+    /**
+     * Probe the server after a period with no traffic so a dead connection is
+     * found while idle
+     *
+     * @param idleMillis Idle period before a probe, zero disables keepalive
+     * @param probeMillis How long the probe reply may take
+     */
+    public void setKeepalive(long idleMillis, long probeMillis) {
+        queue.setKeepalive(idleMillis, probeMillis);
     }
 
-    public void setHideFromLog(String text) {
-        strLogHide = text;
+    /**
+     * Set whether queued commands are held when the connection fails, to be
+     * sent after a reconnect
+     *
+     * @param replay
+     */
+    public void setReplay(boolean replay) {
+        queue.setReplay(replay);
+    }
+
+    /**
+     * Set what is told when the connection fails, it is called on the RA
+     * I/O thread so must not block
+     *
+     * @param listener may be null
+     */
+    public void setLostListener(Runnable listener) {
+        queue.setLostListener(listener);
     }
 
     /**
@@ -54,18 +185,54 @@ public final class MangosTelnet extends SocketConnector {
      * @return result as String
      */
     public String Login(String host, String sport, String user, String pass) {
+        return login(host, sport, user, pass, false);
+    }
+
+    /**
+     * Log in again after the connection has failed, commands held for replay
+     * are sent once logged in
+     *
+     * @param host
+     * @param sport
+     * @param user
+     * @param pass
+     * @return result as String
+     */
+    public String reconnect(String host, String sport, String user, String pass) {
+        return login(host, sport, user, pass, true);
+    }
+
+    private String login(String host, String sport, String user, String pass, boolean keep) {
         String result;
         try {
-            setWaitPeriod(5000);
-            setPrompt(":");
-            connect(host, Integer.parseInt(sport));
-            setHideFromLog(pass);
-            addCmdLogEntry(user);
-            result = send(user);
-            if (result.isEmpty()) {
-                setPrompt(prompt);
-                addCmdLogEntry(pass);
-                result = send(pass);
+            if (!keep || !queue.isHolding()) {
+                queue.stop();
+            }
+            transport.disconnect();
+            intFailures = 0;
+            transport.setWaitPeriod(stats.getTimeout(LOGIN, DEFAULT_WAIT));
+            transport.setPrompt(":");
+            long start = System.currentTimeMillis();
+            transport.connect(host, Integer.parseInt(sport));
+            stats.record(LOGIN, System.currentTimeMillis() - start);
+            addCmdLogEntry(user, null);
+            start = System.currentTimeMillis();
+            result = transport.send(user);
+            if (result != null && result.isEmpty()) {
+                stats.record(LOGIN, System.currentTimeMillis() - start);
+                transport.setPrompt(prompt);
+                addCmdLogEntry(pass, pass);
+                start = System.currentTimeMillis();
+                result = transport.send(pass);
+                if (result != null && !result.isEmpty()) {
+                    stats.record(LOGIN, System.currentTimeMillis() - start);
+                }
+            }
+            transport.setWaitPeriod(DEFAULT_WAIT);
+            if (result == null) {
+                result = ERROR_RESULT;
+            } else if (result.contains("+Logged in")) {
+                queue.start();
             }
         } catch (Exception ex) {
             logger.throwing(this.getClass().getName(), "Login", ex);
@@ -75,64 +242,116 @@ public final class MangosTelnet extends SocketConnector {
         return result;
     }
 
-    private void addCmdLogEntry(String text) {
-        if (jtaLog != null) {
-            if (strLogHide != null) {
-                text = text.replace(strLogHide, "*****");
+    private void addCmdLogEntry(String text, String hide) {
+        RALog log = raLog;
+        if (log != null) {
+            if (hide != null && !hide.isEmpty()) {
+                text = text.replace(hide, "*****");
             }
-            jtaLog.append(sdf.format(new Date()) + "RA Command Issued - " + text + "\n");
+            log.addCommand(text);
         }
     }
 
     private void addResultLogEntry(String text) {
-        if (jtaLog != null && !boolDontLog) {
-            if (!text.endsWith("\n")) {
-                text += "\n";
-            }
-            jtaLog.append(sdf.format(new Date()) + "RA Command Result - " + text);
+        RALog log = raLog;
+        if (log != null) {
+            log.addResult(text);
         }
-        boolDontLog = false;
-        strLogHide = null;
     }
 
     /**
-     * Sends message to mangos server
+     * Queues message for the mangos server, the returned result never
+     * completes exceptionally and is completed on the RA async executor.
+     * Cancelling it before the message has been written stops it being sent.
      *
      * @param msg The message to be sent
-     * @param waitms Override default wait period
+     * @param waitms Wait period used until the command family's latency has
+     * been learnt
+     * @param hide Text to mask in the log, may be null
+     * @param log Whether the reply is written to the log
+     * @return future server result
      */
-    private String sendMangos(String msg, long waitms) {
-        long lngWait = getWaitPeriod();
-        setWaitPeriod(waitms);
-        String result = sendMangos(msg);
-        setWaitPeriod(lngWait);
+    private CompletableFuture<RAResult> queueMangos(final String msg, long waitms, String hide, final boolean log) {
+        addCmdLogEntry(msg, hide);
+        final String family = RALatencyStats.getFamily(msg);
+        final long start = System.currentTimeMillis();
+        final CompletableFuture<String> reply = queue.submit(msg, stats.getTimeout(family, waitms));
+        final CompletableFuture<RAResult> result = reply.handleAsync(new BiFunction<String, Throwable, RAResult>() {
+
+            @Override
+            public RAResult apply(String text, Throwable ex) {
+                long elapsed = System.currentTimeMillis() - start;
+                if (ex != null) {
+                    if (ex.getCause() instanceof TimeoutException || ex instanceof TimeoutException) {
+                        stats.recordFailure(family, true);
+                        // The server may still have carried it out
+                        noteWrite(msg);
+                        return new RAResult(family, "", RAResult.TIMEOUT, elapsed);
+                    }
+                    if (ex instanceof CancellationException) {
+                        return new RAResult(family, "", RAResult.CANCELLED, elapsed);
+                    }
+                    logger.throwing(MangosTelnet.class.getName(), "queueMangos(" + family + ")", ex);
+                    stats.recordFailure(family, false);
+                    intFailures++;
+                    return new RAResult(family, ERROR_RESULT, RAResult.DISCONNECTED, elapsed);
+                }
+                intFailures = 0;
+                noteWrite(msg);
+                if (log && !text.isEmpty()) {
+                    addResultLogEntry(text);
+                }
+                return new RAResult(family, text, RAResult.OK, elapsed);
+            }
+        }, asyncExecutor);
+        // Pass cancellation back to the queue so unsent commands are dropped
+        result.whenComplete(new BiConsumer<RAResult, Throwable>() {
+
+            @Override
+            public void accept(RAResult r, Throwable ex) {
+                if (result.isCancelled()) {
+                    reply.cancel(false);
+                }
+            }
+        });
         return result;
     }
 
+    private void noteWrite(String msg) {
+        Runnable listener = writeListener;
+        if (listener != null && !QUERIES.contains(msg.trim())) {
+            listener.run();
+        }
+    }
+
+    private CompletableFuture<RAResult> queueMangos(String msg, long waitms) {
+        return queueMangos(msg, waitms, null, true);
+    }
+
+    private CompletableFuture<RAResult> queueMangos(String msg) {
+        return queueMangos(msg, DEFAULT_WAIT, null, true);
+    }
+
     /**
-     * Sends message to mangos server
+     * Sends message to mangos server without waiting for a reply, the result
+     * completes once the message has been written
      *
      * @param msg The message to be sent
+     * @return future server result
      */
-    private String sendMangos(String msg) {
-        try {
-            addCmdLogEntry(msg);
-            String result = send(msg);
-            if (result == null) {
-                return "Error: Null result.";
-            }
-            if (result.isEmpty()) {
-                return result;
-            }
-            if (result.contains("mangos>")) {
-                result = result.substring(0, result.length() - 7);
+    private CompletableFuture<RAResult> postMangos(String msg) {
+        addCmdLogEntry(msg, null);
+        final String family = RALatencyStats.getFamily(msg);
+        return queue.post(msg).handleAsync(new BiFunction<String, Throwable, RAResult>() {
+
+            @Override
+            public RAResult apply(String text, Throwable ex) {
+                if (ex != null) {
+                    return new RAResult(family, ERROR_RESULT, RAResult.DISCONNECTED, 0);
+                }
+                return new RAResult(family, "", RAResult.OK, 0);
             }
-            addResultLogEntry(result);
-            return result;
-        } catch (Exception ex) {
-            logger.throwing(this.getClass().getName(), "sendMangos(" + msg + ")", ex);
-            return "Error : " + ex.getMessage();
-        }
+        }, asyncExecutor);
     }
 
     /**
@@ -142,7 +361,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setCharCustomise(String charname) {
-        return sendMangos("character customize " + charname);
+        return setCharCustomiseAsync(charname).join().getText();
+    }
+
+    /**
+     * Sets the specified character for customisation at next login, without blocking
+     *
+     * @param charname The character name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setCharCustomiseAsync(String charname) {
+        return queueMangos("character customize " + charname);
     }
 
     /**
@@ -152,7 +381,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setCharRename(String charname) {
-        return sendMangos("character rename " + charname);
+        return setCharRenameAsync(charname).join().getText();
+    }
+
+    /**
+     * Sets the specified character for rename at next login, without blocking
+     *
+     * @param charname The character name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setCharRenameAsync(String charname) {
+        return queueMangos("character rename " + charname);
     }
 
     /**
@@ -163,7 +402,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setCharLevel(String charname, String level) {
-        return sendMangos("character level " + charname + " " + level);
+        return setCharLevelAsync(charname, level).join().getText();
+    }
+
+    /**
+     * Sets the specified character level, without blocking
+     *
+     * @param charname The character name
+     * @param level The characters level
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setCharLevelAsync(String charname, String level) {
+        return queueMangos("character level " + charname + " " + level);
     }
 
     /**
@@ -173,7 +423,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setMotd(String msg) {
-        return sendMangos("server set motd " + msg);
+        return setMotdAsync(msg).join().getText();
+    }
+
+    /**
+     * Sets Message of the day on the mangos server, without blocking
+     *
+     * @param msg The message to be sent
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setMotdAsync(String msg) {
+        return queueMangos("server set motd " + msg);
     }
 
     /**
@@ -182,7 +442,16 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String getMotd() {
-        return sendMangos("server motd");
+        return getMotdAsync().join().getText();
+    }
+
+    /**
+     * Gets Message of the day from the mangos server, without blocking
+     *
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> getMotdAsync() {
+        return queueMangos("server motd");
     }
 
     /**
@@ -192,7 +461,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String loadScripts(String scriptname) {
-        return sendMangos("loadscripts " + scriptname);
+        return loadScriptsAsync(scriptname).join().getText();
+    }
+
+    /**
+     * Reloads scriptdev, without blocking
+     *
+     * @param scriptname
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> loadScriptsAsync(String scriptname) {
+        return queueMangos("loadscripts " + scriptname);
     }
 
     /**
@@ -202,7 +481,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String announce(String msg) {
-        return sendMangos("announce " + msg);
+        return announceAsync(msg).join().getText();
+    }
+
+    /**
+     * Broadcasts a system message on online chat log, without blocking
+     *
+     * @param msg The message to be broadcast
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> announceAsync(String msg) {
+        return queueMangos("announce " + msg);
     }
 
     /**
@@ -212,7 +501,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String notify(String msg) {
-        return sendMangos("notify " + msg);
+        return notifyAsync(msg).join().getText();
+    }
+
+    /**
+     * Broadcasts a system message on screen, without blocking
+     *
+     * @param msg The message to be broadcast
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> notifyAsync(String msg) {
+        return queueMangos("notify " + msg);
     }
 
     /**
@@ -221,7 +520,16 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the version of mangos being run
      */
     public String getVersion() {
-        return sendMangos("version", 1000);
+        return getVersionAsync().join().getText();
+    }
+
+    /**
+     * Gets the mangos version, without blocking
+     *
+     * @return Returns the future version of mangos being run
+     */
+    public CompletableFuture<RAResult> getVersionAsync() {
+        return queueMangos("version", 1000);
     }
 
     /**
@@ -230,7 +538,16 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns server info
      */
     public String getInfo() {
-        return sendMangos("server info", 1000);
+        return getInfoAsync().join().getText();
+    }
+
+    /**
+     * Gets the server info, without blocking
+     *
+     * @return Returns the future server info
+     */
+    public CompletableFuture<RAResult> getInfoAsync() {
+        return queueMangos("server info", 1000);
     }
 
     /**
@@ -239,7 +556,16 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns player limit
      */
     public String getPlayerLimit() {
-        return sendMangos("server plimit", 1000);
+        return getPlayerLimitAsync().join().getText();
+    }
+
+    /**
+     * Gets the player limit, without blocking
+     *
+     * @return Returns the future player limit
+     */
+    public CompletableFuture<RAResult> getPlayerLimitAsync() {
+        return queueMangos("server plimit", 1000);
     }
 
     /**
@@ -249,7 +575,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setPlayerLimit(String limit) {
-        return sendMangos("server plimit " + limit, 1000);
+        return setPlayerLimitAsync(limit).join().getText();
+    }
+
+    /**
+     * Sets the player limit, without blocking
+     *
+     * @param limit The player limit
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setPlayerLimitAsync(String limit) {
+        return queueMangos("server plimit " + limit, 1000);
     }
 
     /**
@@ -260,11 +596,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return result as String
      */
     public String idleShutdown(String delay) {
-        String result;
-        setPrompt(null);
-        result = sendMangos("server idleshutdown " + delay);
-        setPrompt(prompt);
-        return result;
+        return idleShutdownAsync(delay).join().getText();
+    }
+
+    /**
+     * Tells server to shutdown after a specified delay as long as server is
+     * idle, without blocking
+     *
+     * @param delay The delay in seconds
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> idleShutdownAsync(String delay) {
+        return postMangos("server idleshutdown " + delay);
     }
 
     /**
@@ -274,11 +617,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return result as String
      */
     public String shutdown(String delay) {
-        String result;
-        setPrompt(null);
-        result = sendMangos("server shutdown " + delay);
-        setPrompt(prompt);
-        return result;
+        return shutdownAsync(delay).join().getText();
+    }
+
+    /**
+     * Tells server to shutdown after a specified delay, without blocking
+     *
+     * @param delay The delay in seconds
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> shutdownAsync(String delay) {
+        return postMangos("server shutdown " + delay);
     }
 
     /**
@@ -287,11 +636,16 @@ public final class MangosTelnet extends SocketConnector {
      * @return result as String
      */
     public String shutdownNow() {
-        String result;
-        setPrompt(null);
-        result = sendMangos("server exit");
-        setPrompt(prompt);
-        return result;
+        return shutdownNowAsync().join().getText();
+    }
+
+    /**
+     * Tells server to shutdown immediately, without blocking
+     *
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> shutdownNowAsync() {
+        return postMangos("server exit");
     }
 
     /**
@@ -302,7 +656,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String createAccount(String username, String password) {
-        return sendMangos("account create " + username + " " + password);
+        return createAccountAsync(username, password).join().getText();
+    }
+
+    /**
+     * Create a new user account, without blocking
+     *
+     * @param username The name of the account
+     * @param password The password for this account
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> createAccountAsync(String username, String password) {
+        return queueMangos("account create " + username + " " + password, DEFAULT_WAIT, password, true);
     }
 
     /**
@@ -312,7 +677,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String deleteAccount(String username) {
-        return sendMangos("account delete " + username);
+        return deleteAccountAsync(username).join().getText();
+    }
+
+    /**
+     * Delete a user account, without blocking
+     *
+     * @param username The name of the account
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> deleteAccountAsync(String username) {
+        return queueMangos("account delete " + username);
     }
 
     /**
@@ -322,7 +697,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return result as String
      */
     public String kickChar(String charname) {
-        return sendMangos("kick " + charname);
+        return kickCharAsync(charname).join().getText();
+    }
+
+    /**
+     * Kick a character off the server, without blocking
+     *
+     * @param charname The name of the character to kick
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> kickCharAsync(String charname) {
+        return queueMangos("kick " + charname);
     }
 
     /**
@@ -333,7 +718,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return result as String
      */
     public String pDumpWrite(String filename, String charnameorguid) {
-        return sendMangos("pdump write " + filename + " " + charnameorguid);
+        return pDumpWriteAsync(filename, charnameorguid).join().getText();
+    }
+
+    /**
+     * Dump a characters sql data to a file, without blocking
+     *
+     * @param filename The name of the file
+     * @param charnameorguid The name or guid of the character to dump
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> pDumpWriteAsync(String filename, String charnameorguid) {
+        return queueMangos("pdump write " + filename + " " + charnameorguid);
     }
 
     /**
@@ -345,7 +741,19 @@ public final class MangosTelnet extends SocketConnector {
      * @return result as String
      */
     public String pDumpLoad(String filename, String acctname, String newcharname) {
-        return sendMangos("pdump load " + filename + " " + acctname + " " + newcharname);
+        return pDumpLoadAsync(filename, acctname, newcharname).join().getText();
+    }
+
+    /**
+     * Dump a characters sql data to a file, without blocking
+     *
+     * @param filename The name of the file
+     * @param acctname The name of the account to load character to
+     * @param newcharname The new character name, optional
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> pDumpLoadAsync(String filename, String acctname, String newcharname) {
+        return queueMangos("pdump load " + filename + " " + acctname + " " + newcharname);
     }
 
     /**
@@ -357,7 +765,19 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String banAcct(String acct, String reason, String duration) {
-        return sendMangos("ban account " + acct + " " + duration + " \"" + reason + "\"");
+        return banAcctAsync(acct, reason, duration).join().getText();
+    }
+
+    /**
+     * Ban a user account, without blocking
+     *
+     * @param acct The name of the account
+     * @param reason The reason for the ban
+     * @param duration The duration of the ban
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> banAcctAsync(String acct, String reason, String duration) {
+        return queueMangos("ban account " + acct + " " + duration + " \"" + reason + "\"");
     }
 
     /**
@@ -369,7 +789,19 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String banIP(String ipadd, String reason, String duration) {
-        return sendMangos("ban ip " + ipadd + " " + duration + " \"" + reason + "\"");
+        return banIPAsync(ipadd, reason, duration).join().getText();
+    }
+
+    /**
+     * Ban a user account based on the ip, without blocking
+     *
+     * @param ipadd The ipaddress of the user
+     * @param reason The reason for the ban
+     * @param duration The duration of the ban
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> banIPAsync(String ipadd, String reason, String duration) {
+        return queueMangos("ban ip " + ipadd + " " + duration + " \"" + reason + "\"");
     }
 
     /**
@@ -379,7 +811,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String unbanAcct(String acct) {
-        return sendMangos("unban account " + acct);
+        return unbanAcctAsync(acct).join().getText();
+    }
+
+    /**
+     * Unban a user account, without blocking
+     *
+     * @param acct The name of the account
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> unbanAcctAsync(String acct) {
+        return queueMangos("unban account " + acct);
     }
 
     /**
@@ -389,7 +831,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String unbanIP(String ipadd) {
-        return sendMangos("unban ip " + ipadd);
+        return unbanIPAsync(ipadd).join().getText();
+    }
+
+    /**
+     * Unban an ip address, without blocking
+     *
+     * @param ipadd The ip address
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> unbanIPAsync(String ipadd) {
+        return queueMangos("unban ip " + ipadd);
     }
 
     /**
@@ -401,7 +853,19 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String banChar(String character, String reason, String duration) {
-        return sendMangos("ban character " + character + " " + duration + " \"" + reason + "\"");
+        return banCharAsync(character, reason, duration).join().getText();
+    }
+
+    /**
+     * Ban user account with this character, without blocking
+     *
+     * @param character The character name
+     * @param reason The reason for the ban
+     * @param duration The duration of the ban
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> banCharAsync(String character, String reason, String duration) {
+        return queueMangos("ban character " + character + " " + duration + " \"" + reason + "\"");
     }
 
     /**
@@ -411,7 +875,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String unbanChar(String character) {
-        return sendMangos("unban character " + character);
+        return unbanCharAsync(character).join().getText();
+    }
+
+    /**
+     * Unban account with this character, without blocking
+     *
+     * @param character The character name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> unbanCharAsync(String character) {
+        return queueMangos("unban character " + character);
     }
 
     /**
@@ -421,7 +895,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String deleteChar(String character) {
-        return sendMangos("character erase " + character);
+        return deleteCharAsync(character).join().getText();
+    }
+
+    /**
+     * Delete a character, without blocking
+     *
+     * @param character The character name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> deleteCharAsync(String character) {
+        return queueMangos("character erase " + character);
     }
 
     /**
@@ -432,7 +916,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String resetCharOption(String character, String option) {
-        return sendMangos("reset " + option + " " + character);
+        return resetCharOptionAsync(character, option).join().getText();
+    }
+
+    /**
+     * Reset a character option, without blocking
+     *
+     * @param character The character name
+     * @param option The option to reset
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> resetCharOptionAsync(String character, String option) {
+        return queueMangos("reset " + option + " " + character);
     }
 
     /**
@@ -443,7 +938,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setGM(String acct, String level) {
-        return sendMangos("account set gmlevel " + acct + " " + level, 1000);
+        return setGMAsync(acct, level).join().getText();
+    }
+
+    /**
+     * Set the privileges of this account, without blocking
+     *
+     * @param acct The account name
+     * @param level The privilege level 0,1,2,3
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setGMAsync(String acct, String level) {
+        return queueMangos("account set gmlevel " + acct + " " + level, 1000);
     }
 
     /**
@@ -452,7 +958,16 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String clearCorpses() {
-        return sendMangos("server corpses", 1000);
+        return clearCorpsesAsync().join().getText();
+    }
+
+    /**
+     * Triggers a corpse clear out, without blocking
+     *
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> clearCorpsesAsync() {
+        return queueMangos("server corpses", 1000);
     }
 
     /**
@@ -461,7 +976,16 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String saveAll() {
-        return sendMangos("saveall", 30000);
+        return saveAllAsync().join().getText();
+    }
+
+    /**
+     * Save all player data, without blocking
+     *
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> saveAllAsync() {
+        return queueMangos("saveall", 30000);
     }
 
     /**
@@ -472,8 +996,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setPassword(String acct, String passwd) {
-        setHideFromLog(passwd);
-        return sendMangos("account set password " + acct + " " + passwd + " " + passwd, 1000);
+        return setPasswordAsync(acct, passwd).join().getText();
+    }
+
+    /**
+     * Set the password of specified account, without blocking
+     *
+     * @param acct The account name
+     * @param passwd The password
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setPasswordAsync(String acct, String passwd) {
+        return queueMangos("account set password " + acct + " " + passwd + " " + passwd, 1000, passwd, true);
     }
 
     /**
@@ -483,8 +1017,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String reloadTable(String tablename) {
-        String result = sendMangos("reload " + tablename);
-        return result;
+        return reloadTableAsync(tablename).join().getText();
+    }
+
+    /**
+     * Reload specified table, without blocking
+     *
+     * @param tablename The table you wish reloaded
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> reloadTableAsync(String tablename) {
+        return queueMangos("reload " + tablename);
     }
 
     /**
@@ -494,8 +1037,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String help(String property) {
-        boolDontLog = true;
-        return sendMangos("help " + property, 1000);
+        return helpAsync(property).join().getText();
+    }
+
+    /**
+     * Request help info, without blocking, the reply is not logged
+     *
+     * @param property The property you require help on
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> helpAsync(String property) {
+        return queueMangos("help " + property, 1000, null, false);
     }
 
     /**
@@ -505,7 +1057,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String getTicket(String charname) {
-        return sendMangos("ticket " + charname);
+        return getTicketAsync(charname).join().getText();
+    }
+
+    /**
+     * Get ticket, without blocking
+     *
+     * @param charname The character name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> getTicketAsync(String charname) {
+        return queueMangos("ticket " + charname);
     }
 
     /**
@@ -515,7 +1077,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String deleteTicket(String charname) {
-        return sendMangos("delticket " + charname);
+        return deleteTicketAsync(charname).join().getText();
+    }
+
+    /**
+     * Delete ticket, without blocking
+     *
+     * @param charname The character name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> deleteTicketAsync(String charname) {
+        return queueMangos("delticket " + charname);
     }
 
     /**
@@ -525,11 +1097,26 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String revive(String charname) {
-        String result = sendMangos("revive " + charname);
-        if (result.isEmpty()) {
-            return charname + " successfully revived.";
-        }
-        return result;
+        return reviveAsync(charname).join().getText();
+    }
+
+    /**
+     * Revive a character, without blocking
+     *
+     * @param charname The character name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> reviveAsync(final String charname) {
+        return queueMangos("revive " + charname).thenApply(new Function<RAResult, RAResult>() {
+
+            @Override
+            public RAResult apply(RAResult result) {
+                if (result.isOK() && result.getText().isEmpty()) {
+                    return result.withText(charname + " successfully revived.");
+                }
+                return result;
+            }
+        });
     }
 
     /**
@@ -539,7 +1126,17 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String repairItems(String charname) {
-        return sendMangos("repairitems " + charname);
+        return repairItemsAsync(charname).join().getText();
+    }
+
+    /**
+     * Repair a characters items, without blocking
+     *
+     * @param charname The account name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> repairItemsAsync(String charname) {
+        return queueMangos("repairitems " + charname);
     }
 
     /**
@@ -550,7 +1147,18 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String setExpansion(String acct, String expansion) {
-        return sendMangos("account set addon " + acct + " " + expansion);
+        return setExpansionAsync(acct, expansion).join().getText();
+    }
+
+    /**
+     * Set the expansion flag for this account, without blocking
+     *
+     * @param acct The account name
+     * @param expansion The expansion value 0 = normal, 1 = TBC
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> setExpansionAsync(String acct, String expansion) {
+        return queueMangos("account set addon " + acct + " " + expansion);
     }
 
     /**
@@ -564,7 +1172,21 @@ public final class MangosTelnet extends SocketConnector {
         if (msg.isEmpty()) {
             return null;
         }
-        return sendMangos("send message " + charname + " " + msg, 1000);
+        return sendMessageAsync(charname, msg).join().getText();
+    }
+
+    /**
+     * Send a message to a character, without blocking
+     *
+     * @param charname The character
+     * @param msg The message
+     * @return Returns the future server reply, an empty message is not sent
+     */
+    public CompletableFuture<RAResult> sendMessageAsync(String charname, String msg) {
+        if (msg.isEmpty()) {
+            return CompletableFuture.completedFuture(new RAResult("send message", "", RAResult.OK, 0));
+        }
+        return queueMangos("send message " + charname + " " + msg, 1000);
     }
 
     /**
@@ -576,13 +1198,25 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String sendMail(String charname, String subject, String text) {
+        return sendMailAsync(charname, subject, text).join().getText();
+    }
+
+    /**
+     * Send mail to a character, without blocking
+     *
+     * @param charname The character
+     * @param subject The subject
+     * @param text The mail text
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> sendMailAsync(String charname, String subject, String text) {
         if (subject == null || subject.isEmpty()) {
             subject = "No Subject";
         }
         if (text == null || text.isEmpty()) {
             text = "No Message";
         }
-        return sendMangos("send mail " + charname + " \"" + subject + "\" \"" + text + "\"");
+        return queueMangos("send mail " + charname + " \"" + subject + "\" \"" + text + "\"");
     }
 
     /**
@@ -595,13 +1229,26 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String sendGold(String charname, String subject, String text, String money) {
+        return sendGoldAsync(charname, subject, text, money).join().getText();
+    }
+
+    /**
+     * Send mail to a character with money, without blocking
+     *
+     * @param charname The character
+     * @param subject The subject
+     * @param text The mail text
+     * @param money The amount of money
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> sendGoldAsync(String charname, String subject, String text, String money) {
         if (subject == null || subject.isEmpty()) {
             subject = "No Subject";
         }
         if (text == null || text.isEmpty()) {
             text = "No Message";
         }
-        return sendMangos("send money " + charname + " \"" + subject + "\" \"" + text + "\" " + money);
+        return queueMangos("send money " + charname + " \"" + subject + "\" \"" + text + "\" " + money);
     }
 
     /**
@@ -614,13 +1261,26 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String sendItems(String charname, String subject, String text, String itemids) {
+        return sendItemsAsync(charname, subject, text, itemids).join().getText();
+    }
+
+    /**
+     * Send mail to a character containing items, without blocking
+     *
+     * @param charname The character
+     * @param subject The subject
+     * @param text The mail text
+     * @param itemids string of space separated ids
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> sendItemsAsync(String charname, String subject, String text, String itemids) {
         if (subject == null || subject.isEmpty()) {
             subject = "No Subject";
         }
         if (text == null || text.isEmpty()) {
             text = "No Message";
         }
-        return sendMangos("send items " + charname + " \"" + subject + "\" \"" + text + "\" " + itemids);
+        return queueMangos("send items " + charname + " \"" + subject + "\" \"" + text + "\" " + itemids);
     }
 
     /**
@@ -632,13 +1292,25 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String sendMassMail(String racefaction, String subject, String text) {
+        return sendMassMailAsync(racefaction, subject, text).join().getText();
+    }
+
+    /**
+     * Send mass mail to a race or faction, without blocking
+     *
+     * @param racefaction The race or faction
+     * @param subject The subject
+     * @param text The mail text
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> sendMassMailAsync(String racefaction, String subject, String text) {
         if (subject == null || subject.isEmpty()) {
             subject = "No Subject";
         }
         if (text == null || text.isEmpty()) {
             text = "No Message";
         }
-        return sendMangos("send mass mail " + racefaction.toLowerCase() + " \"" + subject + "\" \"" + text + "\"");
+        return queueMangos("send mass mail " + racefaction.toLowerCase() + " \"" + subject + "\" \"" + text + "\"");
     }
 
     /**
@@ -651,13 +1323,26 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String sendMassGold(String racefaction, String subject, String text, String money) {
+        return sendMassGoldAsync(racefaction, subject, text, money).join().getText();
+    }
+
+    /**
+     * Send mass mail to a race or faction containing money, without blocking
+     *
+     * @param racefaction The race or faction
+     * @param subject The subject
+     * @param text The mail text
+     * @param money The amount of money
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> sendMassGoldAsync(String racefaction, String subject, String text, String money) {
         if (subject == null || subject.isEmpty()) {
             subject = "No Subject";
         }
         if (text == null || text.isEmpty()) {
             text = "No Message";
         }
-        return sendMangos("send mass money " + racefaction.toLowerCase() + " \"" + subject + "\" \"" + text + "\" " + money);
+        return queueMangos("send mass money " + racefaction.toLowerCase() + " \"" + subject + "\" \"" + text + "\" " + money);
     }
 
     /**
@@ -670,13 +1355,26 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String sendMassItems(String racefaction, String subject, String text, String itemids) {
+        return sendMassItemsAsync(racefaction, subject, text, itemids).join().getText();
+    }
+
+    /**
+     * Send mass mail to a race or faction containing items, without blocking
+     *
+     * @param racefaction The race or faction
+     * @param subject The subject
+     * @param text The mail text
+     * @param itemids string of space separated ids
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> sendMassItemsAsync(String racefaction, String subject, String text, String itemids) {
         if (subject == null || subject.isEmpty()) {
             subject = "No Subject";
         }
         if (text == null || text.isEmpty()) {
             text = "No Message";
         }
-        return sendMangos("send mass items " + racefaction.toLowerCase() + " \"" + subject + "\" \"" + text + "\" " + itemids);
+        return queueMangos("send mass items " + racefaction.toLowerCase() + " \"" + subject + "\" \"" + text + "\" " + itemids);
     }
 
     /**
@@ -687,19 +1385,33 @@ public final class MangosTelnet extends SocketConnector {
      * @return Returns the server reply
      */
     public String teleport(String charname, String location) {
-        return sendMangos("tele name " + charname + " " + location);
+        return teleportAsync(charname, location).join().getText();
+    }
+
+    /**
+     * Teleport a character to a location, without blocking
+     *
+     * @param charname The character
+     * @param location The location name
+     * @return Returns the future server reply
+     */
+    public CompletableFuture<RAResult> teleportAsync(String charname, String location) {
+        return queueMangos("tele name " + charname + " " + location);
     }
 
     /**
      * Closes the telnet session
      */
     public void closeConnection() {
-        try {
-            setPrompt("");
-            sendMangos("quit");
-            super.disconnect();
-        } catch (IOException ex) {
-            logger.throwing(this.getClass().getName(), "closeConnection()", ex);
+        if (queue.isRunning()) {
+            try {
+                addCmdLogEntry("quit", null);
+                queue.post("quit").get(transport.getWaitPeriod(), TimeUnit.MILLISECONDS);
+            } catch (Exception ex) {
+                logger.throwing(this.getClass().getName(), "closeConnection()", ex);
+            }
         }
+        queue.stop();
+        transport.disconnect();
     }
 }
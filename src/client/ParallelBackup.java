@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import lib.SimpleFileIO;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Backs up one or more databases with several connections at once, each
+ * table going to whichever connection is free next. Every connection reads
+ * from the same point in time: the tables are briefly locked while each
+ * connection starts a consistent snapshot transaction, the way mysqldump and
+ * mydumper do it. Each table is written to its own part file and the parts
+ * are joined in table order into one file per database at the end.
+ * <p>
+ * The snapshot only covers transactional tables such as InnoDB. The lock is
+ * released as soon as the snapshots have started, so MyISAM and other
+ * non-transactional tables are read as they are when their turn comes and
+ * may not match the rest of the backup.
+ * <p>
+ * If any table cannot be written the whole backup fails, the remaining
+ * tables are skipped and no file is left for a database that is incomplete.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class ParallelBackup {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final MangosSql sql;
+    private final SchemaCatalog catalog;
+    private final int intWorkers;
+    private final ArrayList<Database> databases = new ArrayList<>();
+    private int intInserts = 500;
+    private Listener listener = null;
+
+    /**
+     * Told of progress through the backup, called from the worker threads
+     */
+    interface Listener {
+
+        /**
+         * @param filename The file the table is going to
+         * @param table The table just finished
+         * @param percent How far through the whole backup
+         */
+        void progress(String filename, String table, int percent);
+    }
+
+    private static final class Database {
+
+        private final String dbname;
+        private final String filename;
+        private final String version;
+        private final boolean dataonly;
+        private final ArrayList<Table> tables = new ArrayList<>();
+
+        private Database(String dbname, String filename, String version, boolean dataonly) {
+            this.dbname = dbname;
+            this.filename = filename;
+            this.version = version;
+            this.dataonly = dataonly;
+        }
+    }
+
+    private static final class Table {
+
+        private final Database db;
+        private final String name;
+        private File part = null;
+
+        private Table(Database db, String name) {
+            this.db = db;
+            this.name = name;
+        }
+    }
+
+    /**
+     * @param sql Supplies the worker connections and the output files
+     * @param catalog Supplies the tables and their definitions
+     * @param workers Number of connections used at once
+     */
+    ParallelBackup(MangosSql sql, SchemaCatalog catalog, int workers) {
+        this.sql = sql;
+        this.catalog = catalog;
+        intWorkers = Math.max(1, workers);
+    }
+
+    /**
+     * Add a database to the backup
+     *
+     * @param dbname The database
+     * @param filename The file it is written to
+     * @param version Version written to the file, null to write what was
+     * last set with setVersionInfo()
+     * @param dataonly If true only data is saved
+     */
+    void add(String dbname, String filename, String version, boolean dataonly) {
+        databases.add(new Database(dbname, filename, version, dataonly));
+    }
+
+    /**
+     * @param inserts The number of rows merged into one insert statement
+     */
+    void setInserts(int inserts) {
+        intInserts = inserts;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Run the backup
+     *
+     * @param clientVersion Written to each file
+     * @throws SQLException if the worker connections could not be set up or
+     * any table could not be written
+     */
+    void run(String clientVersion) throws SQLException {
+        final ArrayList<Table> tables = new ArrayList<>();
+        for (Database db : databases) {
+            for (String name : catalog.getTables(sql.getConnection(), db.dbname)) {
+                Table t = new Table(db, name);
+                db.tables.add(t);
+                tables.add(t);
+            }
+        }
+        // No more than the pool holds, or the last lease would wait in vain
+        int workers = Math.min(Math.min(intWorkers, sql.getPool().getSize()), Math.max(1, tables.size()));
+        List<SqlLease> leases = new ArrayList<>();
+        List<Integer> isolations = new ArrayList<>();
+        try {
+            try {
+                for (int i = 0; i < workers; i++) {
+                    leases.add(sql.lease(null));
+                }
+                startSnapshots(leases, isolations);
+                dumpTables(leases, tables);
+            } finally {
+                for (int i = 0; i < leases.size(); i++) {
+                    endSnapshot(leases.get(i), i < isolations.size() ? isolations.get(i) : null);
+                }
+            }
+            for (Database db : databases) {
+                join(db, clientVersion);
+            }
+        } finally {
+            for (Table t : tables) {
+                if (t.part != null && t.part.exists() && !t.part.delete()) {
+                    logger.log(Level.INFO, "Backup part not deleted {0}", t.part);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a consistent snapshot on every worker connection while writes are
+     * held off, so they all see the same data
+     */
+    private void startSnapshots(List<SqlLease> leases, List<Integer> isolations) throws SQLException {
+        boolean locked = false;
+        try (Statement st = sql.getConnection().createStatement()) {
+            st.execute("FLUSH TABLES WITH READ LOCK");
+            locked = true;
+        } catch (SQLException ex) {
+            // Needs the RELOAD privilege, without it the snapshots are only
+            // as close together as we can start them
+            logger.log(Level.WARNING, "Backup could not lock tables, snapshots may differ: {0}", ex.getMessage());
+        }
+        try {
+            for (SqlLease lease : leases) {
+                Connection conn = lease.getConnection();
+                isolations.add(conn.getTransactionIsolation());
+                conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                conn.setAutoCommit(false);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+                }
+            }
+        } finally {
+            if (locked) {
+                try (Statement st = sql.getConnection().createStatement()) {
+                    st.execute("UNLOCK TABLES");
+                }
+            }
+        }
+    }
+
+    private void endSnapshot(SqlLease lease, Integer isolation) {
+        try {
+            Connection conn = lease.getConnection();
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            if (isolation != null) {
+                conn.setTransactionIsolation(isolation);
+            }
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "endSnapshot", ex);
+        }
+        lease.close();
+    }
+
+    /**
+     * Each worker takes the next table not yet started until none are left or
+     * one of them has failed
+     */
+    private void dumpTables(List<SqlLease> leases, final List<Table> tables) throws SQLException {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final File folder = sql.getBackupPath() == null ? null : new File(sql.getBackupPath());
+        List<Callable<Void>> jobs = new ArrayList<>();
+        for (final SqlLease lease : leases) {
+            jobs.add(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    Connection conn = lease.getConnection();
+                    int idx;
+                    while (!failed.get() && (idx = next.getAndIncrement()) < tables.size()) {
+                        Table t = tables.get(idx);
+                        try {
+                            dumpTable(conn, t, folder);
+                        } catch (Exception ex) {
+                            failed.set(true);
+                            throw ex;
+                        }
+                        if (listener != null) {
+                            listener.progress(t.db.filename, t.name, done.incrementAndGet() * 100 / tables.size());
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(jobs.size(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SQL Backup");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Throwable failure = null;
+        try {
+            for (Future<Void> f : executor.invokeAll(jobs)) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    logger.throwing(this.getClass().getName(), "dumpTables", ex.getCause());
+                    if (failure == null) {
+                        failure = ex.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Backup interrupted", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure != null) {
+            throw new SQLException("Backup failed", failure);
+        }
+    }
+
+    private void dumpTable(Connection conn, Table t, File folder) throws SQLException, IOException {
+        SimpleFileIO io = new SimpleFileIO();
+        t.part = File.createTempFile(t.db.dbname + "_", ".part", folder);
+        io.setWriteFile(t.part);
+        if (io.openBufferedWrite() == null) {
+            throw new IOException("Backup part could not be written " + t.part);
+        }
+        try {
+            TableDumper dumper = new TableDumper(conn, t.db.dbname, catalog);
+            if (!t.db.dataonly) {
+                dumper.writeStructure(t.name, io);
+            }
+            dumper.dump(t.name, intInserts, null, io);
+        } catch (SQLException ex) {
+            throw new SQLException("Backup of table " + t.db.dbname + "." + t.name + " failed", ex);
+        } finally {
+            io.closeBufferedWrite();
+        }
+    }
+
+    /**
+     * Write the file of a database from the parts of its tables, a file that
+     * could not be completed is deleted
+     */
+    private void join(Database db, String clientVersion) throws SQLException {
+        SimpleFileIO io = sql.getFileIO();
+        io.setWriteFilename(db.filename);
+        BufferedWriter out = io.openBufferedWrite();
+        if (out == null) {
+            throw new SQLException("Backup file could not be written " + db.filename);
+        }
+        boolean complete = false;
+        try {
+            if (db.version != null) {
+                sql.setVersionInfo(clientVersion, db.version);
+            }
+            sql.writeVersionInfo();
+            io.writeToFile("USE `" + db.dbname + "`;", 2);
+            char[] buffer = new char[65536];
+            for (Table t : db.tables) {
+                try (Reader in = new FileReader(t.part)) {
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                }
+            }
+            out.flush();
+            complete = true;
+        } catch (IOException ex) {
+            throw new SQLException("Backup file could not be written " + db.filename, ex);
+        } finally {
+            io.closeBufferedWrite();
+            if (!complete) {
+                File f = io.getWriteFile();
+                if (f != null && f.exists() && !f.delete()) {
+                    logger.log(Level.INFO, "Incomplete backup not deleted {0}", f);
+                }
+            }
+        }
+    }
+}
@@ -110,7 +110,6 @@ public class PortalManager extends javax.swing.JFrame {
         dbIO = io;
         if (dbIO != null) {
             dbIO.createMangosStatement("userdest");
-            dbIO.createMangosStatement("udbdest");
             dbIO.createMangosStatement("activeportals");
         }
         mangosTelnet = telnet;
@@ -214,13 +213,15 @@ public class PortalManager extends javax.swing.JFrame {
     }
 
     public final void updatePreDefDestTable() {
-        dbIO.setStatement("udbdest");
-        String query = "select entry, name, faction from gameobject_template where "
+        // Only displayed so it may come from a replica
+        String query = "select entry, name, faction from *mangos*.gameobject_template where "
                 + "type = 22 and entry < 400000 order by entry";
-        dbTableExistingDest.getModel().setResultSet(dbIO.executeQuery(query));
+        SqlTemplate template = dbIO.compile(query);
+        dbTableExistingDest.getModel().setResultSet(dbIO.executeRead(template));
         dbTableExistingDest.getModel().setPrimaryKey("entry");
         dbTableExistingDest.enableTextReplacement("faction", hsFaction);
         dbTableExistingDest.getModel().refreshTableContents();
+        dbIO.getQueryStats().recordRows(template, dbTableExistingDest.getModel().getRowCount());
         dbTableExistingDest.autoAdjustRowHeight();
     }
 
@@ -235,6 +236,7 @@ public class PortalManager extends javax.swing.JFrame {
         dbTableActivePortals.enableComboEditor("faction", true, hsFaction);
         dbTableActivePortals.enableTextEditor("name");
         dbTableActivePortals.getModel().refreshTableContents();
+        dbIO.getQueryStats().recordRows(query, dbTableActivePortals.getModel().getRowCount());
         dbTableActivePortals.autoAdjustRowHeight();
         buDeletePortal.setEnabled(false);
     }
@@ -381,6 +383,7 @@ public class PortalManager extends javax.swing.JFrame {
         dbTableUserDest.enableComboEditor("faction", true, hsFaction);
         dbTableUserDest.enableComboEditor("displayid", true, hsDisplayId);
         dbTableUserDest.getModel().refreshTableContents();
+        dbIO.getQueryStats().recordRows(query, dbTableUserDest.getModel().getRowCount());
         dbTableUserDest.autoAdjustRowHeight();
         if (charname != null) {
             buCreateUserDest.setEnabled(dbTableUserDest.getRowCount() < spellId.length);
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Sends one command to the Remote Access servers of several realms at once.
+ * A session is opened to every realm concurrently, the command is issued on
+ * each and the replies and timings are gathered into one report. A realm
+ * served by the already connected session reuses it rather than logging in
+ * again.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RABroadcast {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final MangosTelnet primary;
+    private final String strPrimaryEndpoint;
+    private RALog raLog = null;
+
+    /**
+     * A realm's Remote Access endpoint
+     */
+    public static final class Endpoint {
+
+        private final String name;
+        private final String host;
+        private final String port;
+
+        public Endpoint(String name, String host, String port) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    /**
+     * The outcome for one realm
+     */
+    public static final class Outcome {
+
+        private final Endpoint endpoint;
+        private final RAResult result;
+        private final long lngMillis;
+
+        private Outcome(Endpoint endpoint, RAResult result, long millis) {
+            this.endpoint = endpoint;
+            this.result = result;
+            this.lngMillis = millis;
+        }
+
+        public Endpoint getEndpoint() {
+            return endpoint;
+        }
+
+        public RAResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return time taken including login in milliseconds
+         */
+        public long getMillis() {
+            return lngMillis;
+        }
+    }
+
+    /**
+     * The command to broadcast
+     */
+    public interface Command {
+
+        /**
+         * Queue the command on a logged in session
+         *
+         * @param session
+         * @return future result
+         */
+        CompletableFuture<RAResult> apply(MangosTelnet session);
+    }
+
+    /**
+     * @param primary The connected session, may be null
+     * @param primaryHost Its host
+     * @param primaryPort Its port
+     */
+    public RABroadcast(MangosTelnet primary, String primaryHost, String primaryPort) {
+        this.primary = primary;
+        this.strPrimaryEndpoint = primaryHost + ":" + primaryPort;
+    }
+
+    /**
+     * Set where the broadcast sessions log their commands
+     *
+     * @param log may be null
+     */
+    public void setCommandLog(RALog log) {
+        raLog = log;
+    }
+
+    /**
+     * Run the command on every realm and wait for all of them
+     *
+     * @param targets The realms
+     * @param user Remote Access user
+     * @param pass Remote Access password
+     * @param command The command
+     * @return outcomes in the same order as targets
+     */
+    public List<Outcome> run(List<Endpoint> targets, final String user, final char[] pass, final Command command) {
+        List<Outcome> outcomes = new ArrayList<>(targets.size());
+        if (targets.isEmpty()) {
+            return outcomes;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(targets.size(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RA Broadcast");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<CompletableFuture<Outcome>> futures = new ArrayList<>(targets.size());
+            for (final Endpoint target : targets) {
+                futures.add(CompletableFuture.supplyAsync(new Supplier<Outcome>() {
+
+                    @Override
+                    public Outcome get() {
+                        return runOne(target, user, pass, command);
+                    }
+                }, executor));
+            }
+            for (CompletableFuture<Outcome> f : futures) {
+                outcomes.add(f.join());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return outcomes;
+    }
+
+    private Outcome runOne(Endpoint target, String user, char[] pass, Command command) {
+        long start = System.currentTimeMillis();
+        if (primary != null && primary.isHealthy() && strPrimaryEndpoint.equals(target.toString())) {
+            RAResult result = command.apply(primary).join();
+            return new Outcome(target, result, System.currentTimeMillis() - start);
+        }
+        MangosTelnet session = new MangosTelnet();
+        session.setCommandLog(raLog);
+        try {
+            String login = session.Login(target.host, target.port, user, String.copyValueOf(pass));
+            if (!login.contains("+Logged in")) {
+                return new Outcome(target, new RAResult("login", login.trim(), RAResult.DISCONNECTED,
+                        System.currentTimeMillis() - start), System.currentTimeMillis() - start);
+            }
+            RAResult result = command.apply(session).join();
+            return new Outcome(target, result, System.currentTimeMillis() - start);
+        } catch (RuntimeException ex) {
+            logger.throwing(this.getClass().getName(), "runOne", ex);
+            return new Outcome(target, new RAResult("", ex.toString(), RAResult.DISCONNECTED, 0),
+                    System.currentTimeMillis() - start);
+        } finally {
+            session.closeConnection();
+        }
+    }
+
+    /**
+     * Build a plain text report, one block per realm
+     *
+     * @param outcomes
+     * @return the report
+     */
+    public static String report(List<Outcome> outcomes) {
+        StringBuilder sb = new StringBuilder();
+        int ok = 0;
+        for (Outcome o : outcomes) {
+            RAResult r = o.getResult();
+            if (r.isOK()) {
+                ok++;
+            }
+            sb.append(o.getEndpoint().getName()).append(" (").append(o.getEndpoint()).append(") ")
+                    .append(statusName(r.getStatus())).append(", ")
+                    .append(r.getMillis()).append(" ms command, ")
+                    .append(o.getMillis()).append(" ms total\n");
+            String text = r.getText().trim();
+            if (!text.isEmpty()) {
+                sb.append("    ").append(text.replace("\r", "").replace("\n", "\n    ")).append("\n");
+            }
+        }
+        sb.append(ok).append(" / ").append(outcomes.size()).append(" OK\n");
+        return sb.toString();
+    }
+
+    private static String statusName(int status) {
+        switch (status) {
+            case RAResult.OK:
+                return "OK";
+            case RAResult.TIMEOUT:
+                return "Timeout";
+            case RAResult.CANCELLED:
+                return "Cancelled";
+            default:
+                return "Failed";
+        }
+    }
+}
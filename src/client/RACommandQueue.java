@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pipelined Remote Access command queue. Commands are written back to back by
+ * a single I/O thread and each prompt delimited reply is handed to the command
+ * that produced it, the server answers in order so correlation is first in
+ * first out.
+ * <p>
+ * A command's wait period starts when it reaches the head of the queue, so a
+ * long pipeline does not time out simply because it is long. A command that
+ * times out stays in the queue as abandoned so its late reply is consumed
+ * rather than being given to the command behind it.
+ * <p>
+ * Writes are paced by an optional rate limiter which is fed every round trip
+ * and timeout, so a struggling server is sent commands more slowly.
+ * <p>
+ * When keepalive is enabled a cheap probe is sent after a period with no
+ * traffic, if its reply does not arrive in time the connection is treated as
+ * failed, so a half dead socket is found without waiting for a real command
+ * to time out. With replay enabled a failed connection holds on to commands
+ * that were never written, along with read only commands whose reply was
+ * lost, and writes them once the queue is started again on a new connection.
+ * A held command that is not written within its wait period times out.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RACommandQueue {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final long IDLE_POLL = 1000;
+    private static final String PROBE = "server info";
+    private static final String[] READ_ONLY = {"server info", "server motd", "server plimit", "version"};
+    private static final ScheduledExecutorService holdTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "RA Hold Timer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final RATransport transport;
+    private final RALatencyStats stats;
+    private final RARateLimiter limiter;
+    private final ConcurrentLinkedQueue<Command> pending = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Command> inflight = new ArrayDeque<>();
+    private volatile boolean boolRunning = false;
+    private volatile boolean boolHolding = false;
+    private volatile boolean boolReplay = false;
+    private volatile long lngKeepalive = 0;
+    private volatile long lngProbeWait = 5000;
+    private volatile Runnable lostListener = null;
+    private Thread ioThread = null;
+    private long lngLastActivity = 0;
+
+    /**
+     * A queued command and its pending reply
+     */
+    private static final class Command {
+
+        private final String text;
+        private final long waitfor;
+        private final boolean expectReply;
+        private final CompletableFuture<String> reply = new CompletableFuture<>();
+        private boolean probe = false;
+        private volatile long started = 0;
+        private long deadline = 0;
+
+        private Command(String text, long waitfor, boolean expectReply) {
+            this.text = text;
+            this.waitfor = waitfor;
+            this.expectReply = expectReply;
+        }
+    }
+
+    /**
+     * Create a queue on an already logged in transport
+     *
+     * @param transport
+     * @param stats Where round trip latencies are recorded, may be null
+     * @param limiter Paces the writes, may be null
+     */
+    public RACommandQueue(RATransport transport, RALatencyStats stats, RARateLimiter limiter) {
+        this.transport = transport;
+        this.stats = stats;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Probe the server after a period with no traffic
+     *
+     * @param idleMillis Idle period before a probe, zero disables keepalive
+     * @param probeMillis How long the probe reply may take
+     */
+    public void setKeepalive(long idleMillis, long probeMillis) {
+        lngKeepalive = Math.max(0, idleMillis);
+        lngProbeWait = Math.max(1, probeMillis);
+        transport.wakeup();
+    }
+
+    /**
+     * Set whether commands are held for replay when the connection fails
+     *
+     * @param replay
+     */
+    public void setReplay(boolean replay) {
+        boolReplay = replay;
+    }
+
+    /**
+     * Set what is told when the I/O thread stops because the connection
+     * failed, it is called on the I/O thread
+     *
+     * @param listener may be null
+     */
+    public void setLostListener(Runnable listener) {
+        lostListener = listener;
+    }
+
+    /**
+     * Test if commands are being held for replay
+     *
+     * @return true if they are
+     */
+    public boolean isHolding() {
+        return boolHolding;
+    }
+
+    /**
+     * Start the I/O thread, any held commands are written first
+     */
+    public synchronized void start() {
+        if (boolRunning) {
+            return;
+        }
+        boolHolding = false;
+        lngLastActivity = System.currentTimeMillis();
+        boolRunning = true;
+        ioThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                process();
+            }
+        }, "RA Command Queue");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Stop the I/O thread, anything still queued is cancelled
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            boolRunning = false;
+            boolHolding = false;
+            thread = ioThread;
+            ioThread = null;
+        }
+        transport.wakeup();
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(IDLE_POLL);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drainPending(new CancellationException("RA command queue stopped"));
+    }
+
+    /**
+     * Test if the queue is accepting commands
+     *
+     * @return true if it is
+     */
+    public boolean isRunning() {
+        return boolRunning;
+    }
+
+    /**
+     * Queue a command, the returned future completes with the reply or
+     * exceptionally with a TimeoutException if the reply did not arrive within
+     * the wait period once the command reached the head of the queue
+     *
+     * @param text The command
+     * @param waitfor The wait period in milliseconds
+     * @return future reply
+     */
+    public CompletableFuture<String> submit(String text, long waitfor) {
+        return enqueue(new Command(text, waitfor, true));
+    }
+
+    /**
+     * Queue a command whose reply is of no interest, the returned future
+     * completes with an empty string once the command has been written
+     *
+     * @param text The command
+     * @return future completion
+     */
+    public CompletableFuture<String> post(String text) {
+        return enqueue(new Command(text, transport.getWaitPeriod(), false));
+    }
+
+    private CompletableFuture<String> enqueue(Command cmd) {
+        // Under the lock hold() and stop() change state under, so a command
+        // is either drained by them or sees the state they leave
+        synchronized (this) {
+            if (!boolRunning && !boolHolding) {
+                cmd.reply.completeExceptionally(new IOException("RA command queue not running"));
+                return cmd.reply;
+            }
+            pending.add(cmd);
+            if (boolHolding) {
+                expireLater(cmd);
+            }
+        }
+        transport.wakeup();
+        return cmd.reply;
+    }
+
+    /**
+     * Time out a held command if it has not been written within its wait
+     * period
+     */
+    private void expireLater(final Command cmd) {
+        holdTimer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (cmd.started == 0 && cmd.reply.completeExceptionally(new TimeoutException(cmd.text))) {
+                    logger.log(Level.INFO, "RA held command timed out {0}", cmd.text);
+                }
+            }
+        }, cmd.waitfor, TimeUnit.MILLISECONDS);
+    }
+
+    private void process() {
+        Exception failure = new CancellationException("RA command queue stopped");
+        boolean lost = false;
+        try {
+            while (boolRunning) {
+                long throttled = writePending();
+                Command active = activate();
+                long wait = IDLE_POLL;
+                if (active != null) {
+                    wait = Math.max(1, active.deadline - System.currentTimeMillis());
+                } else if (lngKeepalive > 0) {
+                    long idle = System.currentTimeMillis() - lngLastActivity;
+                    if (idle >= lngKeepalive && pending.isEmpty()) {
+                        sendProbe();
+                        continue;
+                    }
+                    wait = Math.min(wait, Math.max(1, lngKeepalive - idle));
+                }
+                if (throttled > 0) {
+                    wait = Math.min(wait, throttled);
+                }
+                String result = transport.poll(wait);
+                if (result != null) {
+                    lngLastActivity = System.currentTimeMillis();
+                    deliver(result);
+                } else if (active != null && System.currentTimeMillis() >= active.deadline) {
+                    if (active.probe) {
+                        throw new IOException("RA keepalive probe timed out");
+                    }
+                    logger.log(Level.INFO, "RA command timed out {0}", active.text);
+                    active.reply.completeExceptionally(new TimeoutException(active.text));
+                    if (limiter != null) {
+                        limiter.onTimeout();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            logger.throwing(this.getClass().getName(), "process()", ex);
+            failure = ex;
+            lost = boolRunning;
+        }
+        synchronized (this) {
+            if (lost && boolReplay) {
+                hold(failure);
+            }
+            boolRunning = false;
+        }
+        Command cmd;
+        while ((cmd = inflight.poll()) != null) {
+            cmd.reply.completeExceptionally(failure);
+        }
+        if (!boolHolding) {
+            drainPending(failure);
+        }
+        Runnable listener = lostListener;
+        if (lost && listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Write a keepalive probe, its reply is discarded
+     *
+     * @throws IOException
+     */
+    private void sendProbe() throws IOException {
+        Command probe = new Command(PROBE, lngProbeWait, true);
+        probe.probe = true;
+        inflight.add(probe);
+        transport.write(PROBE);
+        lngLastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Keep the commands that can safely be sent again on a new connection,
+     * read only commands whose reply was lost go ahead of those never written
+     *
+     * @param failure Given to the in flight commands that cannot be replayed
+     */
+    private void hold(Exception failure) {
+        List<Command> replay = new ArrayList<>();
+        Command cmd;
+        while ((cmd = inflight.poll()) != null) {
+            if (cmd.reply.isDone() || cmd.probe) {
+                continue;
+            }
+            if (cmd.expectReply && isReadOnly(cmd.text)) {
+                cmd.started = 0;
+                cmd.deadline = 0;
+                replay.add(cmd);
+            } else {
+                cmd.reply.completeExceptionally(failure);
+            }
+        }
+        while ((cmd = pending.poll()) != null) {
+            replay.add(cmd);
+        }
+        pending.addAll(replay);
+        boolHolding = true;
+        for (Command c : replay) {
+            expireLater(c);
+        }
+        logger.log(Level.INFO, "RA command queue holding {0} commands for replay", replay.size());
+    }
+
+    private static boolean isReadOnly(String text) {
+        if (text.startsWith("help")) {
+            return true;
+        }
+        for (String s : READ_ONLY) {
+            if (s.equals(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write everything that has been queued since the last pass, as far as
+     * the rate limiter allows
+     *
+     * @return zero or milliseconds until the limiter allows the next write
+     * @throws IOException
+     */
+    private long writePending() throws IOException {
+        Command cmd;
+        while ((cmd = pending.peek()) != null) {
+            if (cmd.reply.isDone()) {
+                // Cancelled before it was written
+                pending.poll();
+                continue;
+            }
+            if (limiter != null) {
+                long delay = limiter.tryAcquire();
+                if (delay > 0) {
+                    return delay;
+                }
+            }
+            pending.poll();
+            inflight.add(cmd);
+            transport.write(cmd.text);
+            lngLastActivity = System.currentTimeMillis();
+            if (!cmd.expectReply) {
+                cmd.reply.complete("");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Find the oldest command still waiting for its reply and start its clock
+     *
+     * @return the active command or null if none
+     */
+    private Command activate() {
+        for (Command cmd : inflight) {
+            if (!cmd.reply.isDone()) {
+                if (cmd.deadline == 0) {
+                    cmd.started = System.currentTimeMillis();
+                    cmd.deadline = cmd.started + cmd.waitfor;
+                }
+                return cmd;
+            }
+        }
+        return null;
+    }
+
+    private void deliver(String result) {
+        Command head = inflight.poll();
+        if (head == null) {
+            logger.log(Level.INFO, "RA unsolicited reply discarded {0}", result);
+            return;
+        }
+        if (head.probe) {
+            return;
+        }
+        if (head.started != 0) {
+            String family = RALatencyStats.getFamily(head.text);
+            long millis = System.currentTimeMillis() - head.started;
+            if (limiter != null) {
+                limiter.onReply(millis, median(family));
+            }
+            if (stats != null) {
+                // Late replies are recorded too so timeouts can grow under load
+                stats.record(family, millis);
+            }
+        }
+        if (!head.reply.complete(result) && head.expectReply) {
+            logger.log(Level.INFO, "RA late reply discarded for {0}", head.text);
+        }
+    }
+
+    private long median(String family) {
+        if (stats == null) {
+            return 0;
+        }
+        LatencyHistogram h = stats.getHistogram(family);
+        if (h == null || h.getCount() < RALatencyStats.MIN_SAMPLES) {
+            return 0;
+        }
+        return h.getPercentile(50);
+    }
+
+    /**
+     * Fail everything that has not yet been written
+     *
+     * @param ex The reason
+     */
+    private void drainPending(Exception ex) {
+        Command cmd;
+        while ((cmd = pending.poll()) != null) {
+            cmd.reply.completeExceptionally(ex);
+        }
+    }
+}
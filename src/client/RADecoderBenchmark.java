@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+
+/**
+ * Microbenchmark comparing the character at a time reply reader that
+ * SocketConnector uses with RAReplyDecoder. Run it directly, for example
+ * java -cp MaNGOLin.jar client.RADecoderBenchmark
+ * <p>
+ * Both decoders are fed the same in-memory reply so only decoding is measured,
+ * the new decoder receives it in 8K chunks as it would from the socket.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class RADecoderBenchmark {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final String PROMPT = "s>";
+    private static final int CHUNK = 8192;
+    private static volatile int sink;
+
+    private RADecoderBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {10, 100, 500, 1000};
+        System.out.println(String.format("%8s %10s %14s %14s %14s %14s %8s",
+                "lines", "bytes", "legacy us/op", "decoder us/op",
+                "legacy B/op", "decoder B/op", "speedup"));
+        for (int lines : sizes) {
+            byte[] reply = buildReply(lines);
+            // The legacy reader is quadratic so it gets far fewer iterations
+            int legacyIterations = Math.max(3, 2000000 / (lines * lines));
+            int decoderIterations = Math.max(100, 2000000 / lines);
+            // Warm up both paths before measuring
+            runLegacy(reply, legacyIterations);
+            runDecoder(reply, decoderIterations);
+            long allocLegacy = allocated();
+            double legacy = (double) runLegacy(reply, legacyIterations) / legacyIterations;
+            allocLegacy = (allocated() - allocLegacy) / legacyIterations;
+            long allocDecoder = allocated();
+            double decoder = (double) runDecoder(reply, decoderIterations) / decoderIterations;
+            allocDecoder = (allocated() - allocDecoder) / decoderIterations;
+            System.out.println(String.format("%8d %10d %14.1f %14.1f %14d %14d %7.1fx",
+                    lines, reply.length, legacy / 1000.0, decoder / 1000.0,
+                    allocLegacy, allocDecoder, legacy / Math.max(1.0, decoder)));
+        }
+    }
+
+    private static byte[] buildReply(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("Command: .account set gmlevel #account #level - line ")
+                    .append(i).append("\r\n");
+        }
+        sb.append("mangos>");
+        return sb.toString().getBytes(CHARSET);
+    }
+
+    private static long runLegacy(byte[] reply, int iterations) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(reply), CHARSET));
+            sink += legacyRead(in).length();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runDecoder(byte[] reply, int iterations) {
+        RAReplyDecoder decoder = new RAReplyDecoder(CHUNK);
+        decoder.setPrompt(PROMPT);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            int pos = 0;
+            while (pos < reply.length) {
+                int n = Math.min(CHUNK, reply.length - pos);
+                decoder.append(reply, pos, n);
+                pos += n;
+                if (decoder.next()) {
+                    sink += decoder.reply().length();
+                    break;
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The reply loop from SocketConnector.read
+     */
+    private static String legacyRead(BufferedReader in) throws IOException {
+        String strResult = "";
+        char c;
+        String line = "";
+        while (in.ready()) {
+            c = (char) in.read();
+            line += String.valueOf(c);
+            if (c == '\n') {
+                strResult += line;
+                line = "";
+            }
+            if (strResult.contains(PROMPT)) {
+                while (in.ready()) {
+                    in.read();
+                }
+                break;
+            }
+        }
+        return strResult;
+    }
+
+    /**
+     * Bytes allocated by this thread, where the JVM reports it
+     */
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
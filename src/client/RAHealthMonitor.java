@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Watches a Remote Access session and logs it back in when its connection
+ * fails. The session moves from HEALTHY to RECONNECTING when it reports the
+ * connection lost, back to HEALTHY once a login succeeds, or to FAILED if no
+ * login succeeds within the give up period.
+ * <p>
+ * Login attempts are spaced by exponential backoff with jitter, half the
+ * delay is fixed and half random, so many clients do not all reconnect to a
+ * restarting server at the same moment. While reconnecting the session holds
+ * commands that can safely be replayed and sends them once logged in.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RAHealthMonitor {
+
+    public static final int STOPPED = 0;
+    public static final int HEALTHY = 1;
+    public static final int RECONNECTING = 2;
+    public static final int FAILED = 3;
+    public static final int DEFAULT_KEEPALIVE = 60;
+    public static final int DEFAULT_GIVEUP = 300;
+    private static final long BASE_DELAY = 500;
+    private static final long MAX_DELAY = 15000;
+    private static final long PROBE_WAIT = 5000;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final MangosTelnet session;
+    private final CopyOnWriteArrayList<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Random random = new Random();
+    private ScheduledExecutorService executor = null;
+    private volatile int intState = STOPPED;
+    private int intAttempts = 0;
+    private long lngLostAt = 0;
+    private long lngGiveUp = 0;
+    private String strHost;
+    private String strPort;
+    private String strUser;
+    private char[] pass;
+
+    /**
+     * @param session The session to watch
+     */
+    public RAHealthMonitor(MangosTelnet session) {
+        this.session = session;
+    }
+
+    /**
+     * Start watching an already logged in session
+     *
+     * @param host
+     * @param port
+     * @param user
+     * @param pass
+     * @param keepalive Seconds idle before the connection is probed, zero for
+     * no probes
+     * @param giveup Seconds to keep trying to log in again, zero to report the
+     * connection failed straight away
+     */
+    public synchronized void start(String host, String port, String user, char[] pass, int keepalive, int giveup) {
+        stop();
+        this.strHost = host;
+        this.strPort = port;
+        this.strUser = user;
+        this.pass = Arrays.copyOf(pass, pass.length);
+        lngGiveUp = Math.max(0, giveup) * 1000L;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RA Health Monitor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        session.setKeepalive(Math.max(0, keepalive) * 1000L, PROBE_WAIT);
+        session.setReplay(lngGiveUp > 0);
+        session.setLostListener(new Runnable() {
+
+            @Override
+            public void run() {
+                onLost();
+            }
+        });
+        setState(HEALTHY);
+    }
+
+    /**
+     * Stop watching, any reconnect in progress is abandoned
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        session.setLostListener(null);
+        session.setKeepalive(0, PROBE_WAIT);
+        session.setReplay(false);
+        if (pass != null) {
+            Arrays.fill(pass, '\0');
+            pass = null;
+        }
+        if (intState != STOPPED) {
+            setState(STOPPED);
+        }
+    }
+
+    /**
+     * @return the current state
+     */
+    public int getState() {
+        return intState;
+    }
+
+    /**
+     * @return login attempts made since the connection was lost
+     */
+    public synchronized int getAttempts() {
+        return intAttempts;
+    }
+
+    /**
+     * Listeners are told of every state change, on the thread making it
+     *
+     * @param l
+     */
+    public void addChangeListener(ChangeListener l) {
+        listeners.add(l);
+    }
+
+    public void removeChangeListener(ChangeListener l) {
+        listeners.remove(l);
+    }
+
+    private synchronized void onLost() {
+        if (intState != HEALTHY) {
+            return;
+        }
+        logger.info("RA connection lost");
+        intAttempts = 0;
+        lngLostAt = System.currentTimeMillis();
+        if (lngGiveUp == 0) {
+            setState(FAILED);
+            return;
+        }
+        setState(RECONNECTING);
+        schedule();
+    }
+
+    private void schedule() {
+        long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(intAttempts, 16));
+        delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+        logger.log(Level.INFO, "RA reconnect attempt {0} in {1} ms", new Object[]{intAttempts + 1, delay});
+        executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                attempt();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt() {
+        String host;
+        String port;
+        String user;
+        String password;
+        synchronized (this) {
+            if (intState != RECONNECTING || pass == null) {
+                return;
+            }
+            intAttempts++;
+            host = strHost;
+            port = strPort;
+            user = strUser;
+            password = String.copyValueOf(pass);
+        }
+        String result = session.reconnect(host, port, user, password);
+        synchronized (this) {
+            if (intState != RECONNECTING) {
+                // Stopped while logging in, nobody owns the new login
+                if (result.contains("+Logged in")) {
+                    logger.info("RA reconnect no longer wanted, closing it");
+                    session.closeConnection();
+                }
+                return;
+            }
+            if (result.contains("+Logged in")) {
+                logger.log(Level.INFO, "RA reconnected after {0} attempts", intAttempts);
+                setState(HEALTHY);
+            } else if (System.currentTimeMillis() - lngLostAt >= lngGiveUp) {
+                logger.info("RA reconnect abandoned");
+                session.closeConnection();
+                setState(FAILED);
+            } else if (executor != null) {
+                schedule();
+            }
+        }
+    }
+
+    private void setState(int state) {
+        intState = state;
+        ChangeEvent e = new ChangeEvent(this);
+        for (ChangeListener l : listeners) {
+            l.stateChanged(e);
+        }
+    }
+}
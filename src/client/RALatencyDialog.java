@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ResourceBundle;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Shows the Remote Access latency histograms, the timeouts derived from them,
+ * failed commands and the slow command log
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RALatencyDialog extends javax.swing.JDialog {
+
+    private static final long serialVersionUID = 1L;
+    private final RALatencyStats stats;
+    private final DefaultTableModel model;
+    private final DefaultListModel<String> slowModel = new DefaultListModel<>();
+
+    /**
+     * @param parent parent frame
+     * @param stats the statistics to display
+     */
+    public RALatencyDialog(java.awt.Frame parent, RALatencyStats stats) {
+        super(parent, false);
+        this.stats = stats;
+        ResourceBundle bundle = ResourceBundle.getBundle("lang/MessagesBundle");
+        setTitle(bundle.getString("title_ralatency"));
+        model = new DefaultTableModel(new Object[]{
+            bundle.getString("col_racommand"), bundle.getString("col_rasamples"),
+            bundle.getString("col_errors"), bundle.getString("col_timeouts"),
+            "Mean", "p50", "p90", "p99", "Max",
+            bundle.getString("col_ratimeout")}, 0) {
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setBorder(BorderFactory.createTitledBorder(bundle.getString("lab_ralatency")));
+        JScrollPane slowScroll = new JScrollPane(new JList<>(slowModel));
+        slowScroll.setBorder(BorderFactory.createTitledBorder(bundle.getString("lab_slowracmds")));
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, scroll, slowScroll);
+        split.setResizeWeight(0.7);
+
+        JButton jButtonRefresh = new JButton(bundle.getString("butt_refresh"));
+        jButtonRefresh.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        JButton jButtonReset = new JButton(bundle.getString("butt_reset"));
+        jButtonReset.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                RALatencyDialog.this.stats.reset();
+                refresh();
+            }
+        });
+        JButton jButtonClose = new JButton(bundle.getString("butt_close"));
+        jButtonClose.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                dispose();
+            }
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(jButtonRefresh);
+        buttons.add(jButtonReset);
+        buttons.add(jButtonClose);
+
+        getContentPane().setLayout(new BorderLayout());
+        getContentPane().add(split, BorderLayout.CENTER);
+        getContentPane().add(buttons, BorderLayout.SOUTH);
+        setSize(720, 480);
+        refresh();
+    }
+
+    /**
+     * Reload the table from the current statistics, times are in
+     * milliseconds
+     */
+    public void refresh() {
+        model.setRowCount(0);
+        for (String family : stats.getFamilies()) {
+            LatencyHistogram h = stats.getHistogram(family);
+            if (h == null) {
+                // Nothing but failures so far
+                h = new LatencyHistogram();
+            }
+            long timeout = stats.getTimeout(family, -1);
+            model.addRow(new Object[]{family, h.getCount(),
+                stats.getErrors(family), stats.getTimeouts(family), h.getMean(),
+                h.getPercentile(50), h.getPercentile(90), h.getPercentile(99),
+                h.getMax(), timeout < 0 ? "-" : timeout});
+        }
+        slowModel.clear();
+        for (String s : stats.getSlowCommands()) {
+            slowModel.addElement(s);
+        }
+    }
+}
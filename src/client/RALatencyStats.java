@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Round trip latency of Remote Access commands grouped by command family.
+ * Once a family has enough samples its timeout is derived from the observed
+ * 99th percentile, until then the caller supplied default is used. Commands
+ * that fail or time out are counted, and replies slower than a threshold are
+ * written to a slow command log.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RALatencyStats {
+
+    public static final int MIN_SAMPLES = 20;
+    public static final long DEFAULT_SLOW = 2000;
+    private static final double MARGIN = 1.5;
+    private static final long PADDING = 200;
+    private static final long MIN_TIMEOUT = 250;
+    private static final long MAX_TIMEOUT = 120000;
+    private static final Set<String> GROUPS = new HashSet<>(Arrays.asList(
+            "account", "ban", "unban", "server", "send", "character",
+            "reset", "pdump", "tele", "reload"));
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> timeouts = new ConcurrentHashMap<>();
+    private final SlowLog slowLog = new SlowLog("RA command", DEFAULT_SLOW, 100);
+
+    /**
+     * Get the family of a command, this is its first word or first two words
+     * for grouped commands, arguments such as names are never included
+     *
+     * @param command
+     * @return family name
+     */
+    public static String getFamily(String command) {
+        String cmd = command.trim();
+        int first = cmd.indexOf(' ');
+        if (first < 0) {
+            return cmd;
+        }
+        String word = cmd.substring(0, first);
+        if (!GROUPS.contains(word)) {
+            return word;
+        }
+        int second = cmd.indexOf(' ', first + 1);
+        return second < 0 ? cmd : cmd.substring(0, second);
+    }
+
+    /**
+     * Record a round trip
+     *
+     * @param family
+     * @param millis
+     */
+    public void record(String family, long millis) {
+        LatencyHistogram h = histograms.get(family);
+        if (h == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            h = histograms.putIfAbsent(family, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+        h.record(millis);
+        slowLog.check(millis, family, null);
+    }
+
+    /**
+     * Record a command that got no reply
+     *
+     * @param family
+     * @param timeout true if it timed out, false if the connection failed
+     */
+    public void recordFailure(String family, boolean timeout) {
+        ConcurrentHashMap<String, AtomicLong> counts = timeout ? timeouts : errors;
+        AtomicLong count = counts.get(family);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(family, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @param family
+     * @return commands of the family that failed for want of a connection
+     */
+    public long getErrors(String family) {
+        AtomicLong count = errors.get(family);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param family
+     * @return commands of the family that timed out
+     */
+    public long getTimeouts(String family) {
+        AtomicLong count = timeouts.get(family);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return replies received across all families
+     */
+    public long getCount() {
+        long total = 0;
+        for (LatencyHistogram h : histograms.values()) {
+            total += h.getCount();
+        }
+        return total;
+    }
+
+    /**
+     * @return failed commands across all families
+     */
+    public long getErrors() {
+        return sum(errors);
+    }
+
+    /**
+     * @return timed out commands across all families
+     */
+    public long getTimeouts() {
+        return sum(timeouts);
+    }
+
+    private static long sum(ConcurrentHashMap<String, AtomicLong> counts) {
+        long total = 0;
+        for (AtomicLong count : counts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Set the reply time beyond which commands are logged as slow
+     *
+     * @param millis zero to log none
+     */
+    public void setSlowThreshold(long millis) {
+        slowLog.setThreshold(millis);
+    }
+
+    public long getSlowThreshold() {
+        return slowLog.getThreshold();
+    }
+
+    /**
+     * @return number of slow replies seen
+     */
+    public long getSlowCount() {
+        return slowLog.getCount();
+    }
+
+    /**
+     * @return the most recent slow commands, newest first
+     */
+    public List<String> getSlowCommands() {
+        return slowLog.getEntries();
+    }
+
+    /**
+     * Get the timeout for a family, p99 plus margin once learnt
+     *
+     * @param family
+     * @param defaultMillis Used until enough samples have been seen
+     * @return timeout in milliseconds
+     */
+    public long getTimeout(String family, long defaultMillis) {
+        LatencyHistogram h = histograms.get(family);
+        if (h == null || h.getCount() < MIN_SAMPLES) {
+            return defaultMillis;
+        }
+        long timeout = (long) (h.getPercentile(99) * MARGIN) + PADDING;
+        return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+    }
+
+    /**
+     * Get histogram for a family
+     *
+     * @param family
+     * @return histogram or null if none recorded
+     */
+    public LatencyHistogram getHistogram(String family) {
+        return histograms.get(family);
+    }
+
+    /**
+     * Get the families seen so far
+     *
+     * @return sorted list of family names
+     */
+    public List<String> getFamilies() {
+        TreeSet<String> families = new TreeSet<>(histograms.keySet());
+        families.addAll(errors.keySet());
+        families.addAll(timeouts.keySet());
+        return new ArrayList<>(families);
+    }
+
+    /**
+     * Forget everything learnt so far
+     */
+    public void reset() {
+        histograms.clear();
+        errors.clear();
+        timeouts.clear();
+        slowLog.clear();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Load test for MangosTelnet against FakeRAServer, so that changes to the
+ * Remote Access transport can be measured on any machine. Run it directly,
+ * for example
+ * java -cp MaNGOLin.jar client.RALoadTest sessions=4 commands=5000 latency=2
+ * <p>
+ * Options, all given as name=value:
+ * <pre>
+ * sessions  concurrent logged in sessions (4)
+ * commands  total commands across all sessions (2000)
+ * window    commands outstanding per session (8)
+ * latency   server reply delay in ms (2)
+ * jitter    random extra server delay of up to this many ms (3)
+ * lines     lines in an ordinary reply (2)
+ * rate      shared rate limit in commands per second, 0 for none (0)
+ * </pre>
+ * Commands are drawn from a mix weighted towards what the client issues
+ * most, server info polling, account and character lookups, with the
+ * occasional long help reply. Throughput and latency percentiles are reported
+ * for the whole run.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class RALoadTest {
+
+    private static final String USER = "loadtest";
+    private static final String PASS = "loadtest";
+    private static final int WARMUP = 200;
+    private int intSessions = 4;
+    private int intCommands = 2000;
+    private int intWindow = 8;
+    private int intLatency = 2;
+    private int intJitter = 3;
+    private int intLines = 2;
+    private int intRate = 0;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    // OK, TIMEOUT, DISCONNECTED, CANCELLED
+    private final AtomicIntegerArray outcomes = new AtomicIntegerArray(4);
+
+    private RALoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        RALoadTest test = new RALoadTest();
+        for (String arg : args) {
+            test.setOption(arg);
+        }
+        test.run();
+        System.exit(0);
+    }
+
+    private void setOption(String arg) {
+        int eq = arg.indexOf('=');
+        if (eq < 0) {
+            throw new IllegalArgumentException("Expected name=value, got " + arg);
+        }
+        String name = arg.substring(0, eq);
+        int value = Integer.parseInt(arg.substring(eq + 1));
+        switch (name) {
+            case "sessions":
+                intSessions = Math.max(1, value);
+                break;
+            case "commands":
+                intCommands = Math.max(1, value);
+                break;
+            case "window":
+                intWindow = Math.max(1, value);
+                break;
+            case "latency":
+                intLatency = value;
+                break;
+            case "jitter":
+                intJitter = value;
+                break;
+            case "lines":
+                intLines = value;
+                break;
+            case "rate":
+                intRate = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        FakeRAServer server = new FakeRAServer(0);
+        server.setLatency(intLatency, intJitter);
+        server.setReplyLines(intLines);
+        server.setPassword(PASS);
+        RALatencyStats stats = new RALatencyStats();
+        RARateLimiter limiter = null;
+        if (intRate > 0) {
+            limiter = new RARateLimiter();
+            limiter.setRate(intRate, Math.max(1, intRate / 2));
+        }
+        List<MangosTelnet> sessions = new ArrayList<>();
+        for (int i = 0; i < intSessions; i++) {
+            MangosTelnet session = new MangosTelnet(stats, limiter);
+            String login = session.Login("127.0.0.1", String.valueOf(server.getPort()), USER, PASS);
+            if (!login.contains("+Logged in")) {
+                System.out.println("Login failed: " + login.trim());
+                return;
+            }
+            sessions.add(session);
+        }
+        System.out.println(String.format("sessions=%d commands=%d window=%d latency=%dms jitter=%dms lines=%d rate=%s",
+                intSessions, intCommands, intWindow, intLatency, intJitter, intLines,
+                intRate > 0 ? String.valueOf(intRate) + "/s" : "none"));
+
+        // Warm up the JIT and the learnt timeouts, then measure
+        drive(sessions, Math.min(WARMUP, intCommands), false);
+        long start = System.nanoTime();
+        drive(sessions, intCommands, true);
+        long elapsed = System.nanoTime() - start;
+
+        for (MangosTelnet session : sessions) {
+            session.closeConnection();
+        }
+        server.close();
+        report(elapsed);
+    }
+
+    /**
+     * Issue count commands spread across the sessions and wait for them all
+     */
+    private void drive(List<MangosTelnet> sessions, int count, final boolean measure) throws InterruptedException {
+        final Semaphore[] windows = new Semaphore[sessions.size()];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new Semaphore(intWindow);
+        }
+        Random random = new Random(42);
+        List<CompletableFuture<RAResult>> pending = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int s = i % sessions.size();
+            windows[s].acquire();
+            final long issued = System.nanoTime();
+            CompletableFuture<RAResult> f = issue(sessions.get(s), random);
+            pending.add(f.whenComplete(new BiConsumer<RAResult, Throwable>() {
+
+                @Override
+                public void accept(RAResult result, Throwable ex) {
+                    windows[s].release();
+                    if (measure) {
+                        histogram.record((System.nanoTime() - issued) / 1000);
+                        outcomes.incrementAndGet(result == null ? RAResult.DISCONNECTED : result.getStatus());
+                    }
+                }
+            }));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()])).join();
+    }
+
+    /**
+     * Pick the next command from the mix
+     */
+    private static CompletableFuture<RAResult> issue(MangosTelnet session, Random random) {
+        int pick = random.nextInt(100);
+        if (pick < 35) {
+            return session.getInfoAsync();
+        } else if (pick < 55) {
+            return session.getPlayerLimitAsync();
+        } else if (pick < 70) {
+            return session.setGMAsync("player" + random.nextInt(1000), "0");
+        } else if (pick < 80) {
+            return session.getTicketAsync("player" + random.nextInt(1000));
+        } else if (pick < 88) {
+            return session.getMotdAsync();
+        } else if (pick < 96) {
+            return session.sendMessageAsync("player" + random.nextInt(1000), "Load test message");
+        } else if (pick < 99) {
+            return session.getVersionAsync();
+        }
+        return session.helpAsync("");
+    }
+
+    private void report(long elapsedNanos) {
+        long done = histogram.getCount();
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format("%d commands in %.2f s, %.0f commands/s",
+                done, seconds, done / Math.max(seconds, 1e-9)));
+        System.out.println(String.format("ok=%d timeout=%d failed=%d cancelled=%d",
+                outcomes.get(RAResult.OK), outcomes.get(RAResult.TIMEOUT),
+                outcomes.get(RAResult.DISCONNECTED), outcomes.get(RAResult.CANCELLED)));
+        System.out.println(String.format("%10s %10s %10s %10s %10s %10s",
+                "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        System.out.println(String.format("%10.2f %10.2f %10.2f %10.2f %10.2f %10.2f",
+                histogram.getMean() / 1000.0, histogram.getPercentile(50) / 1000.0,
+                histogram.getPercentile(90) / 1000.0, histogram.getPercentile(99) / 1000.0,
+                histogram.getPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0));
+    }
+}
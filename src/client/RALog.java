@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Fixed capacity Remote Access command log, one entry per line of text held
+ * in a ring so appending is constant time and memory stays flat. Entries
+ * pushed out of the ring are spilled to a journal, if one is given.
+ * <p>
+ * The log is also the list model for its view. Appends may come from any
+ * thread, the view is told about them in batches on the event dispatch
+ * thread and entries are only formatted when the view paints them.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RALog extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+    public static final int COMMAND = 0;
+    public static final int RESULT = 1;
+    public static final int CONTINUATION = 2;
+    private static final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss - ");
+    // Commands carrying passwords, everything after the group is masked
+    private static final Pattern CREDENTIALS = Pattern.compile(
+            "(\\s*account\\s+(?:create|set\\s+password)\\s+\\S+|\\s*account\\s+password)\\s.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final long[] times;
+    private final byte[] kinds;
+    private final String[] texts;
+    private final RALogJournal journal;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private long lngTotal = 0;
+    private int intSize = 0;
+    // Absolute positions of the entries the view knows about, EDT only
+    private long lngViewFirst = 0;
+    private long lngViewEnd = 0;
+
+    /**
+     * @param capacity Number of entries held in memory
+     * @param journal Where older entries go, may be null to discard them
+     */
+    public RALog(int capacity, RALogJournal journal) {
+        times = new long[capacity];
+        kinds = new byte[capacity];
+        texts = new String[capacity];
+        this.journal = journal;
+    }
+
+    /**
+     * Format an entry for display
+     *
+     * @param time
+     * @param kind
+     * @param text
+     * @return formatted entry
+     */
+    public static String format(long time, int kind, String text) {
+        String stamp;
+        synchronized (sdf) {
+            stamp = sdf.format(new Date(time));
+        }
+        switch (kind) {
+            case COMMAND:
+                return stamp + "RA Command Issued - " + text;
+            case RESULT:
+                return stamp + "RA Command Result - " + text;
+            default:
+                return stamp + "    " + text;
+        }
+    }
+
+    /**
+     * Add a command
+     *
+     * @param text
+     */
+    public void addCommand(String text) {
+        text = mask(text);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            add(now, COMMAND, text);
+        }
+        schedule();
+    }
+
+    /**
+     * Mask the passwords of account commands, so they never reach the log,
+     * its journal or a search
+     *
+     * @param text The command
+     * @return the command with any password replaced by *****
+     */
+    public static String mask(String text) {
+        Matcher m = CREDENTIALS.matcher(text);
+        return m.matches() ? m.group(1) + " *****" : text;
+    }
+
+    /**
+     * Add a result, each line becomes an entry
+     *
+     * @param text
+     */
+    public void addResult(String text) {
+        long now = System.currentTimeMillis();
+        int kind = RESULT;
+        synchronized (this) {
+            int start = 0;
+            int len = text.length();
+            while (start < len) {
+                int end = text.indexOf('\n', start);
+                if (end < 0) {
+                    end = len;
+                }
+                int last = end;
+                while (last > start && text.charAt(last - 1) == '\r') {
+                    last--;
+                }
+                if (last > start) {
+                    add(now, kind, text.substring(start, last));
+                    kind = CONTINUATION;
+                }
+                start = end + 1;
+            }
+        }
+        schedule();
+    }
+
+    private void add(long time, int kind, String text) {
+        int capacity = texts.length;
+        int i = (int) (lngTotal % capacity);
+        if (intSize == capacity) {
+            if (journal != null) {
+                journal.write(times[i], kinds[i], texts[i]);
+            }
+        } else {
+            intSize++;
+        }
+        times[i] = time;
+        kinds[i] = (byte) kind;
+        texts[i] = text;
+        lngTotal++;
+    }
+
+    /**
+     * Tell the view about new entries once per batch
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    scheduled.set(false);
+                    publish();
+                }
+            });
+        }
+    }
+
+    private void publish() {
+        long first;
+        long end;
+        synchronized (this) {
+            end = lngTotal;
+            first = lngTotal - intSize;
+        }
+        long removeTo = Math.min(first, lngViewEnd);
+        if (removeTo > lngViewFirst) {
+            int removed = (int) (removeTo - lngViewFirst);
+            lngViewFirst = removeTo;
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        if (lngViewEnd < first) {
+            // Everything the view knew about has gone
+            lngViewFirst = first;
+            lngViewEnd = first;
+        }
+        if (end > lngViewEnd) {
+            int size = (int) (lngViewEnd - lngViewFirst);
+            int added = (int) (end - lngViewEnd);
+            lngViewEnd = end;
+            fireIntervalAdded(this, size, size + added - 1);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return (int) (lngViewEnd - lngViewFirst);
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        long pos = lngViewFirst + index;
+        synchronized (this) {
+            if (pos < lngTotal - intSize || pos >= lngTotal) {
+                // Overwritten since the view was last told, it will catch up
+                return "";
+            }
+            int i = (int) (pos % texts.length);
+            return format(times[i], kinds[i], texts[i]);
+        }
+    }
+
+    /**
+     * Find entries between from and to inclusive, searching the journal and
+     * then memory
+     *
+     * @param from Start time in milliseconds
+     * @param to End time in milliseconds
+     * @param filter Only entries containing this, ignoring case, may be null
+     * @return formatted entries oldest first
+     */
+    public List<String> search(long from, long to, String filter) {
+        List<String> result = new ArrayList<>();
+        if (journal != null) {
+            journal.search(from, to, filter, result);
+        }
+        String match = filter == null ? null : filter.toLowerCase();
+        synchronized (this) {
+            for (long pos = lngTotal - intSize; pos < lngTotal; pos++) {
+                int i = (int) (pos % texts.length);
+                if (times[i] >= from && times[i] <= to
+                        && (match == null || texts[i].toLowerCase().contains(match))) {
+                    result.add(format(times[i], kinds[i], texts[i]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Spill everything held in memory to the journal and close it
+     */
+    public void close() {
+        if (journal == null) {
+            return;
+        }
+        synchronized (this) {
+            for (long pos = lngTotal - intSize; pos < lngTotal; pos++) {
+                int i = (int) (pos % texts.length);
+                journal.write(times[i], kinds[i], texts[i]);
+            }
+        }
+        journal.close();
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Rotating on disk journal for Remote Access log entries that no longer fit
+ * in memory. Each entry is one line of time, kind and text separated by tabs.
+ * The current file is ralog.0.log, when it reaches its size limit it becomes
+ * ralog.1.log and so on, the oldest file beyond the limit is deleted.
+ * <p>
+ * Writes are queued and performed on a background thread so callers never
+ * wait on the disk.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RALogJournal {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final String PREFIX = "ralog.";
+    private static final String SUFFIX = ".log";
+    private final File dir;
+    private final long lngMaxBytes;
+    private final int intMaxFiles;
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final ExecutorService executor;
+    private Writer writer = null;
+    private long lngBytes = 0;
+
+    /**
+     * Callback for each journal entry found by a search
+     */
+    public interface Visitor {
+
+        /**
+         * @param time Entry time in milliseconds
+         * @param kind Entry kind
+         * @param text Entry text
+         */
+        void visit(long time, int kind, String text);
+    }
+
+    /**
+     * @param dir Folder holding the journal files, created if needed
+     * @param maxBytes Size at which the current file is rotated
+     * @param maxFiles Number of files kept
+     */
+    public RALogJournal(File dir, long maxBytes, int maxFiles) {
+        this.dir = dir;
+        this.lngMaxBytes = maxBytes;
+        this.intMaxFiles = Math.max(1, maxFiles);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RA Log Journal");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queue an entry for writing
+     *
+     * @param time
+     * @param kind
+     * @param text
+     */
+    public void write(long time, int kind, String text) {
+        queue.add(time + "\t" + kind + "\t" + text.replace('\n', ' ').replace('\r', ' '));
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    scheduled.set(false);
+                    drain();
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait until everything queued so far is on disk
+     */
+    public void flush() {
+        try {
+            executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    drain();
+                }
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            logger.throwing(this.getClass().getName(), "flush()", ex);
+        }
+    }
+
+    /**
+     * Write anything outstanding and close the current file
+     */
+    public void close() {
+        flush();
+        try {
+            executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    closeWriter();
+                }
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            logger.throwing(this.getClass().getName(), "close()", ex);
+        }
+    }
+
+    /**
+     * Visit every entry between from and to inclusive, oldest first. Files
+     * last written before from are not read.
+     *
+     * @param from Start time in milliseconds
+     * @param to End time in milliseconds
+     * @param visitor
+     */
+    public void search(long from, long to, Visitor visitor) {
+        flush();
+        for (int i = intMaxFiles - 1; i >= 0; i--) {
+            File f = getFile(i);
+            if (!f.exists() || f.lastModified() < from) {
+                continue;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), CHARSET))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int tab1 = line.indexOf('\t');
+                    int tab2 = line.indexOf('\t', tab1 + 1);
+                    if (tab1 < 0 || tab2 < 0) {
+                        continue;
+                    }
+                    long time;
+                    try {
+                        time = Long.parseLong(line.substring(0, tab1));
+                    } catch (NumberFormatException ex) {
+                        continue;
+                    }
+                    if (time > to) {
+                        return;
+                    }
+                    if (time >= from) {
+                        visitor.visit(time, line.charAt(tab1 + 1) - '0', line.substring(tab2 + 1));
+                    }
+                }
+            } catch (IOException ex) {
+                logger.throwing(this.getClass().getName(), "search()", ex);
+            }
+        }
+    }
+
+    /**
+     * Collect matching lines, convenience for callers that want a list
+     *
+     * @param from
+     * @param to
+     * @param result
+     * @param filter Only entries containing this, ignoring case, may be null
+     */
+    public void search(long from, long to, final String filter, final List<String> result) {
+        final String match = filter == null ? null : filter.toLowerCase();
+        search(from, to, new Visitor() {
+
+            @Override
+            public void visit(long time, int kind, String text) {
+                if (match == null || text.toLowerCase().contains(match)) {
+                    result.add(RALog.format(time, kind, text));
+                }
+            }
+        });
+    }
+
+    private File getFile(int index) {
+        return new File(dir, PREFIX + index + SUFFIX);
+    }
+
+    /**
+     * Runs on the journal thread only
+     */
+    private void drain() {
+        String line;
+        try {
+            while ((line = queue.poll()) != null) {
+                if (writer == null) {
+                    openWriter();
+                }
+                writer.write(line);
+                writer.write('\n');
+                lngBytes += line.length() + 1;
+                if (lngBytes >= lngMaxBytes) {
+                    rotate();
+                }
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException ex) {
+            logger.throwing(this.getClass().getName(), "drain()", ex);
+            closeWriter();
+        }
+    }
+
+    private void openWriter() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File f = getFile(0);
+        lngBytes = f.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f, true), CHARSET));
+    }
+
+    private void rotate() {
+        closeWriter();
+        File oldest = getFile(intMaxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            logger.info("RA log journal cannot delete " + oldest);
+        }
+        for (int i = intMaxFiles - 2; i >= 0; i--) {
+            File f = getFile(i);
+            if (f.exists() && !f.renameTo(getFile(i + 1))) {
+                logger.info("RA log journal cannot rotate " + f);
+            }
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                logger.throwing(this.getClass().getName(), "closeWriter()", ex);
+            }
+            writer = null;
+            lngBytes = 0;
+        }
+    }
+}
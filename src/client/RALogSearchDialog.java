@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.awt.BorderLayout;
+import java.awt.Cursor;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.SwingWorker;
+
+/**
+ * Searches the Remote Access command log, including entries that have been
+ * moved to the journal, by time range and text
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RALogSearchDialog extends javax.swing.JDialog {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final long HOUR = 3600000;
+    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private final RALog log;
+    private final JTextField jTextFrom = new JTextField(14);
+    private final JTextField jTextTo = new JTextField(14);
+    private final JTextField jTextFilter = new JTextField(14);
+    private final JLabel jLabelStatus = new JLabel(" ");
+    private final DefaultListModel<String> model = new DefaultListModel<>();
+    private final JButton jButtonSearch;
+    private final ResourceBundle bundle = ResourceBundle.getBundle("lang/MessagesBundle");
+
+    /**
+     * @param parent parent frame
+     * @param log the log to search
+     */
+    public RALogSearchDialog(java.awt.Frame parent, RALog log) {
+        super(parent, false);
+        this.log = log;
+        setTitle(bundle.getString("title_searchlog"));
+        long now = System.currentTimeMillis();
+        jTextFrom.setText(sdf.format(new Date(now - HOUR)));
+        jTextTo.setText(sdf.format(new Date(now)));
+
+        jButtonSearch = new JButton(bundle.getString("butt_search"));
+        jButtonSearch.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        });
+        JPanel criteria = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        criteria.add(new JLabel(bundle.getString("lab_logfrom")));
+        criteria.add(jTextFrom);
+        criteria.add(new JLabel(bundle.getString("lab_logto")));
+        criteria.add(jTextTo);
+        criteria.add(new JLabel(bundle.getString("lab_filter")));
+        criteria.add(jTextFilter);
+        criteria.add(jButtonSearch);
+
+        JList<String> results = new JList<>(model);
+        results.setPrototypeCellValue(RALog.format(0, RALog.COMMAND, "account"));
+        JScrollPane scroll = new JScrollPane(results);
+        scroll.setBorder(BorderFactory.createEtchedBorder());
+
+        JButton jButtonClose = new JButton(bundle.getString("butt_close"));
+        jButtonClose.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                dispose();
+            }
+        });
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(jLabelStatus, BorderLayout.CENTER);
+        south.add(jButtonClose, BorderLayout.EAST);
+        south.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+
+        getContentPane().setLayout(new BorderLayout());
+        getContentPane().add(criteria, BorderLayout.NORTH);
+        getContentPane().add(scroll, BorderLayout.CENTER);
+        getContentPane().add(south, BorderLayout.SOUTH);
+        getRootPane().setDefaultButton(jButtonSearch);
+        setSize(760, 420);
+    }
+
+    private void search() {
+        final long from;
+        final long to;
+        try {
+            from = sdf.parse(jTextFrom.getText().trim()).getTime();
+            to = sdf.parse(jTextTo.getText().trim()).getTime();
+        } catch (ParseException ex) {
+            jLabelStatus.setText(bundle.getString("info_logdate_err"));
+            return;
+        }
+        final String filter = jTextFilter.getText().trim().isEmpty() ? null : jTextFilter.getText().trim();
+        jButtonSearch.setEnabled(false);
+        setCursor(new Cursor(Cursor.WAIT_CURSOR));
+        SwingWorker<List<String>, Void> task = new SwingWorker<List<String>, Void>() {
+
+            @Override
+            public List<String> doInBackground() {
+                return log.search(from, to, filter);
+            }
+
+            @Override
+            protected void done() {
+                model.clear();
+                try {
+                    List<String> found = get();
+                    for (String s : found) {
+                        model.addElement(s);
+                    }
+                    jLabelStatus.setText(found.size() + " " + bundle.getString("info_records"));
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.throwing(this.getClass().getName(), "search()", ex);
+                }
+                jButtonSearch.setEnabled(true);
+                setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+            }
+        };
+        task.execute();
+    }
+}
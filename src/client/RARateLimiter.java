@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+/**
+ * Token bucket limiting the rate at which Remote Access commands are written
+ * to one server, shared by every session of a profile. Up to burst commands
+ * go out at once, after that tokens are refilled at the current rate.
+ * <p>
+ * The current rate adapts to the server, a reply that is much slower than
+ * its command family's median or a timeout cuts the rate, each healthy reply
+ * wins a little of it back up to the configured rate.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RARateLimiter {
+
+    public static final double DEFAULT_RATE = 20;
+    public static final int DEFAULT_BURST = 10;
+    private static final double MIN_FRACTION = 0.1;
+    private static final double DECREASE = 0.7;
+    private static final double INCREASE = 0.05;
+    private static final double SLOW_FACTOR = 2.0;
+    private static final long NANOS = 1000000000L;
+    private double dblRate;
+    private double dblBurst;
+    private double dblCurrent;
+    private double dblTokens;
+    private long lngLast = System.nanoTime();
+
+    /**
+     * Create a limiter with the default rate and burst
+     */
+    public RARateLimiter() {
+        setRate(DEFAULT_RATE, DEFAULT_BURST);
+    }
+
+    /**
+     * Set the configured rate, the bucket starts full
+     *
+     * @param perSecond Commands per second, zero or less means unlimited
+     * @param burst Commands that may be written back to back
+     */
+    public synchronized void setRate(double perSecond, int burst) {
+        dblRate = perSecond;
+        dblBurst = Math.max(1, burst);
+        dblCurrent = perSecond;
+        dblTokens = dblBurst;
+        lngLast = System.nanoTime();
+    }
+
+    /**
+     * @return configured commands per second
+     */
+    public synchronized double getRate() {
+        return dblRate;
+    }
+
+    /**
+     * @return commands per second after back-pressure
+     */
+    public synchronized double getCurrentRate() {
+        return dblCurrent;
+    }
+
+    /**
+     * @return burst size
+     */
+    public synchronized int getBurst() {
+        return (int) dblBurst;
+    }
+
+    /**
+     * Take a token if one is available, never blocks
+     *
+     * @return zero if a token was taken, otherwise milliseconds until one
+     * will be
+     */
+    public synchronized long tryAcquire() {
+        if (dblRate <= 0) {
+            return 0;
+        }
+        refill();
+        if (dblTokens >= 1) {
+            dblTokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - dblTokens) * 1000 / dblCurrent));
+    }
+
+    /**
+     * Feed back the round trip of a reply
+     *
+     * @param millis The round trip
+     * @param median The command family's median round trip, zero or less if
+     * not yet known
+     */
+    public synchronized void onReply(long millis, long median) {
+        if (dblRate <= 0) {
+            return;
+        }
+        refill();
+        if (median > 0 && millis > median * SLOW_FACTOR) {
+            slowDown();
+        } else {
+            dblCurrent = Math.min(dblRate, dblCurrent + dblRate * INCREASE);
+        }
+    }
+
+    /**
+     * Feed back a command that timed out
+     */
+    public synchronized void onTimeout() {
+        if (dblRate <= 0) {
+            return;
+        }
+        refill();
+        slowDown();
+    }
+
+    private void slowDown() {
+        dblCurrent = Math.max(dblRate * MIN_FRACTION, dblCurrent * DECREASE);
+        // Drop any saved up burst so the lower rate takes effect at once
+        dblTokens = Math.min(dblTokens, 1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        dblTokens = Math.min(dblBurst, dblTokens + (now - lngLast) * dblCurrent / NANOS);
+        lngLast = now;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Buffer based decoder for Remote Access replies. Bytes are read in bulk into
+ * a single reusable array and scanned once, incrementally, for the prompt. A
+ * reply is handed out as a slice of that array, the only allocation per reply
+ * is the final String.
+ * <p>
+ * A reply ends where the prompt ends the first word of a line, the reply
+ * itself is every complete line before the prompt line. Scanning works on
+ * the raw UTF-8 bytes, which is safe because newline, whitespace and the
+ * ASCII prompt never occur inside a multi-byte sequence.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RAReplyDecoder {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int MAX_CAPACITY = 16 * 1024 * 1024;
+    private byte[] buffer;
+    private ByteBuffer view;
+    private byte[] prompt = new byte[0];
+    private int intStart = 0;
+    private int intEnd = 0;
+    private int intScan = 0;
+    private int intLineStart = 0;
+    private int intLastNewline = -1;
+    private boolean boolWordStarted = false;
+    private boolean boolWordEnded = false;
+    private int intFrameStart = 0;
+    private int intFrameLength = 0;
+
+    /**
+     * @param capacity Initial buffer size, it grows if a reply needs more
+     */
+    public RAReplyDecoder(int capacity) {
+        buffer = new byte[capacity];
+        view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Set the prompt, a null or empty prompt never completes a reply
+     *
+     * @param text
+     */
+    public void setPrompt(String text) {
+        prompt = text == null ? new byte[0] : text.getBytes(CHARSET);
+    }
+
+    /**
+     * Read whatever the channel has available
+     *
+     * @param channel A non-blocking channel
+     * @return number of bytes read
+     * @throws IOException
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        int total = 0;
+        int n;
+        do {
+            makeRoom(1);
+            view.limit(buffer.length).position(intEnd);
+            n = channel.read(view);
+            if (n > 0) {
+                intEnd += n;
+                total += n;
+            }
+        } while (n > 0 && intEnd == buffer.length);
+        if (n < 0) {
+            throw new EOFException("Connection closed");
+        }
+        return total;
+    }
+
+    /**
+     * Append bytes directly, used when the data does not come from a channel
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public void append(byte[] data, int offset, int length) {
+        makeRoom(length);
+        System.arraycopy(data, offset, buffer, intEnd, length);
+        intEnd += length;
+    }
+
+    /**
+     * Scan newly arrived bytes for the end of a reply, when one is found it
+     * becomes the current slice and is consumed from the buffer
+     *
+     * @return true if a reply is available
+     */
+    public boolean next() {
+        int plen = prompt.length;
+        if (plen == 0) {
+            return false;
+        }
+        byte last = prompt[plen - 1];
+        byte[] buf = buffer;
+        for (int i = intScan; i < intEnd; i++) {
+            byte b = buf[i];
+            if (b == '\n') {
+                intLastNewline = i;
+                intLineStart = i + 1;
+                boolWordStarted = false;
+                boolWordEnded = false;
+                continue;
+            }
+            if (b == ' ' || b == '\r' || b == '\t' || b == 0x0B || b == 0x0C) {
+                boolWordEnded |= boolWordStarted;
+                continue;
+            }
+            boolWordStarted = true;
+            if (b == last && !boolWordEnded && isPromptAt(i + 1 - plen)) {
+                intFrameStart = intStart;
+                intFrameLength = intLastNewline + 1 - intStart;
+                // Consume the prompt and any spaces that follow it
+                int consumed = i + 1;
+                while (consumed < intEnd && buf[consumed] == ' ') {
+                    consumed++;
+                }
+                intStart = consumed;
+                if (intStart == intEnd) {
+                    // Nothing left over, start again at the front
+                    intStart = 0;
+                    intEnd = 0;
+                }
+                resetScan();
+                return true;
+            }
+        }
+        intScan = intEnd;
+        return false;
+    }
+
+    private boolean isPromptAt(int pos) {
+        if (pos < intLineStart) {
+            return false;
+        }
+        for (int i = 0; i < prompt.length; i++) {
+            if (buffer[pos + i] != prompt[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the array backing the current reply slice, only valid until the
+     * next call to fill or append
+     *
+     * @return backing array
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * @return offset of the current reply slice
+     */
+    public int offset() {
+        return intFrameStart;
+    }
+
+    /**
+     * @return length of the current reply slice
+     */
+    public int length() {
+        return intFrameLength;
+    }
+
+    /**
+     * Decode the current reply slice
+     *
+     * @return reply as a string
+     */
+    public String reply() {
+        return new String(buffer, intFrameStart, intFrameLength, CHARSET);
+    }
+
+    /**
+     * Decode the complete lines received so far without consuming them
+     *
+     * @return complete lines as a string
+     */
+    public String pendingLines() {
+        int last = intEnd - 1;
+        while (last >= intStart && buffer[last] != '\n') {
+            last--;
+        }
+        return new String(buffer, intStart, last + 1 - intStart, CHARSET);
+    }
+
+    /**
+     * Decode everything received so far without consuming it
+     *
+     * @return pending data as a string
+     */
+    public String pending() {
+        return new String(buffer, intStart, intEnd - intStart, CHARSET);
+    }
+
+    /**
+     * @return number of unconsumed bytes
+     */
+    public int available() {
+        return intEnd - intStart;
+    }
+
+    /**
+     * Discard everything
+     */
+    public void clear() {
+        intStart = 0;
+        intEnd = 0;
+        intFrameStart = 0;
+        intFrameLength = 0;
+        resetScan();
+    }
+
+    private void resetScan() {
+        intScan = intStart;
+        intLineStart = intStart;
+        intLastNewline = intStart - 1;
+        boolWordStarted = false;
+        boolWordEnded = false;
+    }
+
+    /**
+     * Make room at the end of the buffer, compacting first and only growing
+     * when the unconsumed data leaves too little space
+     *
+     * @param needed Number of free bytes required
+     */
+    private void makeRoom(int needed) {
+        if (buffer.length - intEnd >= needed) {
+            return;
+        }
+        int used = intEnd - intStart;
+        if (intStart > 0) {
+            System.arraycopy(buffer, intStart, buffer, 0, used);
+            int shift = intStart;
+            intStart = 0;
+            intEnd = used;
+            intScan -= shift;
+            intLineStart -= shift;
+            intLastNewline -= shift;
+            intFrameStart = 0;
+            intFrameLength = 0;
+        }
+        if (buffer.length - intEnd >= needed) {
+            return;
+        }
+        int size = buffer.length;
+        while (size - intEnd < needed) {
+            if (size >= MAX_CAPACITY) {
+                throw new IllegalStateException("RA reply exceeds " + MAX_CAPACITY + " bytes");
+            }
+            size = Math.min(MAX_CAPACITY, size * 2);
+        }
+        byte[] grown = new byte[size];
+        System.arraycopy(buffer, 0, grown, 0, intEnd);
+        buffer = grown;
+        view = ByteBuffer.wrap(buffer);
+    }
+}
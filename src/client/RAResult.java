@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+/**
+ * Outcome of a Remote Access command, the reply text together with how the
+ * command ended and how long it took
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RAResult {
+
+    public static final int OK = 0;
+    public static final int TIMEOUT = 1;
+    public static final int DISCONNECTED = 2;
+    public static final int CANCELLED = 3;
+    private final String strCommand;
+    private final String strText;
+    private final int intStatus;
+    private final long lngMillis;
+
+    /**
+     * @param command Command family
+     * @param text Reply text, never null
+     * @param status One of OK, TIMEOUT, DISCONNECTED or CANCELLED
+     * @param millis Time taken in milliseconds
+     */
+    public RAResult(String command, String text, int status, long millis) {
+        strCommand = command;
+        strText = text == null ? "" : text;
+        intStatus = status;
+        lngMillis = millis;
+    }
+
+    /**
+     * Copy of this result with different reply text
+     *
+     * @param text
+     * @return new result
+     */
+    public RAResult withText(String text) {
+        return new RAResult(strCommand, text, intStatus, lngMillis);
+    }
+
+    /**
+     * @return the command family
+     */
+    public String getCommand() {
+        return strCommand;
+    }
+
+    /**
+     * @return the reply text, empty if there was none
+     */
+    public String getText() {
+        return strText;
+    }
+
+    /**
+     * @return the status
+     */
+    public int getStatus() {
+        return intStatus;
+    }
+
+    /**
+     * @return true if a reply was received
+     */
+    public boolean isOK() {
+        return intStatus == OK;
+    }
+
+    /**
+     * @return time taken in milliseconds
+     */
+    public long getMillis() {
+        return lngMillis;
+    }
+
+    /**
+     * Test the reply text
+     *
+     * @param text
+     * @return true if the reply contains text
+     */
+    public boolean contains(String text) {
+        return strText.contains(text);
+    }
+
+    @Override
+    public String toString() {
+        return strText;
+    }
+}
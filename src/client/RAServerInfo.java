@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+/**
+ * Values parsed from the reply to server info, for example
+ * <pre>
+ * Online players: 12 (max: 40) Queued players: 0 (max: 0)
+ * Server uptime: 1 Day(s) 2 Hour(s) 3 Minute(s) 4 Second(s).
+ * </pre>
+ * Older servers say Players online instead of Online players, both are
+ * accepted. Parsing scans the text in place so a sampler can reuse one
+ * instance without allocating per reply.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RAServerInfo {
+
+    private int intPlayers;
+    private int intPlayersMax;
+    private int intQueued;
+    private int intQueuedMax;
+    private long lngUptime;
+
+    /**
+     * Parse a server info reply, fields that are not present are set to -1
+     *
+     * @param text The reply
+     * @return true if at least the player count was found
+     */
+    public boolean parse(String text) {
+        intPlayers = -1;
+        intPlayersMax = -1;
+        intQueued = -1;
+        intQueuedMax = -1;
+        lngUptime = -1;
+        int pos = indexOfIgnoreCase(text, "online", 0);
+        if (pos >= 0) {
+            pos = skipToDigit(text, pos);
+            intPlayers = (int) parseNumber(text, pos);
+            pos = indexOfIgnoreCase(text, "max", pos);
+            int queued = indexOfIgnoreCase(text, "queued", pos < 0 ? 0 : pos);
+            if (pos >= 0 && (queued < 0 || pos < queued)) {
+                intPlayersMax = (int) parseNumber(text, skipToDigit(text, pos));
+            }
+            if (queued >= 0) {
+                pos = skipToDigit(text, queued);
+                intQueued = (int) parseNumber(text, pos);
+                pos = indexOfIgnoreCase(text, "max", pos);
+                if (pos >= 0) {
+                    intQueuedMax = (int) parseNumber(text, skipToDigit(text, pos));
+                }
+            }
+        }
+        pos = indexOfIgnoreCase(text, "uptime", 0);
+        if (pos >= 0) {
+            lngUptime = parseUptime(text, pos + 6);
+        }
+        return intPlayers >= 0;
+    }
+
+    /**
+     * @return players online or -1 if unknown
+     */
+    public int getPlayers() {
+        return intPlayers;
+    }
+
+    /**
+     * @return the most players online since startup or -1 if unknown
+     */
+    public int getPlayersMax() {
+        return intPlayersMax;
+    }
+
+    /**
+     * @return players waiting in the login queue or -1 if unknown
+     */
+    public int getQueued() {
+        return intQueued;
+    }
+
+    /**
+     * @return the longest login queue since startup or -1 if unknown
+     */
+    public int getQueuedMax() {
+        return intQueuedMax;
+    }
+
+    /**
+     * @return server uptime in seconds or -1 if unknown
+     */
+    public long getUptime() {
+        return lngUptime;
+    }
+
+    /**
+     * Sum the number and unit pairs that follow uptime up to the end of the
+     * line, units are recognised by their first letter
+     */
+    private static long parseUptime(String text, int pos) {
+        long total = 0;
+        boolean found = false;
+        int len = text.length();
+        while (pos < len && text.charAt(pos) != '\n') {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9') {
+                pos++;
+                continue;
+            }
+            long value = parseNumber(text, pos);
+            while (pos < len && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            while (pos < len && text.charAt(pos) == ' ') {
+                pos++;
+            }
+            if (pos >= len) {
+                break;
+            }
+            switch (Character.toLowerCase(text.charAt(pos))) {
+                case 'd':
+                    total += value * 86400;
+                    break;
+                case 'h':
+                    total += value * 3600;
+                    break;
+                case 'm':
+                    total += value * 60;
+                    break;
+                case 's':
+                    total += value;
+                    break;
+                default:
+                    continue;
+            }
+            found = true;
+        }
+        return found ? total : -1;
+    }
+
+    private static int skipToDigit(String text, int pos) {
+        int len = text.length();
+        while (pos < len && (text.charAt(pos) < '0' || text.charAt(pos) > '9')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static long parseNumber(String text, int pos) {
+        long value = 0;
+        boolean found = false;
+        int len = text.length();
+        while (pos < len) {
+            char c = text.charAt(pos++);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            found = true;
+        }
+        return found ? value : -1;
+    }
+
+    private static int indexOfIgnoreCase(String text, String word, int from) {
+        int last = text.length() - word.length();
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (text.regionMatches(true, i, word, 0, word.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
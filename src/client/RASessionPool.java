@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of logged in Remote Access sessions. Sessions are created on
+ * demand with MangosTelnet.Login, unhealthy sessions are discarded when they
+ * are returned and replaced on a later checkout.
+ * <p>
+ * Bulk operations use fanOut which spreads the items across as many sessions
+ * as the pool allows, each session pipelines its share of the commands.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RASessionPool {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final String ERROR_RESULT = "Error: Null result.";
+    private final LinkedBlockingDeque<MangosTelnet> idle = new LinkedBlockingDeque<>();
+    private final ConcurrentHashMap<MangosTelnet, Boolean> leased = new ConcurrentHashMap<>();
+    private Semaphore permits = new Semaphore(0);
+    private ExecutorService executor = null;
+    private MangosTelnet fallback = null;
+    private RALog raLog = null;
+    private Runnable writeListener = null;
+    private String strHost;
+    private String strPort;
+    private String strUser;
+    private char[] pass;
+    private volatile int intSize = 0;
+    private long lngWait = 10000;
+    private volatile boolean boolOpen = false;
+    private final RALatencyStats stats;
+    private final RARateLimiter limiter;
+
+    /**
+     * Create a pool whose sessions share latency statistics and a rate
+     * limiter
+     *
+     * @param stats
+     * @param limiter may be null for no limit
+     */
+    public RASessionPool(RALatencyStats stats, RARateLimiter limiter) {
+        this.stats = stats;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Task applied to each item of a fan out
+     *
+     * @param <T> The item type
+     */
+    public interface RATask<T> {
+
+        /**
+         * Queue the command for this item on the given session
+         *
+         * @param session The session to use
+         * @param item The item
+         * @return future server reply
+         */
+        CompletableFuture<RAResult> apply(MangosTelnet session, T item);
+    }
+
+    /**
+     * Open the pool, sessions are not logged in until they are needed
+     *
+     * @param host
+     * @param port
+     * @param user
+     * @param pass
+     * @param size Maximum number of sessions
+     * @param fallback Session used when the pool cannot provide one
+     */
+    public void open(String host, String port, String user, char[] pass, int size, MangosTelnet fallback) {
+        List<MangosTelnet> previous;
+        synchronized (this) {
+            previous = shut();
+            this.strHost = host;
+            this.strPort = port;
+            this.strUser = user;
+            this.pass = Arrays.copyOf(pass, pass.length);
+            this.fallback = fallback;
+            intSize = Math.max(0, size);
+            permits = new Semaphore(intSize, true);
+            executor = Executors.newFixedThreadPool(Math.max(1, intSize), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RA Session Pool");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            boolOpen = true;
+            logger.log(Level.INFO, "RA session pool opened, size {0}", intSize);
+        }
+        quit(previous);
+    }
+
+    /**
+     * Close the pool and log out of every session
+     */
+    public void close() {
+        List<MangosTelnet> sessions;
+        synchronized (this) {
+            sessions = shut();
+        }
+        quit(sessions);
+    }
+
+    /**
+     * Mark the pool closed and take its sessions, called holding the lock
+     *
+     * @return the sessions to log out of
+     */
+    private List<MangosTelnet> shut() {
+        boolOpen = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        List<MangosTelnet> sessions = new ArrayList<>();
+        idle.drainTo(sessions);
+        sessions.addAll(leased.keySet());
+        leased.clear();
+        if (pass != null) {
+            Arrays.fill(pass, '\0');
+            pass = null;
+        }
+        intSize = 0;
+        return sessions;
+    }
+
+    /**
+     * Log out of sessions, each waits for its quit to be written so this is
+     * never done holding the lock
+     */
+    private static void quit(List<MangosTelnet> sessions) {
+        for (MangosTelnet s : sessions) {
+            s.closeConnection();
+        }
+    }
+
+    /**
+     * Set the log output for all pool sessions
+     *
+     * @param log
+     */
+    public void setCommandLog(RALog log) {
+        raLog = log;
+    }
+
+    /**
+     * Set what pool sessions tell when a command that may have changed the
+     * databases has been carried out
+     *
+     * @param listener may be null
+     */
+    public void setWriteListener(Runnable listener) {
+        writeListener = listener;
+    }
+
+    /**
+     * Set how long a checkout waits for a free session
+     *
+     * @param millis
+     */
+    public void setWaitPeriod(long millis) {
+        lngWait = millis;
+    }
+
+    /**
+     * Get maximum pool size
+     *
+     * @return size
+     */
+    public int getSize() {
+        return intSize;
+    }
+
+    /**
+     * Get number of sessions currently checked out
+     *
+     * @return count
+     */
+    public int getLeasedCount() {
+        return leased.size();
+    }
+
+    /**
+     * Get number of logged in sessions waiting to be used
+     *
+     * @return count
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Check out a session, logging in a new one if the pool has room
+     *
+     * @param waitms How long to wait for a free session
+     * @return a healthy session, or null if none became available
+     */
+    public MangosTelnet borrow(long waitms) {
+        // A pool with no sessions has nothing to wait for
+        if (!boolOpen || intSize == 0) {
+            return null;
+        }
+        Semaphore sem = permits;
+        try {
+            if (!sem.tryAcquire(waitms, TimeUnit.MILLISECONDS)) {
+                logger.info("RA session pool exhausted");
+                return null;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        MangosTelnet session;
+        while ((session = idle.poll()) != null) {
+            if (session.isHealthy()) {
+                leased.put(session, Boolean.TRUE);
+                return session;
+            }
+            session.closeConnection();
+        }
+        session = login();
+        if (session == null) {
+            sem.release();
+            return null;
+        }
+        leased.put(session, Boolean.TRUE);
+        return session;
+    }
+
+    /**
+     * Return a session to the pool, unhealthy sessions are discarded
+     *
+     * @param session
+     */
+    public void release(MangosTelnet session) {
+        if (session == null || session == fallback || leased.remove(session) == null) {
+            return;
+        }
+        if (boolOpen && session.isHealthy()) {
+            idle.offerFirst(session);
+        } else {
+            logger.info("RA session pool discarded unhealthy session");
+            session.closeConnection();
+        }
+        permits.release();
+    }
+
+    /**
+     * Apply a task to every item, spread across as many pooled sessions as
+     * are available. The returned replies are in the same order as the items
+     * and never complete exceptionally, if the pool is closed they all fail
+     * at once.
+     *
+     * @param <T> The item type
+     * @param items The items
+     * @param task The task
+     * @return future server results
+     */
+    public <T> List<CompletableFuture<RAResult>> fanOut(final List<T> items, final RATask<T> task) {
+        final int count = items.size();
+        final List<CompletableFuture<RAResult>> replies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            replies.add(new CompletableFuture<RAResult>());
+        }
+        if (count == 0) {
+            return replies;
+        }
+        ExecutorService exec = executor;
+        if (exec == null || !boolOpen) {
+            // Closed, fail straight away rather than block the caller
+            for (CompletableFuture<RAResult> reply : replies) {
+                reply.complete(failed());
+            }
+            return replies;
+        }
+        final int lanes = Math.max(1, Math.min(intSize, count));
+        for (int lane = 0; lane < lanes; lane++) {
+            final int first = lane;
+            Runnable worker = new Runnable() {
+
+                @Override
+                public void run() {
+                    runLane(items, task, replies, first, lanes);
+                }
+            };
+            try {
+                exec.execute(worker);
+            } catch (RejectedExecutionException ex) {
+                // Closed since, as above
+                for (int i = first; i < count; i += lanes) {
+                    replies.get(i).complete(failed());
+                }
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * Process every lanes'th item starting at first on one session
+     */
+    private <T> void runLane(List<T> items, RATask<T> task, List<CompletableFuture<RAResult>> replies, int first, int lanes) {
+        MangosTelnet session = borrow(lngWait);
+        if (session == null) {
+            session = fallback;
+        }
+        List<CompletableFuture<RAResult>> pending = new ArrayList<>();
+        try {
+            for (int i = first; i < items.size(); i += lanes) {
+                final CompletableFuture<RAResult> reply = replies.get(i);
+                if (session == null) {
+                    reply.complete(failed());
+                    continue;
+                }
+                CompletableFuture<RAResult> result = task.apply(session, items.get(i));
+                result.whenComplete(new BiConsumer<RAResult, Throwable>() {
+
+                    @Override
+                    public void accept(RAResult r, Throwable ex) {
+                        reply.complete(ex == null ? r : failed());
+                    }
+                });
+                pending.add(result);
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()])).exceptionally(new Function<Throwable, Void>() {
+
+                @Override
+                public Void apply(Throwable ex) {
+                    return null;
+                }
+            }).join();
+        } catch (RuntimeException ex) {
+            logger.throwing(this.getClass().getName(), "runLane", ex);
+            for (int i = first; i < items.size(); i += lanes) {
+                replies.get(i).complete(failed());
+            }
+        } finally {
+            release(session);
+        }
+    }
+
+    private RAResult failed() {
+        return new RAResult("", ERROR_RESULT, RAResult.DISCONNECTED, 0);
+    }
+
+    private MangosTelnet login() {
+        char[] chars = pass;
+        if (chars == null) {
+            return null;
+        }
+        MangosTelnet session = new MangosTelnet(stats, limiter);
+        session.setCommandLog(raLog);
+        session.setWriteListener(writeListener);
+        String result = session.Login(strHost, strPort, strUser, String.copyValueOf(chars));
+        if (!result.contains("+Logged in")) {
+            logger.log(Level.INFO, "RA session pool login failed {0}", result);
+            session.closeConnection();
+            return null;
+        }
+        return session;
+    }
+}
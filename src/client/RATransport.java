@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking Remote Access transport. Replies are framed on the server
+ * prompt so a read completes as soon as the prompt arrives, the wait period
+ * is only used as an upper bound.
+ * <p>
+ * The incoming data is treated as a stream of frames, a frame ends where the
+ * prompt ends the first word of a line. This allows several replies to arrive
+ * back to back when commands are pipelined.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class RATransport {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private final RAReplyDecoder decoder = new RAReplyDecoder(8192);
+    private SocketChannel channel = null;
+    private Selector selector = null;
+    private SelectionKey key = null;
+    private volatile boolean boolConnected = false;
+    private long lngWait = 30000;
+    private String strLineTerm = "\r";
+    private String strPrompt = "\r";
+
+    /**
+     * Connect to specified host and port
+     *
+     * @param host
+     * @param port
+     * @return Connection message as a string
+     * @throws IOException
+     */
+    public synchronized String connect(String host, int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(host);
+        }
+        selector = Selector.open();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        key = channel.register(selector, SelectionKey.OP_CONNECT);
+        try {
+            if (!channel.connect(address)) {
+                long deadline = System.currentTimeMillis() + lngWait;
+                while (!channel.finishConnect()) {
+                    if (!await(deadline)) {
+                        throw new SocketTimeoutException("connect timed out");
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        resetStream();
+        boolConnected = true;
+        logger.info("connect");
+        long deadline = System.currentTimeMillis() + lngWait;
+        String result = null;
+        while (result == null && System.currentTimeMillis() < deadline) {
+            result = poll(deadline - System.currentTimeMillis());
+        }
+        return result == null ? decoder.pendingLines() : result;
+    }
+
+    /**
+     * Set line termination
+     *
+     * @param text
+     */
+    public void setLineTerm(String text) {
+        strLineTerm = text;
+    }
+
+    /**
+     * Set prompt, a null or empty prompt means do not wait for a reply
+     *
+     * @param text
+     */
+    public void setPrompt(String text) {
+        strPrompt = text;
+        decoder.setPrompt(text);
+    }
+
+    /**
+     * Set the default result wait period in milliseconds
+     *
+     * @param millis
+     */
+    public void setWaitPeriod(long millis) {
+        lngWait = millis;
+    }
+
+    /**
+     * Get the default result wait period
+     *
+     * @return wait period in milliseconds
+     */
+    public long getWaitPeriod() {
+        return lngWait;
+    }
+
+    /**
+     * Check for a connection
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return boolConnected;
+    }
+
+    /**
+     * Send text
+     *
+     * @param text
+     * @return resulting message as a string
+     */
+    public String send(String text) {
+        return send(text, lngWait);
+    }
+
+    /**
+     * Send text and wait no longer than the specified period for the prompt,
+     * anything left over from earlier commands is discarded first
+     *
+     * @param text
+     * @param waitfor
+     * @return result as a string, null if the connection failed
+     */
+    public synchronized String send(String text, long waitfor) {
+
+        // Ensure we are connected before doing any output
+        if (!boolConnected) {
+            logger.log(Level.INFO, "send Not Connected {0}", text);
+            return null;
+        }
+        String result = null;
+        try {
+            discardPending();
+            write(text);
+            if (strPrompt == null || strPrompt.isEmpty()) {
+                fill();
+                result = decoder.pendingLines();
+                resetStream();
+            } else {
+                long deadline = System.currentTimeMillis() + waitfor;
+                long remaining = waitfor;
+                while (result == null && remaining > 0) {
+                    result = poll(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (result == null) {
+                    logger.info("send, Timeout");
+                    result = decoder.pendingLines();
+                }
+            }
+        } catch (EOFException ex) {
+            logger.info("send, Connection closed");
+            if (decoder.available() > 0) {
+                result = decoder.pendingLines();
+            }
+        } catch (IOException ex) {
+            logger.throwing(this.getClass().getName(), "send " + text, ex);
+            close();
+        }
+        logger.log(Level.INFO, "read {0}", result);
+        return result;
+    }
+
+    /**
+     * Write a single line to the server without waiting for its reply
+     *
+     * @param text
+     * @throws IOException
+     */
+    public void write(String text) throws IOException {
+        if (!boolConnected) {
+            throw new IOException("Not connected");
+        }
+        ByteBuffer bb = CHARSET.encode(text + strLineTerm);
+        long deadline = System.currentTimeMillis() + lngWait;
+        key.interestOps(SelectionKey.OP_WRITE);
+        try {
+            while (bb.hasRemaining()) {
+                if (channel.write(bb) == 0 && !await(deadline)) {
+                    throw new SocketTimeoutException("write timed out");
+                }
+            }
+        } finally {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+        logger.log(Level.INFO, "send {0}", text);
+    }
+
+    /**
+     * Get the next complete reply, waiting no longer than the specified
+     * period, a call to wakeup will also end the wait early
+     *
+     * @param waitfor
+     * @return the reply without its prompt line, or null if it has not yet
+     * arrived
+     * @throws IOException if the connection has failed or was closed
+     */
+    public String poll(long waitfor) throws IOException {
+        long deadline = System.currentTimeMillis() + waitfor;
+        String frame = nextFrame();
+        while (frame == null) {
+            if (fill() == 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                int ready = selector.select(remaining);
+                selector.selectedKeys().clear();
+                if (ready == 0) {
+                    return null;
+                }
+            }
+            frame = nextFrame();
+        }
+        return frame;
+    }
+
+    /**
+     * Wake up a thread blocked in poll
+     */
+    public void wakeup() {
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    /**
+     * Disconnect
+     */
+    public synchronized void disconnect() {
+        close();
+    }
+
+    /**
+     * Read whatever is available on the channel into the decoder
+     *
+     * @return number of bytes read
+     * @throws IOException
+     */
+    private int fill() throws IOException {
+        try {
+            return decoder.fill(channel);
+        } catch (EOFException ex) {
+            boolConnected = false;
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the next reply from data already received
+     *
+     * @return the reply, or null if no prompt yet
+     */
+    private String nextFrame() {
+        if (decoder.next()) {
+            return decoder.reply();
+        }
+        return null;
+    }
+
+    private void discardPending() throws IOException {
+        fill();
+        if (decoder.available() > 0) {
+            logger.log(Level.INFO, "send, discarded stale reply {0}", decoder.pending());
+        }
+        resetStream();
+    }
+
+    private void resetStream() {
+        decoder.clear();
+    }
+
+    /**
+     * Wait on the selector for our current interest
+     *
+     * @param deadline
+     * @return false if the deadline passed
+     * @throws IOException
+     */
+    private boolean await(long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return false;
+        }
+        selector.select(remaining);
+        selector.selectedKeys().clear();
+        return true;
+    }
+
+    private void close() {
+        boolConnected = false;
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            logger.throwing(this.getClass().getName(), "close()", ex);
+        }
+        selector = null;
+        channel = null;
+        key = null;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches what is known about the databases of a profile, their versions,
+ * table lists, column types, primary keys and table definitions, so backups
+ * and restores run one after the other do not ask the server for them again.
+ * Entries for a database are dropped when it is restored, everything when
+ * reloaded. As databases are also updated outside this client, validate()
+ * compares a fingerprint of their tables, columns and indexes with the one
+ * taken when the entries were cached and drops them if it has changed.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class SchemaCatalog {
+
+    private final ConcurrentHashMap<String, String> versions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<String>> tables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> definitions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Columns> columns = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<String>> keys = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> fingerprints = new ConcurrentHashMap<>();
+    private static final String FINGERPRINT = "select"
+            + " (select concat(count(*), ':', coalesce(sum(crc32(concat_ws('|', table_name, engine,"
+            + " table_collation, create_options))), 0)) from information_schema.tables where table_schema = ?),"
+            + " (select concat(count(*), ':', coalesce(sum(crc32(concat_ws('|', table_name, column_name,"
+            + " ordinal_position, column_type, is_nullable, column_default, extra))), 0))"
+            + " from information_schema.columns where table_schema = ?),"
+            + " (select concat(count(*), ':', coalesce(sum(crc32(concat_ws('|', table_name, index_name,"
+            + " seq_in_index, column_name, non_unique))), 0)) from information_schema.statistics"
+            + " where table_schema = ?)";
+
+    /**
+     * Column names and types of a table
+     */
+    public static final class Columns {
+
+        private final String[] names;
+        private final int[] types;
+
+        private Columns(ResultSetMetaData meta) throws SQLException {
+            names = new String[meta.getColumnCount()];
+            types = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = meta.getColumnName(i + 1);
+                types[i] = meta.getColumnType(i + 1);
+            }
+        }
+
+        public int getCount() {
+            return names.length;
+        }
+
+        /**
+         * @param idx Column index starting at 1
+         * @return the column name
+         */
+        public String getName(int idx) {
+            return names[idx - 1];
+        }
+
+        /**
+         * @param idx Column index starting at 1
+         * @return the column type from java.sql.Types
+         */
+        public int getType(int idx) {
+            return types[idx - 1];
+        }
+    }
+
+    /**
+     * Get the version of a database, the first column of its version table
+     *
+     * @param conn Used if the version is not cached
+     * @param dbname The database
+     * @param table Its version table
+     * @return the version or null if the table is empty
+     * @throws SQLException
+     */
+    public String getVersion(Connection conn, String dbname, String table) throws SQLException {
+        String version = versions.get(dbname);
+        if (version == null) {
+            try (Statement st = conn.createStatement();
+                    ResultSet rs = st.executeQuery("select * from `" + dbname + "`.`" + table + "`")) {
+                if (!rs.next()) {
+                    return null;
+                }
+                version = rs.getString(1);
+            }
+            versions.put(dbname, version);
+        }
+        return version;
+    }
+
+    /**
+     * Get the tables of a database
+     *
+     * @param conn Used if the tables are not cached
+     * @param dbname The database
+     * @return unmodifiable list of table names
+     * @throws SQLException
+     */
+    public List<String> getTables(Connection conn, String dbname) throws SQLException {
+        List<String> result = tables.get(dbname);
+        if (result == null) {
+            result = new ArrayList<>();
+            try (Statement st = conn.createStatement();
+                    ResultSet rs = st.executeQuery("show tables from `" + dbname + "`")) {
+                while (rs.next()) {
+                    result.add(rs.getString(1));
+                }
+            }
+            result = Collections.unmodifiableList(result);
+            tables.put(dbname, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the create table statement of a table
+     *
+     * @param conn Used if the definition is not cached
+     * @param dbname The database
+     * @param table The table
+     * @return the statement without a closing semicolon
+     * @throws SQLException
+     */
+    public String getDefinition(Connection conn, String dbname, String table) throws SQLException {
+        String key = dbname + "." + table;
+        String result = definitions.get(key);
+        if (result == null) {
+            try (Statement st = conn.createStatement();
+                    ResultSet rs = st.executeQuery("show create table `" + dbname + "`.`" + table + "`")) {
+                rs.next();
+                result = rs.getString(2);
+            }
+            definitions.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the column names and types of a table
+     *
+     * @param conn Used if the columns are not cached
+     * @param dbname The database
+     * @param table The table
+     * @return the columns
+     * @throws SQLException
+     */
+    public Columns getColumns(Connection conn, String dbname, String table) throws SQLException {
+        String key = dbname + "." + table;
+        Columns result = columns.get(key);
+        if (result == null) {
+            try (Statement st = conn.createStatement();
+                    ResultSet rs = st.executeQuery("select * from `" + dbname + "`.`" + table + "` limit 0")) {
+                result = new Columns(rs.getMetaData());
+            }
+            columns.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the primary key columns of a table
+     *
+     * @param conn Used if the key is not cached
+     * @param dbname The database
+     * @param table The table
+     * @return unmodifiable list of key columns in key order, empty if the
+     * table has no primary key
+     * @throws SQLException
+     */
+    public List<String> getPrimaryKey(Connection conn, String dbname, String table) throws SQLException {
+        String key = dbname + "." + table;
+        List<String> result = keys.get(key);
+        if (result == null) {
+            result = new ArrayList<>();
+            try (Statement st = conn.createStatement();
+                    ResultSet rs = st.executeQuery("show keys from `" + dbname + "`.`" + table
+                            + "` where Key_name = 'PRIMARY'")) {
+                while (rs.next()) {
+                    result.add(rs.getString("Column_name"));
+                }
+            }
+            result = Collections.unmodifiableList(result);
+            keys.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Make sure what is cached about a database is still true of the server,
+     * one query summing up its tables, columns and indexes. Entries cached
+     * before a change of schema are dropped. The version is always read
+     * again, as updates change its row.
+     *
+     * @param conn Used to read the fingerprint
+     * @param dbname The database
+     * @throws SQLException
+     */
+    public void validate(Connection conn, String dbname) throws SQLException {
+        String current;
+        try (PreparedStatement ps = conn.prepareStatement(FINGERPRINT)) {
+            ps.setString(1, dbname);
+            ps.setString(2, dbname);
+            ps.setString(3, dbname);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                current = rs.getString(1) + "/" + rs.getString(2) + "/" + rs.getString(3);
+            }
+        }
+        versions.remove(dbname);
+        if (!current.equals(fingerprints.get(dbname))) {
+            invalidate(dbname);
+            fingerprints.put(dbname, current);
+        }
+    }
+
+    /**
+     * Forget everything about a database, after it has been restored
+     *
+     * @param dbname
+     */
+    public void invalidate(String dbname) {
+        fingerprints.remove(dbname);
+        versions.remove(dbname);
+        tables.remove(dbname);
+        String prefix = dbname + ".";
+        for (Iterator<String> it = definitions.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+        for (Iterator<String> it = columns.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+        for (Iterator<String> it = keys.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forget everything, the next use reads it all from the server again
+     */
+    public void reload() {
+        versions.clear();
+        tables.clear();
+        definitions.clear();
+        columns.clear();
+        keys.clear();
+        fingerprints.clear();
+    }
+}
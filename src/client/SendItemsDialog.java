@@ -164,6 +164,7 @@ public final class SendItemsDialog extends javax.swing.JDialog {
         dbTableItems.enableNumericReplacement("quality", "Poor", "Common", "UnCommon",
                 "Rare", "Epic", "Legendary", "Artifact", "Heirloom");
         dbTableItems.getModel().refreshTableContents();
+        ourdbio.getQueryStats().recordRows(query, dbTableItems.getModel().getRowCount());
         adjustTableColumnWidth(0, "AAAAA");
         adjustTableColumnWidth(1, "AAAAAAAAAAAAAAAAAAAAAAAAAAAAA");
         adjustTableColumnWidth(2, "AAAAAAAA");
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Periodically issues server info and records the parsed values in a ring
+ * buffer for charting. Sampling is low priority, a sample is skipped while
+ * bulk work holds pooled sessions or the rate limiter is backing off, and it
+ * never uses the primary session when a pooled one is available.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class ServerInfoSampler {
+
+    public static final int DEFAULT_INTERVAL = 30;
+    private static final int CAPACITY = 720;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final ServerMetricsBuffer buffer = new ServerMetricsBuffer(CAPACITY);
+    private final RAServerInfo info = new RAServerInfo();
+    private final CopyOnWriteArrayList<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final RASessionPool pool;
+    private final MangosTelnet fallback;
+    private final RARateLimiter limiter;
+    private ScheduledExecutorService executor = null;
+    private int intInterval = 0;
+
+    /**
+     * @param pool Sessions to sample on
+     * @param fallback Used when the pool has no session, may be null
+     * @param limiter Sampling is skipped while it is backing off, may be null
+     */
+    public ServerInfoSampler(RASessionPool pool, MangosTelnet fallback, RARateLimiter limiter) {
+        this.pool = pool;
+        this.fallback = fallback;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Start sampling, any earlier samples are discarded
+     *
+     * @param seconds Interval between samples, zero or less disables sampling
+     */
+    public synchronized void start(int seconds) {
+        stop();
+        buffer.clear();
+        intInterval = seconds;
+        if (seconds <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RA Info Sampler");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop sampling, the samples are kept
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return sampling interval in seconds
+     */
+    public synchronized int getInterval() {
+        return intInterval;
+    }
+
+    /**
+     * @return the samples
+     */
+    public ServerMetricsBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Listeners are told after each new sample, on the sampler thread
+     *
+     * @param l
+     */
+    public void addChangeListener(ChangeListener l) {
+        listeners.add(l);
+    }
+
+    public void removeChangeListener(ChangeListener l) {
+        listeners.remove(l);
+    }
+
+    private void sample() {
+        try {
+            if (limiter != null && limiter.getCurrentRate() < limiter.getRate()) {
+                return;
+            }
+            if (pool.getLeasedCount() > 0) {
+                return;
+            }
+            MangosTelnet session = pool.borrow(0);
+            String text;
+            try {
+                if (session != null) {
+                    text = session.getInfoAsync().join().getText();
+                } else if (fallback != null) {
+                    text = fallback.getInfoAsync().join().getText();
+                } else {
+                    return;
+                }
+            } finally {
+                pool.release(session);
+            }
+            if (!info.parse(text)) {
+                return;
+            }
+            buffer.add(System.currentTimeMillis(), info);
+            ChangeEvent e = new ChangeEvent(this);
+            for (ChangeListener l : listeners) {
+                l.stateChanged(e);
+            }
+        } catch (RuntimeException ex) {
+            logger.throwing(this.getClass().getName(), "sample()", ex);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+/**
+ * Fixed size ring of server metric samples held in primitive arrays, once
+ * full the oldest sample is overwritten. Index 0 is always the oldest sample
+ * still held.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class ServerMetricsBuffer {
+
+    private final long[] times;
+    private final int[] players;
+    private final int[] queued;
+    private final int[] playersMax;
+    private final long[] uptimes;
+    private int intHead = 0;
+    private int intSize = 0;
+
+    /**
+     * @param capacity Number of samples held
+     */
+    public ServerMetricsBuffer(int capacity) {
+        times = new long[capacity];
+        players = new int[capacity];
+        queued = new int[capacity];
+        playersMax = new int[capacity];
+        uptimes = new long[capacity];
+    }
+
+    /**
+     * Add a sample
+     *
+     * @param time Sample time in milliseconds
+     * @param info The parsed server info
+     */
+    public synchronized void add(long time, RAServerInfo info) {
+        int i = (intHead + intSize) % times.length;
+        if (intSize == times.length) {
+            intHead = (intHead + 1) % times.length;
+        } else {
+            intSize++;
+        }
+        times[i] = time;
+        players[i] = info.getPlayers();
+        queued[i] = info.getQueued();
+        playersMax[i] = info.getPlayersMax();
+        uptimes[i] = info.getUptime();
+    }
+
+    /**
+     * @return number of samples held
+     */
+    public synchronized int size() {
+        return intSize;
+    }
+
+    /**
+     * @return maximum number of samples held
+     */
+    public int getCapacity() {
+        return times.length;
+    }
+
+    /**
+     * Copy the samples oldest first into the given arrays, which must be at
+     * least capacity long, so a reader can work on them without holding the
+     * lock
+     *
+     * @param t Sample times
+     * @param p Players online
+     * @param q Players queued
+     * @param m Most players online since startup
+     * @param u Uptime in seconds
+     * @return number of samples copied
+     */
+    public synchronized int copyTo(long[] t, int[] p, int[] q, int[] m, long[] u) {
+        int first = Math.min(intSize, times.length - intHead);
+        copy(t, p, q, m, u, intHead, 0, first);
+        copy(t, p, q, m, u, 0, first, intSize - first);
+        return intSize;
+    }
+
+    private void copy(long[] t, int[] p, int[] q, int[] m, long[] u, int from, int to, int length) {
+        System.arraycopy(times, from, t, to, length);
+        System.arraycopy(players, from, p, to, length);
+        System.arraycopy(queued, from, q, to, length);
+        System.arraycopy(playersMax, from, m, to, length);
+        System.arraycopy(uptimes, from, u, to, length);
+    }
+
+    /**
+     * Forget all samples
+     */
+    public synchronized void clear() {
+        intHead = 0;
+        intSize = 0;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.util.ResourceBundle;
+import javax.swing.BorderFactory;
+import javax.swing.JPanel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Line chart of players online, players queued and the peak since startup,
+ * drawn from a ServerInfoSampler's ring buffer. Server restarts, seen as the
+ * uptime going backwards, are marked with a vertical line. Repainting only
+ * reads the buffer, it never issues commands.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class ServerMetricsChart extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+    private static final Color PLAYERS = new Color(0, 110, 200);
+    private static final Color QUEUED = new Color(200, 90, 0);
+    private static final Color PEAK = new Color(160, 160, 160);
+    private static final Color RESTART = new Color(200, 0, 0);
+    private final ResourceBundle bundle = ResourceBundle.getBundle("lang/MessagesBundle");
+    private final ChangeListener listener = new ChangeListener() {
+
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            repaint();
+        }
+    };
+    private ServerInfoSampler sampler = null;
+    private long[] times = new long[0];
+    private int[] players = new int[0];
+    private int[] queued = new int[0];
+    private int[] peaks = new int[0];
+    private long[] uptimes = new long[0];
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+
+    public ServerMetricsChart() {
+        setBorder(BorderFactory.createTitledBorder(bundle.getString("pan_servermetrics")));
+        setBackground(Color.WHITE);
+        setPreferredSize(new Dimension(240, 120));
+    }
+
+    /**
+     * Set the sampler to chart, replacing any earlier one
+     *
+     * @param sampler may be null
+     */
+    public void setSampler(ServerInfoSampler sampler) {
+        if (this.sampler != null) {
+            this.sampler.removeChangeListener(listener);
+        }
+        this.sampler = sampler;
+        if (sampler != null) {
+            int capacity = sampler.getBuffer().getCapacity();
+            times = new long[capacity];
+            players = new int[capacity];
+            queued = new int[capacity];
+            peaks = new int[capacity];
+            uptimes = new long[capacity];
+            xs = new int[capacity];
+            ys = new int[capacity];
+            sampler.addChangeListener(listener);
+        }
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Insets in = getInsets();
+        FontMetrics fm = g.getFontMetrics();
+        int left = in.left + 4;
+        int top = in.top + fm.getHeight() + 2;
+        int width = getWidth() - in.left - in.right - 8;
+        int height = getHeight() - top - in.bottom - 4;
+        int count = sampler == null ? 0 : sampler.getBuffer().copyTo(times, players, queued, peaks, uptimes);
+        g.setColor(Color.BLACK);
+        if (count == 0 || width <= 0 || height <= 0) {
+            g.drawString(bundle.getString("info_nometrics"), left, top);
+            return;
+        }
+        int last = count - 1;
+        g.drawString(bundle.getString("lab_online") + " " + players[last]
+                + "  " + bundle.getString("lab_queued") + " " + Math.max(0, queued[last])
+                + "  " + bundle.getString("lab_uptime") + " " + formatUptime(uptimes[last]),
+                left, in.top + fm.getAscent());
+        int max = 1;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, Math.max(players[i], Math.max(queued[i], peaks[i])));
+        }
+        long start = times[0];
+        long span = Math.max(1, times[last] - start);
+        for (int i = 0; i < count; i++) {
+            xs[i] = left + (int) ((times[i] - start) * width / span);
+        }
+        g.setColor(RESTART);
+        for (int i = 1; i < count; i++) {
+            if (uptimes[i] >= 0 && uptimes[i] < uptimes[i - 1]) {
+                g.drawLine(xs[i], top, xs[i], top + height);
+            }
+        }
+        plot(g, PEAK, peaks, count, max, top, height);
+        plot(g, QUEUED, queued, count, max, top, height);
+        plot(g, PLAYERS, players, count, max, top, height);
+        g.setColor(Color.GRAY);
+        g.drawString(String.valueOf(max), left, top + fm.getAscent());
+        g.drawLine(left, top + height, left + width, top + height);
+    }
+
+    private void plot(Graphics g, Color color, int[] values, int count, int max, int top, int height) {
+        for (int i = 0; i < count; i++) {
+            ys[i] = top + height - Math.max(0, values[i]) * height / max;
+        }
+        g.setColor(color);
+        if (count == 1) {
+            g.fillRect(xs[0] - 1, ys[0] - 1, 3, 3);
+        } else {
+            g.drawPolyline(xs, ys, count);
+        }
+    }
+
+    private static String formatUptime(long seconds) {
+        if (seconds < 0) {
+            return "-";
+        }
+        return String.format("%dd %02d:%02d:%02d", seconds / 86400, (seconds / 3600) % 24,
+                (seconds / 60) % 60, seconds % 60);
+    }
+}
@@ -18,16 +18,37 @@
 package client;
 
 import lib.ComboSelectDialog;
+import lib.GlobalFunctions;
 import lib.InfoDialog;
 import lib.LineInputDialog;
 import lib.SpinnerInputDialog;
 import java.awt.Cursor;
 import java.awt.Frame;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
-import javax.swing.JTextArea;
+import javax.swing.GroupLayout;
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollBar;
+import javax.swing.JSplitPane;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
 /**
  *
@@ -36,20 +57,239 @@ import javax.swing.SwingWorker;
 public class ServerRealmPanel extends javax.swing.JPanel {
 
     private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final int LOG_CAPACITY = 5000;
+    private static final long JOURNAL_BYTES = 1024 * 1024;
+    private static final int JOURNAL_FILES = 10;
+    private static final String REALMQUERY = "select id,name,address,port,icon,realmflags,population from *realm*.realmlist";
     private final Pattern patternNewline = Pattern.compile("\n\r");
+    private ResultSet realmRs = null;
     private ConnectionHandler connHandler;
     private DialogHandler dh;
     private int intRealmRefreshTimer = -1;
+    private final ServerMetricsChart metricsChart = new ServerMetricsChart();
+    private JMenu jMenuBroadcast;
+    private final RALog raLog = new RALog(LOG_CAPACITY, new RALogJournal(
+            new File(GlobalFunctions.getInstance().getAppSettingsPath(), "ralog"),
+            JOURNAL_BYTES, JOURNAL_FILES));
 
     /**
      * Creates new form ServerRealmPanel
      */
     public ServerRealmPanel() {
         initComponents();
+        initOtherComponents();
     }
 
-    public JTextArea getLogOutputArea() {
-        return jTextActionLog;
+    private void initOtherComponents() {
+        // Share the log area with the server metrics chart
+        JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
+        split.setBorder(null);
+        split.setResizeWeight(0.6);
+        ((GroupLayout) jPanelLog.getLayout()).replace(jScrollPane1, split);
+        split.setLeftComponent(jScrollPane1);
+        split.setRightComponent(metricsChart);
+
+        // The log is virtual, a fixed row height means only visible rows are formatted
+        jListActionLog.setModel(raLog);
+        jListActionLog.setPrototypeCellValue(RALog.format(0, RALog.COMMAND, "account"));
+        raLog.addListDataListener(new ListDataListener() {
+
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                // Follow new entries unless the user has scrolled back
+                JScrollBar bar = jScrollPane1.getVerticalScrollBar();
+                if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - jListActionLog.getFixedCellHeight()) {
+                    final int last = e.getIndex1();
+                    SwingUtilities.invokeLater(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            jListActionLog.ensureIndexIsVisible(last);
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+            }
+        });
+        JPopupMenu popup = new JPopupMenu();
+        JMenuItem item = new JMenuItem(ResourceBundle.getBundle("lang/MessagesBundle").getString("mitem_searchlog"));
+        item.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                RALogSearchDialog dialog = new RALogSearchDialog((Frame) getTopLevelAncestor(), raLog);
+                dialog.setLocationRelativeTo(ServerRealmPanel.this);
+                dialog.setVisible(true);
+            }
+        });
+        popup.add(item);
+        jListActionLog.setComponentPopupMenu(popup);
+
+        // Broadcast to the selected realms
+        ResourceBundle bundle = ResourceBundle.getBundle("lang/MessagesBundle");
+        jMenuBroadcast = new JMenu(bundle.getString("mitem_broadcast"));
+        item = new JMenuItem(bundle.getString("server_announce"));
+        item.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                final String msg = askMessage("title_announce");
+                if (msg != null) {
+                    broadcast(new RABroadcast.Command() {
+
+                        @Override
+                        public CompletableFuture<RAResult> apply(MangosTelnet session) {
+                            return session.announceAsync(msg);
+                        }
+                    });
+                }
+            }
+        });
+        jMenuBroadcast.add(item);
+        item = new JMenuItem(bundle.getString("server_notify"));
+        item.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                final String msg = askMessage("title_notify");
+                if (msg != null) {
+                    broadcast(new RABroadcast.Command() {
+
+                        @Override
+                        public CompletableFuture<RAResult> apply(MangosTelnet session) {
+                            return session.notifyAsync(msg);
+                        }
+                    });
+                }
+            }
+        });
+        jMenuBroadcast.add(item);
+        item = new JMenuItem(bundle.getString("server_saveall"));
+        item.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                broadcast(new RABroadcast.Command() {
+
+                    @Override
+                    public CompletableFuture<RAResult> apply(MangosTelnet session) {
+                        return session.saveAllAsync();
+                    }
+                });
+            }
+        });
+        jMenuBroadcast.add(item);
+        item = new JMenuItem(bundle.getString("server_shutdown"));
+        item.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                SpinnerInputDialog numDialog = new SpinnerInputDialog((Frame) getTopLevelAncestor(), true);
+                numDialog.setTitle(dh.getString("title_shut_delay"));
+                numDialog.setEntryLabel(dh.getString("lab_shut_delay") + " :");
+                numDialog.setLocationRelativeTo(ServerRealmPanel.this);
+                numDialog.setVisible(true);
+                if (numDialog.getReturnStatus() == SpinnerInputDialog.RET_CANCEL) {
+                    return;
+                }
+                final String delay = numDialog.getValue().toString();
+                broadcast(new RABroadcast.Command() {
+
+                    @Override
+                    public CompletableFuture<RAResult> apply(MangosTelnet session) {
+                        return session.shutdownAsync(delay);
+                    }
+                });
+            }
+        });
+        jMenuBroadcast.add(item);
+        jPopupRealms.addSeparator();
+        jPopupRealms.add(jMenuBroadcast);
+        jMenuBroadcast.setEnabled(false);
+    }
+
+    private String askMessage(String title) {
+        LineInputDialog lid = new LineInputDialog((Frame) getTopLevelAncestor(), true);
+        lid.setTitle(dh.getString(title));
+        lid.setMessageLabel(dh.getString("lab_message_entry") + " :");
+        lid.setLocationRelativeTo(this);
+        lid.setVisible(true);
+        if (lid.getReturnStatus() == LineInputDialog.RET_CANCEL || lid.getMessage().isEmpty()) {
+            return null;
+        }
+        return lid.getMessage();
+    }
+
+    /**
+     * Send a command to the Remote Access server of every selected realm at
+     * once and show the combined results
+     *
+     * @param command
+     */
+    private void broadcast(final RABroadcast.Command command) {
+        final int[] selRows = dbTableRealm.getSelectedRows();
+        if (selRows.length == 0) {
+            return;
+        }
+        final List<RABroadcast.Endpoint> targets = new ArrayList<>();
+        for (int row : selRows) {
+            targets.add(connHandler.getRealmRAEndpoint(
+                    String.valueOf(dbTableRealm.getValueAt(row, 0)),
+                    String.valueOf(dbTableRealm.getValueAt(row, 1)),
+                    String.valueOf(dbTableRealm.getValueAt(row, 2))));
+        }
+        final RABroadcast broadcast = connHandler.createBroadcast();
+        broadcast.setCommandLog(raLog);
+        final String user = connHandler.getRAUser();
+        final char[] pass = connHandler.getRAPass();
+        setCursor(new Cursor(Cursor.WAIT_CURSOR));
+        SwingWorker<String, Void> task = new SwingWorker<String, Void>() {
+
+            @Override
+            public String doInBackground() {
+                try {
+                    return RABroadcast.report(broadcast.run(targets, user, pass, command));
+                } finally {
+                    Arrays.fill(pass, '\0');
+                }
+            }
+
+            @Override
+            protected void done() {
+                setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+                try {
+                    dh.createInfo("title_broadcast");
+                    dh.appendInfoText(get());
+                    dh.setVisible(true);
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.throwing(this.getClass().getName(), "broadcast()", ex);
+                }
+            }
+        };
+        task.execute();
+    }
+
+    /**
+     * Get the Remote Access command log shown by this panel
+     *
+     * @return command log
+     */
+    public RALog getCommandLog() {
+        return raLog;
+    }
+
+    /**
+     * Write the command log to its journal, called on exit
+     */
+    public void closeCommandLog() {
+        raLog.close();
     }
 
     /**
@@ -59,8 +299,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
      */
     public void setConnection(ConnectionHandler connHandler) {
         this.connHandler = connHandler;
-        // Create our statements
-        connHandler.getActiveSQL().createRealmStatement("realms");
+        metricsChart.setSampler(connHandler.getInfoSampler());
     }
 
     /**
@@ -107,9 +346,11 @@ public class ServerRealmPanel extends javax.swing.JPanel {
     public void setRealmMenusEnabled(boolean enabled) {
         if (enabled) {
             jMenuItemDeleteRealm.setEnabled(true);
+            jMenuBroadcast.setEnabled(connHandler.isRAEnabled());
         } else {
             dbTableRealm.clearSelection();
             jMenuItemDeleteRealm.setEnabled(false);
+            jMenuBroadcast.setEnabled(false);
         }
     }
 
@@ -118,9 +359,25 @@ public class ServerRealmPanel extends javax.swing.JPanel {
      */
     public void resetPanel() {
         dbTableRealm.getModel().reset();
+        closeRealmResults();
         dbTableRealm.setSelectionRetention(false);
     }
 
+    /**
+     * Close the result set the realm table was showing, and its statement
+     */
+    private void closeRealmResults() {
+        if (realmRs == null) {
+            return;
+        }
+        try {
+            realmRs.close();
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "closeRealmResults", ex);
+        }
+        realmRs = null;
+    }
+
     /**
      * Convenience method, for gettting the Realm table adjusred row height
      *
@@ -135,11 +392,32 @@ public class ServerRealmPanel extends javax.swing.JPanel {
      */
     private void refreshRealmTable() {
 
-        // Realm table refresh
-        connHandler.getActiveSQL().setStatement("realms");
-        String query = "select id,name,address,port,icon,realmflags,population from realmlist";
+        // Realm table refresh, read on the executor into a statement of its
+        // own so the result set the table edits through stays open until
+        // the new one replaces it
+        final MangosSql sql = connHandler.getActiveSQL();
+        final SqlTemplate template = sql.compile(REALMQUERY);
+        sql.getAsync().submit("realms", new AsyncSql.Work<ResultSet>() {
+
+            @Override
+            public ResultSet run(AsyncSql.Request request) throws SQLException {
+                return sql.executeUpdatable(template, request);
+            }
+        }, new AsyncSql.Done<ResultSet>() {
+
+            @Override
+            public void done(ResultSet rs) {
+                showRealmTable(rs);
+                sql.getQueryStats().recordRows(template, dbTableRealm.getModel().getRowCount());
+            }
+        });
+    }
+
+    private void showRealmTable(ResultSet rs) {
         dbTableRealm.setSelectionRetention(true);
-        dbTableRealm.setResultSet(connHandler.getActiveSQL().executeQuery(query));
+        dbTableRealm.setResultSet(rs);
+        closeRealmResults();
+        realmRs = rs;
         dbTableRealm.getModel().setPrimaryKey("id");
         dbTableRealm.enableTextEditor("name");
         dbTableRealm.enableTextEditor("address");
@@ -180,12 +458,33 @@ public class ServerRealmPanel extends javax.swing.JPanel {
 
     public void saveAllPlayers() {
         setCursor(new Cursor(Cursor.WAIT_CURSOR));
-        connHandler.getRAConnection().saveAll();
-        setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+        SwingWorker<String, Void> task = new SwingWorker<String, Void>() {
+
+            @Override
+            public String doInBackground() {
+                // Use a pooled session so a long save does not hold up other actions
+                RASessionPool pool = connHandler.getRAPool();
+                MangosTelnet session = pool.borrow(0);
+                try {
+                    if (session == null) {
+                        return connHandler.getRAConnection().saveAll();
+                    }
+                    return session.saveAll();
+                } finally {
+                    pool.release(session);
+                }
+            }
+
+            @Override
+            protected void done() {
+                setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+            }
+        };
+        task.execute();
     }
 
     public void clearCorpses() {
-        connHandler.getRAConnection().clearCorpses();
+        connHandler.getRAConnection().clearCorpsesAsync();
     }
 
     public void optimiseDB() {
@@ -223,7 +522,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
     }
 
     public void shutdownNow() {
-        String result = connHandler.getRAConnection().shutdown("0");
+        connHandler.getRAConnection().shutdownAsync("0");
     }
 
     public void shutdownDelay() {
@@ -235,7 +534,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
         if (numDialog.getReturnStatus() == SpinnerInputDialog.RET_CANCEL) {
             return;
         }
-        String result = connHandler.getRAConnection().shutdown(numDialog.getValue().toString());
+        connHandler.getRAConnection().shutdownAsync(numDialog.getValue().toString());
     }
 
     public void idleShutdown() {
@@ -247,7 +546,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
         if (numDialog.getReturnStatus() == SpinnerInputDialog.RET_CANCEL) {
             return;
         }
-        String result = connHandler.getRAConnection().idleShutdown(numDialog.getValue().toString());
+        connHandler.getRAConnection().idleShutdownAsync(numDialog.getValue().toString());
     }
 
     public void playerLimits() {
@@ -257,11 +556,10 @@ public class ServerRealmPanel extends javax.swing.JPanel {
         if (pd.getReturnStatus() == PLimitDialog.RET_CANCEL) {
             return;
         }
-        String result;
         if (pd.getSelectedOption().contains("player")) {
-            result = connHandler.getRAConnection().setPlayerLimit(pd.getNumericalInput());
+            connHandler.getRAConnection().setPlayerLimitAsync(pd.getNumericalInput());
         } else {
-            result = connHandler.getRAConnection().setPlayerLimit(pd.getSelectedOption());
+            connHandler.getRAConnection().setPlayerLimitAsync(pd.getSelectedOption());
         }
     }
 
@@ -273,7 +571,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
         if (lid.getReturnStatus() == LineInputDialog.RET_CANCEL || lid.getMessage().isEmpty()) {
             return;
         }
-        String result = connHandler.getRAConnection().setMotd(lid.getMessage());
+        connHandler.getRAConnection().setMotdAsync(lid.getMessage());
     }
 
     public void systemAnnounce() {
@@ -288,7 +586,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
         if (lid.getMessage().isEmpty()) {
             return;
         }
-        String result = connHandler.getRAConnection().announce(lid.getMessage());
+        connHandler.getRAConnection().announceAsync(lid.getMessage());
     }
 
     public void systemNotify() {
@@ -300,7 +598,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
         if (lid.getReturnStatus() == LineInputDialog.RET_CANCEL || lid.getMessage().isEmpty()) {
             return;
         }
-        String result = connHandler.getRAConnection().notify(lid.getMessage());
+        connHandler.getRAConnection().notifyAsync(lid.getMessage());
     }
 
     public void reloadTable() {
@@ -321,8 +619,13 @@ public class ServerRealmPanel extends javax.swing.JPanel {
             return;
         }
         setCursor(new Cursor(Cursor.WAIT_CURSOR));
-        connHandler.getRAConnection().reloadTable(csd.getSelectedOption());
-        setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+        connHandler.getRAConnection().reloadTableAsync(csd.getSelectedOption()).whenCompleteAsync(new BiConsumer<RAResult, Throwable>() {
+
+            @Override
+            public void accept(RAResult r, Throwable ex) {
+                setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+            }
+        }, MangosTelnet.EDT);
     }
 
     /**
@@ -342,7 +645,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
         jTextServerInfo2 = new javax.swing.JTextArea();
         jPanelLog = new javax.swing.JPanel();
         jScrollPane1 = new javax.swing.JScrollPane();
-        jTextActionLog = new javax.swing.JTextArea();
+        jListActionLog = new javax.swing.JList<>();
         jPanelRealmList = new javax.swing.JPanel();
         jLabelInline = new javax.swing.JLabel();
         jScrollPane4 = new javax.swing.JScrollPane();
@@ -393,13 +696,9 @@ public class ServerRealmPanel extends javax.swing.JPanel {
 
         jScrollPane1.setBorder(null);
 
-        jTextActionLog.setEditable(false);
-        jTextActionLog.setColumns(20);
-        jTextActionLog.setLineWrap(true);
-        jTextActionLog.setRows(5);
-        jTextActionLog.setBorder(null);
-        jTextActionLog.setFocusable(false);
-        jScrollPane1.setViewportView(jTextActionLog);
+        jListActionLog.setBorder(null);
+        jListActionLog.setVisibleRowCount(5);
+        jScrollPane1.setViewportView(jListActionLog);
 
         javax.swing.GroupLayout jPanelLogLayout = new javax.swing.GroupLayout(jPanelLog);
         jPanelLog.setLayout(jPanelLogLayout);
@@ -506,6 +805,7 @@ public class ServerRealmPanel extends javax.swing.JPanel {
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private lib.DBJTableBean dbTableRealm;
     private javax.swing.JLabel jLabelInline;
+    private javax.swing.JList<String> jListActionLog;
     private javax.swing.JMenuItem jMenuItemCreateRealm;
     private javax.swing.JMenuItem jMenuItemDeleteRealm;
     private javax.swing.JMenuItem jMenuItemRefreshRealms;
@@ -515,7 +815,6 @@ public class ServerRealmPanel extends javax.swing.JPanel {
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JScrollPane jScrollPane2;
     private javax.swing.JScrollPane jScrollPane4;
-    private javax.swing.JTextArea jTextActionLog;
     private javax.swing.JTextArea jTextServerInfo2;
     // End of variables declaration//GEN-END:variables
 }
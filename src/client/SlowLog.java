@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs operations that took longer than a threshold and keeps the most recent
+ * of them for display
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class SlowLog {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final String strWhat;
+    private final int intCapacity;
+    private final ArrayDeque<String> entries;
+    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private volatile long lngThreshold;
+    private long lngCount = 0;
+
+    /**
+     * @param what What is being timed, used in the log message
+     * @param threshold Milliseconds, zero to log nothing
+     * @param capacity Number of entries kept
+     */
+    SlowLog(String what, long threshold, int capacity) {
+        strWhat = what;
+        lngThreshold = threshold;
+        intCapacity = capacity;
+        entries = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * @param millis Milliseconds, zero to log nothing
+     */
+    void setThreshold(long millis) {
+        lngThreshold = Math.max(0, millis);
+    }
+
+    long getThreshold() {
+        return lngThreshold;
+    }
+
+    /**
+     * Log an operation if it was slow
+     *
+     * @param millis How long it took
+     * @param text What it was
+     * @param detail Anything further, may be null
+     */
+    void check(long millis, String text, String detail) {
+        long threshold = lngThreshold;
+        if (threshold == 0 || millis < threshold) {
+            return;
+        }
+        logger.log(Level.WARNING, "Slow {0} took {1} ms{2}: {3}",
+                new Object[]{strWhat, millis, detail == null ? "" : ", " + detail, text});
+        synchronized (this) {
+            lngCount++;
+            if (entries.size() == intCapacity) {
+                entries.removeLast();
+            }
+            entries.addFirst(sdf.format(new Date()) + "  " + millis + " ms  "
+                    + (detail == null ? "" : detail + "  ") + text);
+        }
+    }
+
+    /**
+     * @return number of slow operations seen
+     */
+    synchronized long getCount() {
+        return lngCount;
+    }
+
+    /**
+     * @return the entries kept, newest first
+     */
+    synchronized List<String> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        lngCount = 0;
+    }
+}
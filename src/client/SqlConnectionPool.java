@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of database connections for one server. Connections are opened
+ * when first needed, up to the pool size, and handed out as leases each with
+ * its own statement and result set so concurrent users cannot disturb each
+ * other.
+ * <p>
+ * A connection that has been idle for a while is validated before it is
+ * leased, and connections idle for longer than the idle timeout are closed by
+ * a background evictor. Idle connections are reused most recently used first
+ * so the rest can age out.
+ * <p>
+ * Each connection keeps a cache of its prepared statements which lives as
+ * long as the connection, not the lease.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class SqlConnectionPool {
+
+    public static final int DEFAULT_SIZE = 4;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final String DRIVERCLASSNAME = "com.mysql.jdbc.Driver";
+    private static final long VALIDATE_AFTER = 5000;
+    private static final int VALIDATE_TIMEOUT = 2;
+    private static final long IDLE_TIMEOUT = 300000;
+    private static final long EVICT_PERIOD = 60000;
+    private static final int STATEMENT_CACHE = 32;
+    private final LinkedBlockingDeque<Idle> idle = new LinkedBlockingDeque<>();
+    private final ConcurrentHashMap<Connection, Boolean> leased = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Connection, SqlStatementCache> caches = new ConcurrentHashMap<>();
+    private Semaphore permits = new Semaphore(0);
+    private ScheduledExecutorService evictor = null;
+    private String strUrl;
+    private String strUser;
+    private String strPass;
+    private int intSize = 0;
+    private long lngWait = 30000;
+    private volatile boolean boolOpen = false;
+    private volatile long lngLastWrite = 0;
+    private volatile SqlQueryStats stats = null;
+
+    /**
+     * An idle connection and when it was last returned
+     */
+    private static final class Idle {
+
+        private final Connection conn;
+        private final long since;
+
+        private Idle(Connection conn, long since) {
+            this.conn = conn;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Open the pool, connections are not made until they are needed
+     *
+     * @param url JDBC url of the server
+     * @param user
+     * @param pass
+     * @param size Maximum number of connections
+     */
+    public synchronized void open(String url, String user, String pass, int size) {
+        close();
+        try {
+            Class.forName(DRIVERCLASSNAME);
+        } catch (ClassNotFoundException ex) {
+            // The driver may already be registered some other way
+            logger.throwing(this.getClass().getName(), "open", ex);
+        }
+        strUrl = url;
+        strUser = user;
+        strPass = pass;
+        intSize = Math.max(1, size);
+        permits = new Semaphore(intSize, true);
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SQL Pool Evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                evictIdle(IDLE_TIMEOUT);
+            }
+        }, EVICT_PERIOD, EVICT_PERIOD, TimeUnit.MILLISECONDS);
+        boolOpen = true;
+        logger.log(Level.INFO, "SQL connection pool opened, size {0}", intSize);
+    }
+
+    /**
+     * Close the pool and every connection, leased connections are closed too
+     */
+    public synchronized void close() {
+        boolOpen = false;
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        Idle i;
+        while ((i = idle.poll()) != null) {
+            closeQuietly(i.conn);
+        }
+        for (Connection c : leased.keySet()) {
+            closeQuietly(c);
+        }
+        leased.clear();
+        strPass = null;
+        intSize = 0;
+    }
+
+    /**
+     * Test if the pool is open
+     *
+     * @return true if it is
+     */
+    public boolean isOpen() {
+        return boolOpen;
+    }
+
+    /**
+     * Set how long a lease waits for a free connection
+     *
+     * @param millis
+     */
+    public void setWaitPeriod(long millis) {
+        lngWait = millis;
+    }
+
+    /**
+     * @return maximum number of connections
+     */
+    public int getSize() {
+        return intSize;
+    }
+
+    /**
+     * @return number of connections currently leased
+     */
+    public int getLeasedCount() {
+        return leased.size();
+    }
+
+    /**
+     * @return number of open connections waiting to be leased
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Set where queries run through leases of this pool are timed
+     *
+     * @param stats may be null
+     */
+    public void setQueryStats(SqlQueryStats stats) {
+        this.stats = stats;
+    }
+
+    public SqlQueryStats getQueryStats() {
+        return stats;
+    }
+
+    /**
+     * Record that data has just been changed through this pool's server
+     */
+    public void noteWrite() {
+        lngLastWrite = System.currentTimeMillis();
+    }
+
+    /**
+     * @return when data was last changed, milliseconds since the epoch
+     */
+    public long getLastWrite() {
+        return lngLastWrite;
+    }
+
+    /**
+     * Lease a connection, waiting for one to be returned if all are in use
+     *
+     * @return the lease, close it to return the connection
+     * @throws SQLException if the pool is closed, no connection became free in
+     * time or a new connection could not be made
+     */
+    public SqlLease lease() throws SQLException {
+        return new SqlLease(this, borrow(lngWait));
+    }
+
+    /**
+     * Check out a connection
+     *
+     * @param waitms How long to wait for a free connection
+     * @return a valid connection
+     * @throws SQLException
+     */
+    Connection borrow(long waitms) throws SQLException {
+        if (!boolOpen) {
+            throw new SQLException("SQL connection pool is closed");
+        }
+        Semaphore sem = permits;
+        try {
+            if (!sem.tryAcquire(waitms, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("SQL connection pool exhausted");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", ex);
+        }
+        try {
+            Idle i;
+            while ((i = idle.pollFirst()) != null) {
+                if (isUsable(i)) {
+                    leased.put(i.conn, Boolean.TRUE);
+                    return i.conn;
+                }
+                logger.info("SQL connection pool discarded stale connection");
+                closeQuietly(i.conn);
+            }
+            Connection conn = DriverManager.getConnection(strUrl, strUser, strPass);
+            leased.put(conn, Boolean.TRUE);
+            return conn;
+        } catch (SQLException | RuntimeException ex) {
+            sem.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Return a connection, it is reset to auto commit first and discarded if
+     * that fails or the pool has closed
+     *
+     * @param conn
+     */
+    void release(Connection conn) {
+        if (conn == null || leased.remove(conn) == null) {
+            return;
+        }
+        boolean reusable = boolOpen;
+        if (reusable) {
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+                reusable = !conn.isClosed();
+            } catch (SQLException ex) {
+                logger.throwing(this.getClass().getName(), "release", ex);
+                reusable = false;
+            }
+        }
+        if (reusable) {
+            idle.offerFirst(new Idle(conn, System.currentTimeMillis()));
+        } else {
+            closeQuietly(conn);
+        }
+        permits.release();
+    }
+
+    /**
+     * Get the prepared statement cache of a leased connection
+     *
+     * @param conn
+     * @return the cache
+     */
+    SqlStatementCache getStatementCache(Connection conn) {
+        SqlStatementCache cache = caches.get(conn);
+        if (cache == null) {
+            cache = new SqlStatementCache(conn, STATEMENT_CACHE);
+            caches.put(conn, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Close connections that have been idle for longer than the given period
+     *
+     * @param maxIdle Milliseconds
+     */
+    void evictIdle(long maxIdle) {
+        long cutoff = System.currentTimeMillis() - maxIdle;
+        Iterator<Idle> it = idle.iterator();
+        while (it.hasNext()) {
+            Idle i = it.next();
+            if (i.since < cutoff && idle.removeFirstOccurrence(i)) {
+                logger.info("SQL connection pool evicted idle connection");
+                closeQuietly(i.conn);
+            }
+        }
+    }
+
+    private boolean isUsable(Idle i) {
+        try {
+            if (i.conn.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - i.since < VALIDATE_AFTER) {
+                return true;
+            }
+            return i.conn.isValid(VALIDATE_TIMEOUT);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        SqlStatementCache cache = caches.remove(conn);
+        if (cache != null) {
+            cache.close();
+        }
+        try {
+            conn.close();
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "closeQuietly", ex);
+        }
+    }
+}
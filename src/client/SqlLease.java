@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A connection leased from a SqlConnectionPool together with its own
+ * statement and result set. A lease is used by one thread at a time and must
+ * be closed, normally with try-with-resources, to return the connection.
+ * <p>
+ * Queries given with ? placeholders and their parameters are run as prepared
+ * statements taken from the connection's statement cache, values are bound
+ * rather than quoted into the text. Compiled templates skip the query
+ * rewriter as their database names are already filled in.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class SqlLease implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final SqlConnectionPool pool;
+    private Connection conn;
+    private Statement stmt = null;
+    private ResultSet rs = null;
+    private QueryRewriter rewriter = null;
+
+    /**
+     * Rewrites queries before they are run, for example to fill in database
+     * names
+     */
+    public interface QueryRewriter {
+
+        /**
+         * @param query
+         * @return the query to run
+         */
+        String rewrite(String query);
+    }
+
+    SqlLease(SqlConnectionPool pool, Connection conn) {
+        this.pool = pool;
+        this.conn = conn;
+    }
+
+    /**
+     * Set what rewrites queries run through this lease
+     *
+     * @param rewriter may be null
+     */
+    public void setQueryRewriter(QueryRewriter rewriter) {
+        this.rewriter = rewriter;
+    }
+
+    /**
+     * Get the leased connection, valid until the lease is closed
+     *
+     * @return connection
+     * @throws SQLException if the lease has been closed
+     */
+    public Connection getConnection() throws SQLException {
+        if (conn == null) {
+            throw new SQLException("SQL lease is closed");
+        }
+        return conn;
+    }
+
+    /**
+     * Select the default database for this lease
+     *
+     * @param dbname
+     * @throws SQLException
+     */
+    public void setCatalog(String dbname) throws SQLException {
+        getConnection().setCatalog(dbname);
+    }
+
+    /**
+     * Apply the query rewriter, if any
+     *
+     * @param query
+     * @return the query to run
+     */
+    public String rewrite(String query) {
+        return rewriter == null ? query : rewriter.rewrite(query);
+    }
+
+    /**
+     * Execute a query that returns results, the previous result set of this
+     * lease is closed
+     *
+     * @param query The SQL query
+     * @return the result set
+     * @throws SQLException
+     */
+    public ResultSet executeQuery(String query) throws SQLException {
+        String sql = rewrite(query);
+        logger.log(Level.INFO, "executeQuery {0}", sql);
+        long started = System.nanoTime();
+        try {
+            rs = statement().executeQuery(sql);
+        } catch (SQLException ex) {
+            recordError(query, started);
+            throw ex;
+        }
+        recordQuery(query, started);
+        return rs;
+    }
+
+    /**
+     * Execute an update query, the previous result set of this lease is
+     * closed
+     *
+     * @param query The SQL query
+     * @return row count
+     * @throws SQLException
+     */
+    public int executeUpdate(String query) throws SQLException {
+        String sql = rewrite(query);
+        logger.log(Level.INFO, "executeUpdate {0}", sql);
+        pool.noteWrite();
+        long started = System.nanoTime();
+        try {
+            return recordUpdate(query, started, statement().executeUpdate(sql));
+        } catch (SQLException ex) {
+            recordError(query, started);
+            throw ex;
+        }
+    }
+
+    /**
+     * Execute a parameterized query that returns results, the previous result
+     * set of this lease is closed
+     *
+     * @param query The SQL query with ? for each parameter
+     * @param params The parameter values
+     * @return the result set
+     * @throws SQLException
+     */
+    public ResultSet executeQuery(String query, Object... params) throws SQLException {
+        PreparedStatement ps = prepare(query, params);
+        long started = System.nanoTime();
+        try {
+            rs = ps.executeQuery();
+        } catch (SQLException ex) {
+            recordError(query, started);
+            pool.getStatementCache(conn).discard(ps);
+            throw ex;
+        }
+        recordQuery(query, started);
+        return rs;
+    }
+
+    /**
+     * Execute a parameterized update query, the previous result set of this
+     * lease is closed
+     *
+     * @param query The SQL query with ? for each parameter
+     * @param params The parameter values
+     * @return row count
+     * @throws SQLException
+     */
+    public int executeUpdate(String query, Object... params) throws SQLException {
+        PreparedStatement ps = prepare(query, params);
+        pool.noteWrite();
+        long started = System.nanoTime();
+        try {
+            return recordUpdate(query, started, ps.executeUpdate());
+        } catch (SQLException ex) {
+            recordError(query, started);
+            pool.getStatementCache(conn).discard(ps);
+            throw ex;
+        }
+    }
+
+    /**
+     * Get a cached prepared statement for the query, with any parameters
+     * bound. It belongs to the cache and must not be closed.
+     *
+     * @param query The SQL query with ? for each parameter
+     * @param params The parameter values
+     * @return the statement
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(String query, Object... params) throws SQLException {
+        return bind(rewrite(query), params);
+    }
+
+    /**
+     * Execute a compiled query that returns results, the previous result set
+     * of this lease is closed
+     *
+     * @param template The compiled query with ? for each parameter
+     * @param params The parameter values
+     * @return the result set
+     * @throws SQLException
+     */
+    public ResultSet executeQuery(SqlTemplate template, Object... params) throws SQLException {
+        PreparedStatement ps = bind(template.getSql(), params);
+        long started = System.nanoTime();
+        try {
+            rs = ps.executeQuery();
+        } catch (SQLException ex) {
+            recordError(template, started);
+            pool.getStatementCache(conn).discard(ps);
+            throw ex;
+        }
+        recordQuery(template, started);
+        return rs;
+    }
+
+    /**
+     * Execute a compiled update query, the previous result set of this lease
+     * is closed
+     *
+     * @param template The compiled query with ? for each parameter
+     * @param params The parameter values
+     * @return row count
+     * @throws SQLException
+     */
+    public int executeUpdate(SqlTemplate template, Object... params) throws SQLException {
+        PreparedStatement ps = bind(template.getSql(), params);
+        pool.noteWrite();
+        long started = System.nanoTime();
+        try {
+            return recordUpdate(template, started, ps.executeUpdate());
+        } catch (SQLException ex) {
+            recordError(template, started);
+            pool.getStatementCache(conn).discard(ps);
+            throw ex;
+        }
+    }
+
+    private PreparedStatement bind(String query, Object[] params) throws SQLException {
+        closeResults();
+        logger.log(Level.INFO, "prepare {0}", query);
+        PreparedStatement ps = pool.getStatementCache(getConnection()).prepare(query);
+        for (int i = 0; i < params.length; i++) {
+            ps.setObject(i + 1, params[i]);
+        }
+        return ps;
+    }
+
+    private void recordQuery(String query, long started) {
+        SqlQueryStats stats = pool.getQueryStats();
+        if (stats != null) {
+            stats.record(query, System.nanoTime() - started, -1);
+        }
+    }
+
+    private void recordQuery(SqlTemplate template, long started) {
+        SqlQueryStats stats = pool.getQueryStats();
+        if (stats != null) {
+            stats.record(template, System.nanoTime() - started, -1);
+        }
+    }
+
+    private int recordUpdate(String query, long started, int rows) {
+        SqlQueryStats stats = pool.getQueryStats();
+        if (stats != null) {
+            stats.record(query, System.nanoTime() - started, rows);
+        }
+        return rows;
+    }
+
+    private int recordUpdate(SqlTemplate template, long started, int rows) {
+        SqlQueryStats stats = pool.getQueryStats();
+        if (stats != null) {
+            stats.record(template, System.nanoTime() - started, rows);
+        }
+        return rows;
+    }
+
+    private void recordError(String query, long started) {
+        SqlQueryStats stats = pool.getQueryStats();
+        if (stats != null) {
+            stats.recordError(query, System.nanoTime() - started);
+        }
+    }
+
+    private void recordError(SqlTemplate template, long started) {
+        SqlQueryStats stats = pool.getQueryStats();
+        if (stats != null) {
+            stats.recordError(template, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Record that data has been changed through this lease other than by
+     * executeUpdate, so reads that follow are not sent to a replica that may
+     * not have the change yet
+     */
+    public void noteWrite() {
+        pool.noteWrite();
+    }
+
+    /**
+     * Get the result set of the last executeQuery
+     *
+     * @return result set or null
+     */
+    public ResultSet getResultSet() {
+        return rs;
+    }
+
+    private Statement statement() throws SQLException {
+        closeResults();
+        if (stmt == null) {
+            stmt = getConnection().createStatement();
+        }
+        return stmt;
+    }
+
+    private void closeResults() {
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (SQLException ex) {
+                logger.throwing(this.getClass().getName(), "closeResults", ex);
+            }
+            rs = null;
+        }
+    }
+
+    /**
+     * Close the statement and return the connection to the pool
+     */
+    @Override
+    public void close() {
+        if (conn == null) {
+            return;
+        }
+        closeResults();
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException ex) {
+                logger.throwing(this.getClass().getName(), "close", ex);
+            }
+            stmt = null;
+        }
+        pool.release(conn);
+        conn = null;
+    }
+}
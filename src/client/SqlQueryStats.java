@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Timings of SQL queries grouped by query. Compiled templates are grouped by
+ * their text as written, which is used as it is, other queries by their text
+ * with literal values replaced by ? so the same query with different values
+ * is counted once.
+ * Latencies are recorded in microseconds, queries slower than a threshold are
+ * also written to a slow query log.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class SqlQueryStats {
+
+    public static final long DEFAULT_SLOW = 1000;
+    /**
+     * Most queries tracked separately, any more are counted under OTHER
+     */
+    public static final int MAX_QUERIES = 500;
+    public static final String OTHER = "(other)";
+    private static final Pattern STRINGS = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"");
+    private static final Pattern NUMBERS = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern LISTS = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private final ConcurrentHashMap<String, Figures> queries = new ConcurrentHashMap<>();
+    private final SlowLog slowLog = new SlowLog("query", DEFAULT_SLOW, 100);
+
+    /**
+     * Figures for one query
+     */
+    public static final class Figures {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        /**
+         * @return latencies in microseconds
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return rows returned or changed
+         */
+        public long getRows() {
+            return rows.get();
+        }
+
+        /**
+         * @return number of runs that failed
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+    }
+
+    /**
+     * Record a query that completed
+     *
+     * @param query The query as run
+     * @param nanos How long it took
+     * @param rows Rows changed, negative if not known
+     */
+    public void record(String query, long nanos, long rows) {
+        record(normalize(query), query, nanos, rows);
+    }
+
+    /**
+     * Record a compiled query that completed
+     *
+     * @param template The query
+     * @param nanos How long it took
+     * @param rows Rows changed, negative if not known
+     */
+    public void record(SqlTemplate template, long nanos, long rows) {
+        record(template.getSource(), template.getSource(), nanos, rows);
+    }
+
+    /**
+     * Record a query that failed
+     *
+     * @param query The query as run
+     * @param nanos How long it took to fail
+     */
+    public void recordError(String query, long nanos) {
+        recordError(normalize(query), query, nanos);
+    }
+
+    /**
+     * Record a compiled query that failed
+     *
+     * @param template The query
+     * @param nanos How long it took to fail
+     */
+    public void recordError(SqlTemplate template, long nanos) {
+        recordError(template.getSource(), template.getSource(), nanos);
+    }
+
+    /**
+     * Record the rows read from a query that has already been recorded, once
+     * whoever consumed its results has read them
+     *
+     * @param query The query as run
+     * @param rows Rows returned
+     */
+    public void recordRows(String query, long rows) {
+        if (rows > 0) {
+            figures(normalize(query)).rows.addAndGet(rows);
+        }
+    }
+
+    /**
+     * Record the rows read from a compiled query that has already been
+     * recorded
+     *
+     * @param template The query
+     * @param rows Rows returned
+     */
+    public void recordRows(SqlTemplate template, long rows) {
+        if (rows > 0) {
+            figures(template.getSource()).rows.addAndGet(rows);
+        }
+    }
+
+    private void record(String key, String query, long nanos, long rows) {
+        Figures f = figures(key);
+        f.latency.record(nanos / 1000);
+        if (rows > 0) {
+            f.rows.addAndGet(rows);
+        }
+        slowLog.check(nanos / 1000000, query, rows < 0 ? null : rows + " rows");
+    }
+
+    private void recordError(String key, String query, long nanos) {
+        Figures f = figures(key);
+        f.latency.record(nanos / 1000);
+        f.errors.incrementAndGet();
+        slowLog.check(nanos / 1000000, query, "failed");
+    }
+
+    private Figures figures(String key) {
+        Figures f = queries.get(key);
+        if (f == null) {
+            if (queries.size() >= MAX_QUERIES) {
+                key = OTHER;
+            }
+            Figures created = new Figures();
+            f = queries.putIfAbsent(key, created);
+            if (f == null) {
+                f = created;
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Get the figures for a query
+     *
+     * @param key As listed by getQueries()
+     * @return figures or null if none recorded
+     */
+    public Figures getFigures(String key) {
+        return queries.get(key);
+    }
+
+    /**
+     * @return sorted list of the queries seen so far
+     */
+    public List<String> getQueries() {
+        List<String> result = new ArrayList<>(queries.keySet());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return number of queries run
+     */
+    public long getCount() {
+        long total = 0;
+        for (Figures f : queries.values()) {
+            total += f.latency.getCount();
+        }
+        return total;
+    }
+
+    /**
+     * @return number of queries that failed
+     */
+    public long getErrors() {
+        long total = 0;
+        for (Figures f : queries.values()) {
+            total += f.errors.get();
+        }
+        return total;
+    }
+
+    /**
+     * Set the time beyond which queries are logged as slow
+     *
+     * @param millis zero to log none
+     */
+    public void setSlowThreshold(long millis) {
+        slowLog.setThreshold(millis);
+    }
+
+    public long getSlowThreshold() {
+        return slowLog.getThreshold();
+    }
+
+    /**
+     * @return number of slow queries seen
+     */
+    public long getSlowCount() {
+        return slowLog.getCount();
+    }
+
+    /**
+     * @return the most recent slow queries, newest first
+     */
+    public List<String> getSlowQueries() {
+        return slowLog.getEntries();
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public void reset() {
+        queries.clear();
+        slowLog.clear();
+    }
+
+    /**
+     * Group a query with others that differ only in their values
+     *
+     * @param query
+     * @return the query with literals replaced by ?
+     */
+    public static String normalize(String query) {
+        String key = STRINGS.matcher(query).replaceAll("?");
+        key = NUMBERS.matcher(key).replaceAll("?");
+        key = LISTS.matcher(key).replaceAll("(?)");
+        return SPACES.matcher(key).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Least recently used cache of prepared statements for one pooled
+ * connection, so a query that is run again is only bound and executed rather
+ * than parsed again by the server. Statements are keyed by default database
+ * and text, the statement pushed out when the cache is full is closed.
+ * <p>
+ * Only the lease holding the connection uses its cache so no locking is
+ * needed.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class SqlStatementCache {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final Connection conn;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long lngHits = 0;
+    private long lngMisses = 0;
+
+    /**
+     * @param conn The connection the statements belong to
+     * @param capacity Maximum number of statements kept
+     */
+    SqlStatementCache(Connection conn, final int capacity) {
+        this.conn = conn;
+        statements = new LinkedHashMap<String, PreparedStatement>(capacity * 2, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > capacity) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a prepared statement for the query, ready for its parameters. It is
+     * keyed by the default database the connection has now, whoever selected
+     * it, as that decides which tables unqualified names refer to.
+     *
+     * @param sql The query
+     * @return the statement
+     * @throws SQLException
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        String catalog = conn.getCatalog();
+        String key = catalog == null ? sql : catalog + '\0' + sql;
+        PreparedStatement ps = statements.get(key);
+        if (ps != null) {
+            lngHits++;
+            ps.clearParameters();
+            return ps;
+        }
+        lngMisses++;
+        ps = conn.prepareStatement(sql);
+        statements.put(key, ps);
+        return ps;
+    }
+
+    /**
+     * Drop a statement that has failed so it is prepared again next time
+     *
+     * @param ps
+     */
+    void discard(PreparedStatement ps) {
+        if (statements.values().remove(ps)) {
+            closeQuietly(ps);
+        }
+    }
+
+    long getHits() {
+        return lngHits;
+    }
+
+    long getMisses() {
+        return lngMisses;
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * Close every cached statement
+     */
+    void close() {
+        for (PreparedStatement ps : statements.values()) {
+            closeQuietly(ps);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ex) {
+            logger.throwing(SqlStatementCache.class.getName(), "closeQuietly", ex);
+        }
+    }
+}
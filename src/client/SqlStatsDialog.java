@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ResourceBundle;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Shows the SQL query latency histograms, row counts and the slow query log
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class SqlStatsDialog extends javax.swing.JDialog {
+
+    private static final long serialVersionUID = 1L;
+    private final SqlQueryStats stats;
+    private final DefaultTableModel model;
+    private final DefaultListModel<String> slowModel = new DefaultListModel<>();
+
+    /**
+     * @param parent parent frame
+     * @param stats the statistics to display
+     */
+    public SqlStatsDialog(java.awt.Frame parent, SqlQueryStats stats) {
+        super(parent, false);
+        this.stats = stats;
+        ResourceBundle bundle = ResourceBundle.getBundle("lang/MessagesBundle");
+        setTitle(bundle.getString("title_sqlstats"));
+        model = new DefaultTableModel(new Object[]{
+            bundle.getString("col_query"), bundle.getString("col_runs"),
+            bundle.getString("col_rows"), bundle.getString("col_errors"),
+            "Mean", "p50", "p90", "p99", "Max"}, 0) {
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+
+            @Override
+            public Class<?> getColumnClass(int column) {
+                // Numeric columns sort as numbers
+                return column == 0 ? String.class : Number.class;
+            }
+        };
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(400);
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setBorder(BorderFactory.createTitledBorder(bundle.getString("lab_sqlstats")));
+        JScrollPane slowScroll = new JScrollPane(new JList<>(slowModel));
+        slowScroll.setBorder(BorderFactory.createTitledBorder(bundle.getString("lab_slowqueries")));
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, scroll, slowScroll);
+        split.setResizeWeight(0.7);
+
+        JButton jButtonRefresh = new JButton(bundle.getString("butt_refresh"));
+        jButtonRefresh.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        JButton jButtonReset = new JButton(bundle.getString("butt_reset"));
+        jButtonReset.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                SqlStatsDialog.this.stats.reset();
+                refresh();
+            }
+        });
+        JButton jButtonClose = new JButton(bundle.getString("butt_close"));
+        jButtonClose.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                dispose();
+            }
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(jButtonRefresh);
+        buttons.add(jButtonReset);
+        buttons.add(jButtonClose);
+
+        getContentPane().setLayout(new BorderLayout());
+        getContentPane().add(split, BorderLayout.CENTER);
+        getContentPane().add(buttons, BorderLayout.SOUTH);
+        setSize(900, 520);
+        refresh();
+    }
+
+    /**
+     * Reload the table from the current statistics, times are recorded in
+     * microseconds and shown in milliseconds
+     */
+    public void refresh() {
+        model.setRowCount(0);
+        for (String query : stats.getQueries()) {
+            SqlQueryStats.Figures f = stats.getFigures(query);
+            if (f == null) {
+                continue;
+            }
+            LatencyHistogram h = f.getLatency();
+            model.addRow(new Object[]{query, h.getCount(), f.getRows(), f.getErrors(),
+                millis(h.getMean()), millis(h.getPercentile(50)), millis(h.getPercentile(90)),
+                millis(h.getPercentile(99)), millis(h.getMax())});
+        }
+        slowModel.clear();
+        for (String s : stats.getSlowQueries()) {
+            slowModel.addElement(s);
+        }
+    }
+
+    private static Double millis(long micros) {
+        return Math.round(micros / 100.0) / 10.0;
+    }
+}
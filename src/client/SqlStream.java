@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * A query whose rows are read as they arrive from the server rather than
+ * buffered in full first, made by MangosSql.executeStream() or, to be run
+ * later with execute(), by MangosSql.prepareStream(). It holds a leased
+ * connection to itself until closed, which may be done from any thread.
+ * <p>
+ * With a fetch size of STREAM the MySQL driver passes rows on one at a time,
+ * with a positive fetch size it reads that many at a time from a server side
+ * cursor and with zero it buffers the whole result as an ordinary query does.
+ * A streamed result must be read to the end or cancelled before it is closed,
+ * closing it otherwise makes the driver read the remaining rows.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class SqlStream implements AutoCloseable {
+
+    /**
+     * Fetch size for row by row streaming
+     */
+    public static final int STREAM = Integer.MIN_VALUE;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final SqlLease lease;
+    private final PreparedStatement ps;
+    private final SqlTemplate template;
+    private final SqlQueryStats stats;
+    private ResultSet rs = null;
+
+    SqlStream(SqlLease lease, PreparedStatement ps, SqlTemplate template, SqlQueryStats stats) {
+        this.lease = lease;
+        this.ps = ps;
+        this.template = template;
+        this.stats = stats;
+    }
+
+    /**
+     * Run the query
+     *
+     * @return the rows, forward only and read only
+     * @throws SQLException
+     */
+    public ResultSet execute() throws SQLException {
+        long started = System.nanoTime();
+        try {
+            rs = ps.executeQuery();
+        } catch (SQLException ex) {
+            stats.recordError(template, System.nanoTime() - started);
+            throw ex;
+        }
+        // Only the time to the first rows, the rest are read later
+        stats.record(template, System.nanoTime() - started, -1);
+        return rs;
+    }
+
+    /**
+     * Count the rows read against the query, call once reading has finished
+     *
+     * @param rows Rows read
+     */
+    public void rowsRead(long rows) {
+        stats.recordRows(template, rows);
+    }
+
+    /**
+     * @return the rows, forward only and read only, or null before execute()
+     */
+    public ResultSet getResultSet() {
+        return rs;
+    }
+
+    /**
+     * @return the statement, for cancelling it
+     */
+    Statement getStatement() {
+        return ps;
+    }
+
+    /**
+     * Ask the server to stop the query, the reader then sees an error or the
+     * end of the rows
+     */
+    public void cancel() {
+        try {
+            ps.cancel();
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "cancel", ex);
+        }
+    }
+
+    /**
+     * Close the query and return its connection
+     */
+    @Override
+    public void close() {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "close", ex);
+        }
+        try {
+            ps.close();
+        } catch (SQLException ex) {
+            logger.throwing(this.getClass().getName(), "close", ex);
+        }
+        lease.close();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+/**
+ * A query whose *realm*, *mangos* and *char* placeholders have already been
+ * replaced with the database names of a connection profile. Templates are
+ * compiled once by MangosSql.compile() and are immutable, so running one only
+ * binds its ? parameters, the text is never rewritten again.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+public final class SqlTemplate {
+
+    private final String source;
+    private final String sql;
+
+    SqlTemplate(String source, String sql) {
+        this.source = source;
+        this.sql = sql;
+    }
+
+    /**
+     * @return the query as written, with placeholders
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the query with database names filled in
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import lib.SimpleFileIO;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the data of a table as insert statements. Tables with a primary key
+ * are read a page at a time, each page starting after the last key of the
+ * one before so the server never skips over rows already written. Tables
+ * without one are read through a single streamed result set. Either way the
+ * time taken grows in line with the size of the table.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class TableDumper {
+
+    public static final int PAGE = 2000;
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private final Connection conn;
+    private final String dbname;
+    private final SchemaCatalog catalog;
+    private Listener listener = null;
+    private SimpleFileIO out;
+    private SchemaCatalog.Columns columns;
+    private String strTable;
+    private int intInserts;
+    private int intInsertCount;
+    private long lngRecords;
+    private long lngWritten;
+
+    /**
+     * Told of progress through a table
+     */
+    interface Listener {
+
+        /**
+         * @param table The table being written
+         * @param percent How far through it
+         */
+        void progress(String table, int percent);
+    }
+
+    /**
+     * @param conn The connection the table is read from
+     * @param dbname The database the table is in
+     * @param catalog Supplies the columns and keys of the table
+     */
+    TableDumper(Connection conn, String dbname, SchemaCatalog catalog) {
+        this.conn = conn;
+        this.dbname = dbname;
+        this.catalog = catalog;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Write the drop and create statements of a table
+     *
+     * @param table The table
+     * @param out Written to, must already be open
+     * @throws SQLException
+     */
+    void writeStructure(String table, SimpleFileIO out) throws SQLException {
+        String definition = catalog.getDefinition(conn, dbname, table);
+        out.writeToFile("-- Table structure for table '" + table + "' --", 1);
+        out.writeToFile("DROP TABLE IF EXISTS `" + table + "`;", 1);
+        out.writeToFile(definition + ";", 2);
+    }
+
+    /**
+     * Write the data of a table
+     *
+     * @param table The table
+     * @param inserts The number of rows merged into one insert statement
+     * @param where The where part of a query, may be null
+     * @param out Written to, must already be open
+     * @return the number of rows written
+     * @throws SQLException
+     */
+    long dump(String table, int inserts, String where, SimpleFileIO out) throws SQLException {
+        String from = "`" + dbname + "`.`" + table + "`";
+        String query = "select count(*) from " + from + (where == null ? "" : " where " + where);
+        logger.log(Level.INFO, "writeSQLTable {0}", query);
+        try (Statement st = conn.createStatement();
+                ResultSet rs = st.executeQuery(query)) {
+            rs.next();
+            lngRecords = rs.getLong(1);
+        }
+        // Exit if zero records
+        if (lngRecords == 0) {
+            return 0;
+        }
+
+        this.out = out;
+        strTable = table;
+        intInserts = Math.max(1, inserts);
+        intInsertCount = 0;
+        lngWritten = 0;
+        columns = catalog.getColumns(conn, dbname, table);
+        out.writeToFile("-- Data for the table '" + table + "' --", 1);
+        out.writeToFile("lock tables `" + table + "` write;", 1);
+        progress(0);
+
+        List<String> key = catalog.getPrimaryKey(conn, dbname, table);
+        if (key.isEmpty()) {
+            dumpStreamed(from, where);
+        } else {
+            dumpByKey(from, where, key);
+        }
+
+        if (intInsertCount > 0) {
+            out.writeToFile(";", 1);
+        }
+        out.writeToFile("unlock tables;", 2);
+        out.fileFlush();
+        return lngWritten;
+    }
+
+    /**
+     * Read a page at a time, each page seeking past the last key written
+     */
+    private void dumpByKey(String from, String where, List<String> key) throws SQLException {
+        int[] keyCols = new int[key.size()];
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < keyCols.length; i++) {
+            keyCols[i] = findColumn(key.get(i));
+            order.append(i == 0 ? "`" : ",`").append(key.get(i)).append('`');
+        }
+        String first = "select * from " + from + (where == null ? "" : " where " + where)
+                + " order by " + order + " limit " + PAGE;
+        String next = "select * from " + from + " where " + (where == null ? "" : "(" + where + ") and ")
+                + seek(key, 0) + " order by " + order + " limit " + PAGE;
+        logger.log(Level.INFO, "writeSQLTable {0}", next);
+
+        Object[] last = new Object[keyCols.length];
+        try (Statement st = conn.createStatement();
+                PreparedStatement ps = conn.prepareStatement(next)) {
+            ResultSet rs = st.executeQuery(first);
+            while (true) {
+                int rows = 0;
+                try {
+                    while (rs.next()) {
+                        writeRow(rs);
+                        rows++;
+                        for (int i = 0; i < keyCols.length; i++) {
+                            last[i] = rs.getObject(keyCols[i]);
+                        }
+                    }
+                } finally {
+                    rs.close();
+                }
+                if (rows < PAGE) {
+                    return;
+                }
+                int idx = 1;
+                for (int i = 0; i < last.length; i++) {
+                    // Every column but the last is compared twice
+                    ps.setObject(idx++, last[i]);
+                    if (i < last.length - 1) {
+                        ps.setObject(idx++, last[i]);
+                    }
+                }
+                rs = ps.executeQuery();
+            }
+        }
+    }
+
+    /**
+     * Read the whole table through one result set the server streams to us
+     */
+    private void dumpStreamed(String from, String where) throws SQLException {
+        String query = "select * from " + from + (where == null ? "" : " where " + where);
+        logger.log(Level.INFO, "writeSQLTable {0}", query);
+        try (Statement st = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            st.setFetchSize(SqlStream.STREAM);
+            try (ResultSet rs = st.executeQuery(query)) {
+                while (rs.next()) {
+                    writeRow(rs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rows after a key, written so the first key column alone bounds the
+     * range even where the server does not use an index for row comparisons
+     *
+     * @param key The key columns
+     * @param idx The first column compared
+     * @return the condition with a ? for each value
+     */
+    private static String seek(List<String> key, int idx) {
+        String col = "`" + key.get(idx) + "`";
+        if (idx == key.size() - 1) {
+            return col + " > ?";
+        }
+        return col + " >= ? and (" + col + " > ? or " + seek(key, idx + 1) + ")";
+    }
+
+    private int findColumn(String name) throws SQLException {
+        for (int i = 1; i <= columns.getCount(); i++) {
+            if (columns.getName(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new SQLException("Key column " + name + " not found in " + strTable);
+    }
+
+    private void writeRow(ResultSet rs) throws SQLException {
+        if (intInsertCount == 0) {
+            out.writeToFile("insert into `" + strTable + "` values ", 0);
+        }
+        StringBuilder values = new StringBuilder(intInsertCount == 0 ? "(" : ",(");
+        String temp;
+        // Get data values from each column and format result based on column type
+        for (int i = 1; i <= columns.getCount(); i++) {
+            if (i > 1) {
+                values.append(',');
+            }
+            switch (columns.getType(i)) {
+                case java.sql.Types.BIGINT:
+                case java.sql.Types.BINARY:
+                case java.sql.Types.DOUBLE:
+                case java.sql.Types.FLOAT:
+                case java.sql.Types.INTEGER:
+                case java.sql.Types.REAL:
+                case java.sql.Types.NUMERIC:
+                case java.sql.Types.SMALLINT:
+                case java.sql.Types.TINYINT:
+                    values.append(rs.getString(i));
+                    break;
+
+                case java.sql.Types.TIMESTAMP:
+                    try {
+                        temp = rs.getString(i);
+                    } catch (SQLException e) {
+                        temp = "0000-00-00 00:00:00";
+                    }
+                    if (temp == null) {
+                        values.append("null");
+                    } else {
+                        values.append('\'').append(temp).append('\'');
+                    }
+                    break;
+
+                default:
+                    temp = rs.getString(i);
+                    if (temp != null) {
+                        temp = temp.replaceAll("[']", "\\\\'");
+                        temp = temp.replaceAll("[\n]", "\\\\n");
+                        temp = temp.replaceAll("[\r]", "\\\\r");
+                        values.append('\'').append(temp).append('\'');
+                    } else {
+                        values.append(temp);
+                    }
+                    break;
+            }
+        }
+        values.append(')');
+        out.writeToFile(values.toString(), 0);
+        progress((int) (++lngWritten * 100 / lngRecords));
+        // Keep bulk inserts from growing too large by splitting them after a
+        // number of rows
+        if (++intInsertCount >= intInserts) {
+            intInsertCount = 0;
+            out.writeToFile(";", 1);
+            out.fileFlush();
+        }
+    }
+
+    private void progress(int percent) {
+        if (listener != null) {
+            listener.progress(strTable, Math.min(100, percent));
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2007-2013 Alistair Neil, <info@dazzleships.net>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License Version 2 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import lib.DBJTableBean;
+
+/**
+ * Fills a table from a streamed query as the rows arrive, so the first rows
+ * of a large result are shown at once and only the rows read so far are held
+ * in memory besides the table's own copy.
+ * <p>
+ * The query is run and read on the AsyncSql executor and its rows handed to
+ * the table a batch at a time on the event dispatch thread. The table reads
+ * each batch through a result set standing in for the real one, which keeps
+ * the key column of every row so cell edits still find their row, and which
+ * edits through the connection given rather than the one the query was read
+ * from. Starting a new load cancels the one before, on the server too.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ *
+ * @author Alistair Neil, <info@dazzleships.net>
+ */
+final class TableStreamer {
+
+    private static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    private static final int BATCH = 500;
+    private static final long BATCH_WAIT = 200;
+    private final DBJTableBean table;
+    private final String strKey;
+    private Load current = null;
+    private AsyncSql async = null;
+
+    /**
+     * Told as the table is filled, on the event dispatch thread
+     */
+    interface Listener {
+
+        /**
+         * The columns are in the table and no rows yet, set editors and
+         * renderers on them here
+         */
+        void started();
+
+        /**
+         * @param rows Rows in the table so far
+         * @param finished true once every row is in
+         */
+        void loaded(int rows, boolean finished);
+    }
+
+    /**
+     * @param table The table to fill
+     * @param key The AsyncSql request key loads are made under
+     */
+    TableStreamer(DBJTableBean table, String key) {
+        this.table = table;
+        this.strKey = key;
+    }
+
+    /**
+     * Replace the table contents with the rows of a query. Returns at once,
+     * the table is left as it is until the query has run.
+     *
+     * @param async The executor and databases to run the query with
+     * @param template The compiled query
+     * @param params The parameter values
+     * @param edits Connection cell edits are made through, null if the table
+     * is not edited in which case the query may be read from the replica
+     * @param key The primary key column
+     * @param listener May be null
+     */
+    void start(AsyncSql async, final SqlTemplate template, final Object[] params,
+            Connection edits, String key, Listener listener) {
+        final Load load = new Load(async.getSql(), edits, key, listener);
+        current = load;
+        this.async = async;
+        async.submit(strKey, new AsyncSql.Work<Void>() {
+
+            @Override
+            public Void run(AsyncSql.Request request) throws SQLException {
+                load.read(request, template, params);
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Stop the load in progress, rows already shown stay
+     */
+    void cancel() {
+        current = null;
+        if (async != null) {
+            async.cancel(strKey);
+        }
+    }
+
+    /**
+     * @return true while rows are still arriving
+     */
+    boolean isLoading() {
+        return current != null;
+    }
+
+    /**
+     * One load, read on the executor and added to the table on the event
+     * dispatch thread
+     */
+    private final class Load implements InvocationHandler {
+
+        private final MangosSql sql;
+        private final Connection edits;
+        private final String strKeyColumn;
+        private final Listener listener;
+        private final ArrayList<String> keys = new ArrayList<>();
+        private ResultSetMetaData meta;
+        private int intColumns;
+        private int intKey = 0;
+        private ResultSet proxy;
+        private Statement statement;
+        private List<Object[]> batch = null;
+        private int intPos = -1;
+        private int intRows = 0;
+
+        private Load(MangosSql sql, Connection edits, String key, Listener listener) {
+            this.sql = sql;
+            this.edits = edits;
+            this.strKeyColumn = key;
+            this.listener = listener;
+        }
+
+        /**
+         * Run the query and pass its rows on, on the executor
+         */
+        private void read(AsyncSql.Request request, SqlTemplate template, Object[] params) throws SQLException {
+            long started = System.currentTimeMillis();
+            int total = 0;
+            List<Object[]> rows = new ArrayList<>(BATCH);
+            // Edited tables read from the primary, the replica may not have
+            // the last edit yet
+            try (SqlStream stream = edits == null ? sql.prepareStream(template, params)
+                    : sql.preparePrimaryStream(template, params)) {
+                request.watch(stream.getStatement());
+                ResultSet rs = stream.execute();
+                meta = rs.getMetaData();
+                intColumns = meta.getColumnCount();
+                for (int i = 1; i <= intColumns; i++) {
+                    if (meta.getColumnLabel(i).equalsIgnoreCase(strKeyColumn)) {
+                        intKey = i;
+                    }
+                }
+                proxy = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, this);
+                statement = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                        new Class<?>[]{Statement.class}, this);
+                request.publish(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        begin();
+                    }
+                });
+                long last = System.currentTimeMillis();
+                try {
+                    while (!request.isCancelled() && rs.next()) {
+                        Object[] row = new Object[intColumns];
+                        for (int i = 0; i < intColumns; i++) {
+                            try {
+                                row[i] = rs.getObject(i + 1);
+                            } catch (SQLException ex) {
+                                // As the table does, a value that cannot be read is shown as NULL
+                                row[i] = null;
+                            }
+                        }
+                        rows.add(row);
+                        total++;
+                        long now = System.currentTimeMillis();
+                        if (rows.size() >= BATCH || now - last >= BATCH_WAIT) {
+                            post(rows, false);
+                            rows = new ArrayList<>(BATCH);
+                            last = now;
+                        }
+                    }
+                } catch (SQLException ex) {
+                    if (!request.isCancelled()) {
+                        logger.throwing(this.getClass().getName(), "read", ex);
+                    }
+                }
+                stream.rowsRead(total);
+                logger.log(Level.INFO, "Streamed {0} rows in {1} ms{2}", new Object[]{total,
+                    System.currentTimeMillis() - started, request.isCancelled() ? ", cancelled" : ""});
+                post(rows, true);
+            } catch (SQLException ex) {
+                // Nothing was shown, leave the table as it was
+                post(null, true);
+                throw ex;
+            }
+        }
+
+        /**
+         * Set the table up for the rows, on the event dispatch thread
+         */
+        private void begin() {
+            if (current != this) {
+                return;
+            }
+            table.setResultSet(proxy);
+            if (listener != null) {
+                listener.started();
+            }
+        }
+
+        private void post(final List<Object[]> rows, final boolean finished) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    deliver(rows, finished);
+                }
+            });
+        }
+
+        /**
+         * Add a batch to the table, on the event dispatch thread
+         */
+        private void deliver(List<Object[]> rows, boolean finished) {
+            if (current != this) {
+                return;
+            }
+            if (finished) {
+                current = null;
+            }
+            if (rows == null) {
+                return;
+            }
+            // An empty batch would clear the table, only pass one on if nothing came
+            if (!rows.isEmpty() || (finished && intRows == 0)) {
+                batch = rows;
+                intPos = -1;
+                table.getModel().refreshTableContents();
+                batch = null;
+                if (intKey > 0) {
+                    for (Object[] row : rows) {
+                        keys.add(row[intKey - 1] == null ? "NULL" : row[intKey - 1].toString());
+                    }
+                }
+                intRows += rows.size();
+            }
+            if (listener != null) {
+                listener.loaded(intRows, finished);
+            }
+        }
+
+        /**
+         * The result set and statement the table sees. While a batch is being
+         * added it walks the batch, otherwise it walks the keys of the rows
+         * added so far.
+         */
+        @Override
+        public Object invoke(Object obj, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "getConnection":
+                    return edits;
+                case "getStatement":
+                    return statement;
+                case "getMetaData":
+                    return meta;
+                case "isClosed":
+                    return false;
+                case "beforeFirst":
+                case "close":
+                    return null;
+                case "first":
+                    intPos = 0;
+                    return !keys.isEmpty();
+                case "next":
+                    intPos++;
+                    return intPos < (batch != null ? batch.size() : keys.size());
+                case "getObject":
+                    if (batch != null && args.length == 1 && args[0] instanceof Integer) {
+                        return batch.get(intPos)[(Integer) args[0] - 1];
+                    }
+                    break;
+                case "getString":
+                    if (batch == null && args.length == 1 && args[0] instanceof Integer
+                            && (Integer) args[0] == intKey) {
+                        if (intPos < 0 || intPos >= keys.size()) {
+                            throw new SQLException("No current row");
+                        }
+                        return keys.get(intPos);
+                    }
+                    break;
+                case "hashCode":
+                    return System.identityHashCode(obj);
+                case "equals":
+                    return obj == args[0];
+                case "toString":
+                    return "TableStreamer";
+            }
+            throw new SQLFeatureNotSupportedException(name);
+        }
+    }
+}